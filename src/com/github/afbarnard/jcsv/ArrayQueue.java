@@ -11,7 +11,11 @@ import java.util.NoSuchElementException;
  * A fast, lightweight, fixed-capacity queue implemented as a circular
  * buffer.  It is similar in functionality to {@link
  * java.util.concurrent.ArrayBlockingQueue} but is just intended for
- * basic use, not concurrent use.
+ * basic use, not concurrent use.  (See {@link SpscArrayQueue} for use
+ * between two threads.)
+ *
+ * <p>When the storage (one more than the capacity) is a power of two,
+ * indices wrap with a mask rather than a division.</p>
  */
 public class ArrayQueue<E> {
     /*
@@ -35,27 +39,51 @@ public class ArrayQueue<E> {
      */
     private int tailIndex = 0;
 
+    /**
+     * Mask for wrapping indices if the storage is a power of two,
+     * otherwise -1.
+     */
+    private final int mask;
+
     public ArrayQueue(int capacity) {
-        queue = new Object[capacity + 1];
+        this(capacity, false);
+    }
+
+    /**
+     * Makes a queue with the given capacity, rounded up (to one less
+     * than a power of two) if requested so that indices wrap with a
+     * mask.
+     */
+    public ArrayQueue(int capacity, boolean powerOfTwo) {
+        int length = capacity + 1;
+        if (powerOfTwo && Integer.bitCount(length) != 1) {
+            length = Integer.highestOneBit(length) << 1;
+        }
+        queue = new Object[length];
+        mask = (Integer.bitCount(length) == 1 ? length - 1 : -1);
     }
 
     public ArrayQueue() {
         this(100);
     }
 
+    public int capacity() {
+        return queue.length - 1;
+    }
+
     public int size() {
-        return (tailIndex + queue.length - headIndex) % queue.length;
+        return wrap(tailIndex + queue.length - headIndex);
     }
 
     public int freeSize() {
-        return (headIndex + queue.length - tailIndex - 1) % queue.length;
+        return wrap(headIndex + queue.length - tailIndex - 1);
     }
 
     public void put(E element) {
         if (freeSize() <= 0)
             throw new IllegalStateException("No free space.");
         queue[tailIndex] = element;
-        tailIndex = (tailIndex + 1) % queue.length;
+        tailIndex = wrap(tailIndex + 1);
     }
 
     @SuppressWarnings("unchecked")
@@ -63,7 +91,15 @@ public class ArrayQueue<E> {
         if (tailIndex == headIndex)
             throw new NoSuchElementException();
         E element = (E) queue[headIndex];
-        headIndex = (headIndex + 1) % queue.length;
+        headIndex = wrap(headIndex + 1);
         return element;
     }
+
+    /** Wraps the given index (which may be up to twice the storage). */
+    private int wrap(int index) {
+        if (mask >= 0) {
+            return index & mask;
+        }
+        return index % queue.length;
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArrayQueueIntTest {
+
+    static final int QUEUE_SIZE = 10;
+
+    static final int[] ints = {
+        -74, 82, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 91, 48,
+        1 << 30, -37, -90, 7, 65536,
+    };
+
+    ArrayQueueInt queue;
+
+    private void checkSizes(int size, int free) {
+        assertEquals(size, queue.size());
+        assertEquals(free, queue.freeSize());
+    }
+
+    @Before public void setUp() {
+        queue = new ArrayQueueInt(QUEUE_SIZE);
+    }
+
+    @Test public void newSizes() {
+        checkSizes(0, QUEUE_SIZE);
+        assertEquals(QUEUE_SIZE, queue.capacity());
+    }
+
+    @Test public void putGet() {
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            queue.put(ints[index]);
+        }
+        checkSizes(QUEUE_SIZE, 0);
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            assertEquals(ints[index], queue.get());
+        }
+        checkSizes(0, QUEUE_SIZE);
+    }
+
+    @Test public void wrapAround() {
+        // Interleave puts and gets so the queue wraps many times
+        int putIndex = 0;
+        int getIndex = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int count = 0; count < 7; count++) {
+                queue.put(ints[putIndex++ % ints.length]);
+            }
+            checkSizes(7, QUEUE_SIZE - 7);
+            for (int count = 0; count < 7; count++) {
+                assertEquals(ints[getIndex++ % ints.length], queue.get());
+            }
+        }
+        checkSizes(0, QUEUE_SIZE);
+    }
+
+    @Test public void powerOfTwo() {
+        queue = new ArrayQueueInt(QUEUE_SIZE, true);
+        assertEquals(15, queue.capacity());
+        for (int round = 0; round < 5; round++) {
+            for (int value : ints) {
+                queue.put(value);
+            }
+            checkSizes(ints.length, 15 - ints.length);
+            for (int value : ints) {
+                assertEquals(value, queue.get());
+            }
+        }
+    }
+
+    @Test public void putFull() {
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            queue.put(ints[index]);
+        }
+        try {
+            queue.put(1);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        checkSizes(QUEUE_SIZE, 0);
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getEmpty() {
+        queue.get();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArrayQueueLongTest {
+
+    static final int QUEUE_SIZE = 10;
+
+    /** Values that do not fit in an int. */
+    static final long[] longs = {
+        -8589934592L, 4294967296L, Long.MIN_VALUE, Long.MAX_VALUE, 0L,
+        -1L, 6000000000L, -6000000000L, 1L << 40, 1L << 62,
+        3L, -3L, 7L << 33,
+    };
+
+    ArrayQueueLong queue;
+
+    private void checkSizes(int size, int free) {
+        assertEquals(size, queue.size());
+        assertEquals(free, queue.freeSize());
+    }
+
+    @Before public void setUp() {
+        queue = new ArrayQueueLong(QUEUE_SIZE);
+    }
+
+    @Test public void newSizes() {
+        checkSizes(0, QUEUE_SIZE);
+        assertEquals(QUEUE_SIZE, queue.capacity());
+    }
+
+    @Test public void putGet() {
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            queue.put(longs[index]);
+        }
+        checkSizes(QUEUE_SIZE, 0);
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            assertEquals(longs[index], queue.get());
+        }
+        checkSizes(0, QUEUE_SIZE);
+    }
+
+    @Test public void wrapAround() {
+        // Interleave puts and gets so the queue wraps many times
+        int putIndex = 0;
+        int getIndex = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int count = 0; count < 7; count++) {
+                queue.put(longs[putIndex++ % longs.length]);
+            }
+            checkSizes(7, QUEUE_SIZE - 7);
+            for (int count = 0; count < 7; count++) {
+                assertEquals(longs[getIndex++ % longs.length], queue.get());
+            }
+        }
+        checkSizes(0, QUEUE_SIZE);
+    }
+
+    @Test public void powerOfTwo() {
+        queue = new ArrayQueueLong(QUEUE_SIZE, true);
+        assertEquals(15, queue.capacity());
+        for (int round = 0; round < 5; round++) {
+            for (long value : longs) {
+                queue.put(value);
+            }
+            checkSizes(longs.length, 15 - longs.length);
+            for (long value : longs) {
+                assertEquals(value, queue.get());
+            }
+        }
+    }
+
+    @Test public void putFull() {
+        for (int index = 0; index < QUEUE_SIZE; index++) {
+            queue.put(longs[index]);
+        }
+        try {
+            queue.put(1L);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        checkSizes(QUEUE_SIZE, 0);
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getEmpty() {
+        queue.get();
+    }
+}
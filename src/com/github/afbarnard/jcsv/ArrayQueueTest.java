@@ -175,6 +175,22 @@ public class ArrayQueueTest {
         }
     }
 
+    @Test public void powerOfTwo() {
+        queue = new ArrayQueue<Integer>(QUEUE_SIZE, true);
+        // Storage is 16
+        assertEquals(15, queue.capacity());
+        checkSizes(0, 15);
+        int[] ints = {-91, 66, -47, 52, 81, 47, 29, 97, 68, 35, -54};
+        for (int round = 0; round < 5; round++) {
+            multiPut(ints);
+            checkSizes(ints.length, 15 - ints.length);
+            multiGetCheck(ints);
+            checkSizes(0, 15);
+        }
+        queue = new ArrayQueue<Integer>(15, true);
+        assertEquals(15, queue.capacity());
+    }
+
     @Test(expected=NoSuchElementException.class)
     public void getEmpty() {
         queue.get();
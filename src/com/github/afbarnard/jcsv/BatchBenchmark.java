@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.StringReader;
+
+/**
+ * Measures the throughput and allocation of reading typed columns of
+ * wide input (see {@link Benchmark#manyColumnsCorpus(int, int)}) into
+ * arrays, converting strings from {@link Record#getString(int)} versus
+ * filling a {@link ColumnBatch} with {@link
+ * Parser#readBatch(ColumnBatch)}.  Both project the same columns, so
+ * the difference is in decoding the values.
+ */
+public class BatchBenchmark {
+
+    public static final int BATCH_SIZE = 1024;
+
+    public static Schema schema() {
+        return new Schema()
+            .add("c1", Schema.Type.STRING)
+            .add("c4", Schema.Type.DOUBLE)
+            .add("c6", Schema.Type.LONG)
+            .add("c7", Schema.Type.INT);
+    }
+
+    public static Benchmark strings(final String text) {
+        return new Benchmark("Columns via getString") {
+            public long run() throws Exception {
+                Parser parser = new Parser(RFC4180, new StringReader(text));
+                parser.setProjection("c1", "c4", "c6", "c7");
+                String[] names = new String[BATCH_SIZE];
+                double[] doubles = new double[BATCH_SIZE];
+                long[] longs = new long[BATCH_SIZE];
+                int[] ints = new int[BATCH_SIZE];
+                long sum = 0;
+                int row = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    names[row] = record.getString(0);
+                    doubles[row] = Double.parseDouble(record.getString(1));
+                    longs[row] = Long.parseLong(record.getString(2));
+                    ints[row] = Integer.parseInt(record.getString(3));
+                    parser.free(record);
+                    row++;
+                    if (row == BATCH_SIZE) {
+                        sum += sum(names, doubles, longs, ints, row);
+                        row = 0;
+                    }
+                }
+                sum += sum(names, doubles, longs, ints, row);
+                sink = sum;
+                return text.length();
+            }
+        };
+    }
+
+    private static long sum(String[] names, double[] doubles, long[] longs,
+                            int[] ints, int size) {
+        long sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += names[row].length() + (long) doubles[row]
+                + longs[row] + ints[row];
+        }
+        return sum;
+    }
+
+    public static Benchmark batches(final String text) {
+        return new Benchmark("Columns via readBatch") {
+            public long run() throws Exception {
+                Parser parser = new Parser(RFC4180, new StringReader(text));
+                Schema schema = schema();
+                parser.setSchema(schema);
+                ColumnBatch batch = new ColumnBatch(schema, BATCH_SIZE);
+                int[] ends = batch.getStringEnds(0);
+                double[] doubles = batch.getDoubles(1);
+                long[] longs = batch.getLongs(2);
+                int[] ints = batch.getInts(3);
+                long sum = 0;
+                int size;
+                while ((size = parser.readBatch(batch)) > 0) {
+                    sum += ends[size - 1];
+                    for (int row = 0; row < size; row++) {
+                        sum += (long) doubles[row] + longs[row] + ints[row];
+                    }
+                }
+                sink = sum;
+                return text.length();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        String text = Benchmark.manyColumnsCorpus(8000000, 20);
+        strings(text).measure();
+        batches(text).measure();
+    }
+}
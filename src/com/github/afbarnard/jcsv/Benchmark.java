@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A minimal benchmark harness.  A benchmark is a unit of work that
+ * reports how many items (characters, tokens, etc.) it processed.  The
+ * harness runs the work a number of times to warm up the JIT, then
+ * times a number of runs and reports the best and median throughput.
+ * Where the JVM supports it, the harness also reports the number of
+ * bytes allocated per item.
+ *
+ * <p>The harness also generates corpora of different shapes of CSV.
+ * The corpora are the same for every run (the random numbers are
+ * seeded) and all records of a corpus have the same number of fields,
+ * so they are valid for {@link #RFC4180}.</p>
+ */
+public abstract class Benchmark {
+
+    public static int warmupRuns = 5;
+    public static int timedRuns = 10;
+
+    /** Place to put results so the JIT cannot discard the work. */
+    public static volatile long sink;
+
+    /** The name to report for this benchmark. */
+    public final String name;
+
+    public Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Does one run of the work to be measured and returns the number
+     * of items processed.
+     */
+    public abstract long run() throws Exception;
+
+    /**
+     * Returns the number of bytes allocated so far by the current
+     * thread or -1 if not supported.
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Runs this benchmark and prints its throughput in items per
+     * second.  Returns the median throughput.
+     */
+    public double measure() throws Exception {
+        // Accumulate the results so the JIT cannot discard the work
+        long items = 0;
+        for (int run = 0; run < warmupRuns; run++) {
+            items += run();
+        }
+        double[] rates = new double[timedRuns];
+        long timedItems = 0;
+        long allocated = allocatedBytes();
+        for (int run = 0; run < timedRuns; run++) {
+            long start = System.nanoTime();
+            long count = run();
+            long elapsed = System.nanoTime() - start;
+            items += count;
+            timedItems += count;
+            rates[run] = count / (elapsed / 1e9);
+        }
+        allocated = allocatedBytes() - allocated;
+        Arrays.sort(rates);
+        double best = rates[rates.length - 1];
+        double median = rates[rates.length / 2];
+        System.out.println(String.format("%-40s %14.0f /s (best %14.0f /s) %8.2f B/item [%d]",
+                                         name, median, best,
+                                         (double) allocated / timedItems,
+                                         items));
+        return median;
+    }
+
+    /**
+     * The dialect of RFC 4180 (and of most other parsers' defaults):
+     * doubled quotes and nothing else.
+     */
+    public static final Dialect RFC4180 =
+        new Dialect(',', '"', '\\', '#',
+                    Dialect.QuoteEscapeStyle.DOUBLED,
+                    false, true, false, false);
+
+    private static final String[] WORDS = {
+        "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog",
+        "lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+        "adipiscing", "elit", "sed", "do", "eiusmod", "tempor",
+    };
+
+    private static void appendWords(StringBuilder builder, Random random,
+                                    int count) {
+        for (int word = 0; word < count; word++) {
+            if (word > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+    /** Records of 10 short integers and decimals. */
+    public static String narrowNumericCorpus(int size) {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder(size + 200);
+        while (builder.length() < size) {
+            for (int field = 0; field < 10; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                if (field % 2 == 0) {
+                    builder.append(random.nextInt(200000) - 100000);
+                } else {
+                    builder.append(random.nextInt(10000) / 100.0);
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Records of 5 long unquoted text fields. */
+    public static String wideTextCorpus(int size) {
+        Random random = new Random(2);
+        StringBuilder builder = new StringBuilder(size + 2000);
+        while (builder.length() < size) {
+            for (int field = 0; field < 5; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                appendWords(builder, random, 10 + random.nextInt(30));
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Records of 6 quoted fields containing delimiters, doubled quotes,
+     * and newlines.
+     */
+    public static String quotedCorpus(int size) {
+        Random random = new Random(3);
+        StringBuilder builder = new StringBuilder(size + 1000);
+        while (builder.length() < size) {
+            for (int field = 0; field < 6; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                builder.append('"');
+                appendWords(builder, random, 1 + random.nextInt(4));
+                switch (random.nextInt(4)) {
+                case 0:
+                    builder.append(", ");
+                    break;
+                case 1:
+                    builder.append(" \"\"quoted\"\" ");
+                    break;
+                case 2:
+                    builder.append('\n');
+                    break;
+                default:
+                }
+                appendWords(builder, random, 1 + random.nextInt(4));
+                builder.append('"');
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Records of 8 mixed text and numeric fields ending in CRLF. */
+    public static String crlfCorpus(int size) {
+        Random random = new Random(4);
+        StringBuilder builder = new StringBuilder(size + 200);
+        while (builder.length() < size) {
+            for (int field = 0; field < 8; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                if (field % 2 == 0) {
+                    appendWords(builder, random, 1 + random.nextInt(3));
+                } else {
+                    builder.append(random.nextInt(1000000));
+                }
+            }
+            builder.append("\r\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A header naming the given number of columns ("c0", "c1", ...)
+     * and records of short mixed fields, every tenth of them quoted.
+     */
+    public static String manyColumnsCorpus(int size, int columns) {
+        Random random = new Random(5);
+        StringBuilder builder = new StringBuilder(size + 20 * columns);
+        for (int field = 0; field < columns; field++) {
+            if (field > 0) {
+                builder.append(',');
+            }
+            builder.append('c').append(field);
+        }
+        builder.append('\n');
+        while (builder.length() < size) {
+            for (int field = 0; field < columns; field++) {
+                if (field > 0) {
+                    builder.append(',');
+                }
+                switch (field % 10) {
+                case 0:
+                    builder.append('"');
+                    appendWords(builder, random, 1 + random.nextInt(2));
+                    builder.append(", ");
+                    appendWords(builder, random, 1);
+                    builder.append('"');
+                    break;
+                case 1:
+                case 2:
+                case 3:
+                    appendWords(builder, random, 1);
+                    break;
+                case 4:
+                case 5:
+                    builder.append(random.nextInt(10000) / 100.0);
+                    break;
+                default:
+                    builder.append(random.nextInt(1000000));
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Returns all the corpora by name. */
+    public static Map<String, String> corpora(int size) {
+        Map<String, String> corpora = new LinkedHashMap<String, String>();
+        corpora.put("narrow numeric", narrowNumericCorpus(size));
+        corpora.put("wide text", wideTextCorpus(size));
+        corpora.put("quoted", quotedCorpus(size));
+        corpora.put("CRLF", crlfCorpus(size));
+        return corpora;
+    }
+}
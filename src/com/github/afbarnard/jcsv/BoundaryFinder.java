@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds positions in UTF-8 input where records start, so that the input
+ * can be split into chunks that parse independently.  A record start
+ * is the start of a line that is not inside a quoted field and does not
+ * follow an escaped newline.
+ *
+ * <p>The finder runs a small automaton over the bytes of the input that
+ * follows the quoting, escaping, and commenting rules of the
+ * {@link Parser} but does nothing else.  It is much faster than lexing
+ * and parsing.</p>
+ *
+ * <p>The automaton can also run in parallel.  Whether a position is a
+ * record start depends on everything before it, so each segment of the
+ * input is scanned speculatively from every possible starting state.
+ * Then a quick serial pass over the segments picks the actual starting
+ * state of each segment from the ending state of the previous one.
+ * This is the quote-parity trick (count the quotes in each segment and
+ * take prefix sums of the parities) generalized from two states to all
+ * the states needed by the dialect.  (Plain quote parity is not enough
+ * because a quote only opens a field at the start of the field, and
+ * escapes and comments hide quotes and newlines.)  Most states converge
+ * within a few bytes, after which only one state is simulated.</p>
+ */
+public class BoundaryFinder {
+
+    /*
+     * The automaton states.  LINE_START is the state at a record start.
+     * CR is the state after an unquoted carriage return, which is a
+     * record start unless a line feed follows.  Only that one line feed
+     * joins the carriage return, so "\r\n\n" is two line ends, as in
+     * the lexers.  AFTER_QUOTE is the
+     * state after a quote in a quoted field, which either closes the
+     * field or starts a doubled quote.  Errors (like content after a
+     * closing quote) are left to the parser, so the automaton treats
+     * a closed quoted field like an unquoted one.
+     */
+    static final int LINE_START = 0;
+    static final int FIELD_START = 1;
+    static final int UNQUOTED = 2;
+    static final int UNQUOTED_ESCAPE = 3;
+    static final int ESCAPED_CR = 4;
+    static final int QUOTED = 5;
+    static final int QUOTED_ESCAPE = 6;
+    static final int AFTER_QUOTE = 7;
+    static final int COMMENT = 8;
+    static final int CR = 9;
+    static final int NUMBER_OF_STATES = 10;
+
+    // Byte classes
+    private static final int OTHER = 0;
+    private static final int SPACE = 1;
+    private static final int LF = 2;
+    private static final int CARRIAGE_RETURN = 3;
+    private static final int DELIMITER = 4;
+    private static final int QUOTE = 5;
+    private static final int ESCAPE = 6;
+    private static final int COMMENT_CHAR = 7;
+    private static final int NUMBER_OF_CLASSES = 8;
+
+    /** Class of each byte value. */
+    private final byte[] classes = new byte[256];
+
+    /** Next state indexed by state * NUMBER_OF_CLASSES + class. */
+    private final byte[] transitions =
+        new byte[NUMBER_OF_STATES * NUMBER_OF_CLASSES];
+
+    /** Size of the windows of a file mapped for scanning. */
+    private static final int MAP_SIZE = 1 << 26;
+
+    public BoundaryFinder(Dialect dialect) {
+        // Classify bytes as the byte lexer does, only ASCII bytes are
+        // structural
+        for (int value = 0; value < 0x80; value++) {
+            switch (Dialect.TYPES[dialect.classes[value]]) {
+            case SPACE:
+                classes[value] = SPACE;
+                break;
+            case NEWLINE:
+                classes[value] = (byte) (value == '\n' ? LF : CARRIAGE_RETURN);
+                break;
+            case DELIMITER:
+                classes[value] = DELIMITER;
+                break;
+            case QUOTE:
+                classes[value] = QUOTE;
+                break;
+            case ESCAPE:
+                classes[value] = ESCAPE;
+                break;
+            case COMMENT:
+                classes[value] = COMMENT_CHAR;
+                break;
+            default:
+                classes[value] = OTHER;
+            }
+        }
+
+        boolean escapes =
+            dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.DOUBLED;
+        boolean doubledQuotes =
+            dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.ESCAPED;
+        for (int state = 0; state < NUMBER_OF_STATES; state++) {
+            for (int clazz = 0; clazz < NUMBER_OF_CLASSES; clazz++) {
+                transitions[state * NUMBER_OF_CLASSES + clazz] = (byte)
+                    transition(dialect, escapes, doubledQuotes, state, clazz);
+            }
+        }
+    }
+
+    private static int transition(Dialect dialect, boolean escapes,
+                                  boolean doubledQuotes,
+                                  int state, int clazz) {
+        switch (state) {
+        case LINE_START:
+        case FIELD_START:
+            switch (clazz) {
+            case SPACE:
+                // Only the start of the line is a record start
+                return dialect.trimSpace ? FIELD_START : UNQUOTED;
+            case QUOTE:
+                return QUOTED;
+            case DELIMITER:
+                return FIELD_START;
+            case LF:
+                return LINE_START;
+            case CARRIAGE_RETURN:
+                return CR;
+            case COMMENT_CHAR:
+                return dialect.allowComments ? COMMENT : UNQUOTED;
+            case ESCAPE:
+                return escapes ? UNQUOTED_ESCAPE : UNQUOTED;
+            default:
+                return UNQUOTED;
+            }
+
+        case UNQUOTED:
+            switch (clazz) {
+            case DELIMITER:
+                return FIELD_START;
+            case LF:
+                return LINE_START;
+            case CARRIAGE_RETURN:
+                return CR;
+            case COMMENT_CHAR:
+                return dialect.allowComments ? COMMENT : UNQUOTED;
+            case ESCAPE:
+                return escapes ? UNQUOTED_ESCAPE : UNQUOTED;
+            default:
+                return UNQUOTED;
+            }
+
+        case UNQUOTED_ESCAPE:
+            // An escape applies to a whole token, which is two bytes
+            // for CRLF
+            return clazz == CARRIAGE_RETURN ? ESCAPED_CR : UNQUOTED;
+
+        case ESCAPED_CR:
+            if (clazz == LF) {
+                return UNQUOTED;
+            }
+            return transition(dialect, escapes, doubledQuotes,
+                              UNQUOTED, clazz);
+
+        case QUOTED:
+            switch (clazz) {
+            case QUOTE:
+                return AFTER_QUOTE;
+            case ESCAPE:
+                return escapes ? QUOTED_ESCAPE : QUOTED;
+            default:
+                return QUOTED;
+            }
+
+        case QUOTED_ESCAPE:
+            return QUOTED;
+
+        case AFTER_QUOTE:
+            if (clazz == QUOTE && doubledQuotes) {
+                return QUOTED;
+            }
+            return transition(dialect, escapes, doubledQuotes,
+                              UNQUOTED, clazz);
+
+        case COMMENT:
+            switch (clazz) {
+            case LF:
+                return LINE_START;
+            case CARRIAGE_RETURN:
+                return CR;
+            default:
+                return COMMENT;
+            }
+
+        case CR:
+            if (clazz == LF) {
+                return LINE_START;
+            }
+            return transition(dialect, escapes, doubledQuotes,
+                              LINE_START, clazz);
+
+        default:
+            throw new IllegalArgumentException("Bad state: " + state);
+        }
+    }
+
+    /** Whether the given state before the given byte is a record start. */
+    private static boolean isStart(int state, int value) {
+        return state == LINE_START || (state == CR && value != '\n');
+    }
+
+    /**
+     * Finds the first record start at or after each of the given
+     * (increasing) targets in the given file.  Stores the record starts
+     * in the given array of starts (or the size of the file if there is
+     * no record start after a target) and their line numbers in the
+     * given array of lines.
+     */
+    public void findStarts(FileChannel channel, long[] targets,
+                           long[] starts, long[] lines)
+        throws IOException {
+        long size = channel.size();
+        int target = 0;
+        int state = LINE_START;
+        long line = 1;
+        boolean afterCr = false;
+        long windowStart = 0;
+        while (target < targets.length && windowStart < size) {
+            int windowSize = (int) Math.min(MAP_SIZE, size - windowStart);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            windowStart, windowSize);
+            for (int index = 0;
+                 index < windowSize && target < targets.length;
+                 index++) {
+                int value = window.get(index) & 0xff;
+                long position = windowStart + index;
+                // Record the start of the record at this position for
+                // all the targets it satisfies
+                if (isStart(state, value)) {
+                    while (target < targets.length
+                           && targets[target] <= position) {
+                        starts[target] = position;
+                        lines[target] = line;
+                        target++;
+                    }
+                }
+                // Count newline tokens: CR, LF, or CRLF
+                if (value == '\r' || (value == '\n' && !afterCr)) {
+                    line++;
+                }
+                afterCr = value == '\r';
+                state = transitions[state * NUMBER_OF_CLASSES
+                                    + classes[value]];
+            }
+            windowStart += windowSize;
+        }
+        // Targets past the last record start get the end of the file
+        for (; target < targets.length; target++) {
+            starts[target] = size;
+            lines[target] = line;
+        }
+    }
+
+    /**
+     * Like {@link #findStarts(FileChannel, long[], long[], long[])} but
+     * scans the segments between the targets in parallel using the
+     * given executor.
+     */
+    public void findStarts(FileChannel channel, long[] targets,
+                           long[] starts, long[] lines,
+                           ExecutorService executor)
+        throws IOException {
+        // Scan all the segments speculatively
+        long size = channel.size();
+        List<Future<Segment>> futures =
+            new ArrayList<Future<Segment>>(targets.length + 1);
+        try {
+            long segmentStart = 0;
+            for (int target = 0; target <= targets.length; target++) {
+                long segmentEnd = target < targets.length
+                    ? Math.min(targets[target], size) : size;
+                segmentEnd = Math.max(segmentStart, segmentEnd);
+                futures.add(executor.submit(
+                    new Segment(channel, segmentStart, segmentEnd)));
+                segmentStart = segmentEnd;
+            }
+
+            // Resolve the actual starting state of each segment in
+            // order.  Each target is waiting for the first record start
+            // in the segments after it.
+            int state = LINE_START;
+            long line = 1;
+            int waiting = 0;
+            for (int index = 0; index < futures.size(); index++) {
+                Segment segment = await(futures.get(index));
+                if (segment.firstStarts[state] >= 0) {
+                    for (; waiting < index; waiting++) {
+                        starts[waiting] = segment.firstStarts[state];
+                        lines[waiting] = line + segment.firstLines[state];
+                    }
+                }
+                state = segment.endStates[state];
+                line += segment.newlines;
+            }
+            for (; waiting < targets.length; waiting++) {
+                starts[waiting] = size;
+                lines[waiting] = line;
+            }
+        } finally {
+            for (Future<Segment> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Segment await(Future<Segment> future)
+        throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finding record starts", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * The result of scanning a segment of the input from every starting
+     * state: the ending state, the first record start (or -1 if none),
+     * and the number of newline tokens before the first record start,
+     * all indexed by starting state.  Also the number of newline tokens
+     * in the segment, which does not depend on the state.
+     */
+    private class Segment implements Callable<Segment> {
+        FileChannel channel;
+        long start;
+        long end;
+        int[] endStates = new int[NUMBER_OF_STATES];
+        long[] firstStarts = new long[NUMBER_OF_STATES];
+        long[] firstLines = new long[NUMBER_OF_STATES];
+        long newlines = 0;
+
+        Segment(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        public Segment call() throws IOException {
+            int[] states = endStates;
+            for (int state = 0; state < NUMBER_OF_STATES; state++) {
+                states[state] = state;
+            }
+            Arrays.fill(firstStarts, -1);
+            boolean converged = false;
+            boolean anyWithoutStart = true;
+
+            // Whether a line feed at the start continues a CRLF
+            boolean afterCr = false;
+            if (start > 0 && start < end) {
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                channel.read(previous, start - 1);
+                afterCr = previous.get(0) == '\r';
+            }
+
+            long windowStart = start;
+            while (windowStart < end) {
+                int windowSize = (int) Math.min(MAP_SIZE, end - windowStart);
+                ByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                for (int index = 0; index < windowSize; index++) {
+                    int value = window.get(index) & 0xff;
+                    int clazz = classes[value];
+                    long position = windowStart + index;
+                    if (!converged) {
+                        // Step all the states
+                        for (int state = 0; state < NUMBER_OF_STATES; state++) {
+                            int current = states[state];
+                            if (firstStarts[state] < 0 && isStart(current, value)) {
+                                firstStarts[state] = position;
+                                firstLines[state] = newlines;
+                            }
+                            states[state] = transitions[current * NUMBER_OF_CLASSES
+                                                        + clazz];
+                        }
+                        if ((position & 63) == 63) {
+                            converged = checkConverged();
+                            anyWithoutStart = hasWithoutStart();
+                        }
+                    } else {
+                        // Step the one state all the states converged to
+                        int current = states[0];
+                        if (anyWithoutStart && isStart(current, value)) {
+                            for (int state = 0; state < NUMBER_OF_STATES; state++) {
+                                if (firstStarts[state] < 0) {
+                                    firstStarts[state] = position;
+                                    firstLines[state] = newlines;
+                                }
+                            }
+                            anyWithoutStart = false;
+                        }
+                        states[0] = transitions[current * NUMBER_OF_CLASSES
+                                                + clazz];
+                    }
+                    // Count newline tokens: CR, LF, or CRLF
+                    if (value == '\r' || (value == '\n' && !afterCr)) {
+                        newlines++;
+                    }
+                    afterCr = value == '\r';
+                }
+                windowStart += windowSize;
+            }
+            if (converged) {
+                Arrays.fill(states, states[0]);
+            }
+            return this;
+        }
+
+        private boolean checkConverged() {
+            for (int state = 1; state < NUMBER_OF_STATES; state++) {
+                if (endStates[state] != endStates[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasWithoutStart() {
+            for (int state = 0; state < NUMBER_OF_STATES; state++) {
+                if (firstStarts[state] < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
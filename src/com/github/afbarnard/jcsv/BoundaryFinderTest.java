@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundaryFinderTest {
+
+    /** ASCII texts, so that character positions are byte positions. */
+    static final String[] texts = {
+        TestText.empty,
+        TestText.delimiters,
+        TestText.newlines,
+        TestText.returnsAndFeeds,
+        TestText.quotesAndEscapes + "\n",
+        TestText.comment,
+        TestText.singleData,
+        TestText.multilineField,
+        TestText.magicSquare3x3,
+        TestText.poem128,
+        ParallelParserTest.corpus,
+        "\"a\r\n\"\"\r\n\",b\r\n'c\n',d\r\n",
+        "x\\\r\ny\\\n\r\\\rz\n",
+        " # \"\n\"#\n\",\"\\\"\n\"\n  \n",
+        "'\\'\n',''\n'a\n'\r\n",
+    };
+
+    static final Dialect[] dialects = {
+        Dialect.LOOSE,
+        ParserTest.STRICT,
+        new Dialect(',', '\'', '\\', '#',
+                    Dialect.QuoteEscapeStyle.ESCAPED,
+                    true, true, true, true),
+        new Dialect(';', '"', '\\', '#',
+                    Dialect.QuoteEscapeStyle.EITHER,
+                    false, true, false, true),
+    };
+
+    private ExecutorService executor;
+
+    @Before public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Describes the records of the given text, which starts at the
+     * given position and line, or returns null if the text does not
+     * parse.
+     */
+    static List<String> describeRecords(Dialect dialect, String text,
+                                        long position, long line) {
+        Parser parser = new Parser(dialect, new StringReader(text));
+        List<String> records = new ArrayList<String>();
+        try {
+            for (Record record : parser) {
+                StringBuilder builder = new StringBuilder();
+                builder.append(String.format(
+                    "%d:%d:%d", record.position() + position,
+                    record.line() + line - 1, record.column()));
+                for (int field = 0; field < record.size(); field++) {
+                    builder.append(String.format(
+                        "|%d:%s", record.getLine(field) + line - 1,
+                        record.getString(field)));
+                }
+                records.add(builder.toString());
+                parser.free(record);
+            }
+        } catch (ParseException e) {
+            return null;
+        }
+        return records;
+    }
+
+    /** Returns every target from 0 through the given size. */
+    static long[] allTargets(long size) {
+        long[] targets = new long[(int) size + 1];
+        for (int target = 0; target <= size; target++) {
+            targets[target] = target;
+        }
+        return targets;
+    }
+
+    /**
+     * Checks that every record start is found and that the input parses
+     * the same from every record start found.
+     */
+    public void checkStarts(Dialect dialect, String text)
+        throws IOException {
+        List<String> expected = describeRecords(dialect, text, 0, 1);
+        if (expected == null) {
+            // Only well-formed input splits correctly
+            return;
+        }
+        Path path = ByteLexerTest.writeTemp(text);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            BoundaryFinder finder = new BoundaryFinder(dialect);
+            long[] targets = allTargets(text.length());
+            long[] starts = new long[targets.length];
+            long[] lines = new long[targets.length];
+            finder.findStarts(channel, targets, starts, lines);
+
+            // Every record start is found
+            SortedSet<Long> found = new TreeSet<Long>();
+            for (long start : starts) {
+                found.add(start);
+            }
+            for (String record : expected) {
+                long position =
+                    Long.parseLong(record.substring(0, record.indexOf(':')));
+                assertTrue(String.format("Missing %d in %s", position, found),
+                           found.contains(position));
+            }
+
+            // Parsing from every start gives the rest of the records
+            for (int target = 0; target < targets.length; target++) {
+                int start = (int) starts[target];
+                List<String> actual = describeRecords(
+                    dialect, text.substring(start), start, lines[target]);
+                List<String> rest = new ArrayList<String>();
+                for (String record : expected) {
+                    long position = Long.parseLong(
+                        record.substring(0, record.indexOf(':')));
+                    if (position >= start) {
+                        rest.add(record);
+                    }
+                }
+                assertEquals("From " + start, rest, actual);
+            }
+
+            // Scanning in parallel finds the same starts
+            for (int stride = 1; stride <= 7; stride++) {
+                long[] someTargets = new long[text.length() / stride];
+                for (int index = 0; index < someTargets.length; index++) {
+                    someTargets[index] = (index + 1) * stride;
+                }
+                long[] someStarts = new long[someTargets.length];
+                long[] someLines = new long[someTargets.length];
+                finder.findStarts(channel, someTargets, someStarts,
+                                  someLines, executor);
+                for (int index = 0; index < someTargets.length; index++) {
+                    int target = (int) someTargets[index];
+                    assertEquals("Target " + target,
+                                 starts[target], someStarts[index]);
+                    assertEquals("Target " + target,
+                                 lines[target], someLines[index]);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+
+    @Test public void findStarts() throws IOException {
+        for (Dialect dialect : dialects) {
+            for (String text : texts) {
+                checkStarts(dialect, text);
+            }
+        }
+    }
+
+    @Test public void findStarts_quotedNewlines() throws IOException {
+        // A newline in a quoted field is not a record start but one
+        // after a quote in an unquoted field is
+        String text = "a\"b\nc,\"d\ne\"\nf\n";
+        Path path = ByteLexerTest.writeTemp(text);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] targets = {1, 5, 8};
+            long[] starts = new long[3];
+            long[] lines = new long[3];
+            new BoundaryFinder(Dialect.LOOSE)
+                .findStarts(channel, targets, starts, lines, executor);
+            assertArrayEquals(new long[] {4, 12, 12}, starts);
+            assertArrayEquals(new long[] {2, 4, 4}, lines);
+        }
+        Files.delete(path);
+    }
+}
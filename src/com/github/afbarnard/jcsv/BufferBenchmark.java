@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * Measures the data structures under the lexer in operations per
+ * second: the put/get/free cycle of the stream buffers (the generic one
+ * with boxing and the specialized one without) and put/get on the
+ * token queue.  Each cycle puts a run of elements, reads them back by
+ * position, and frees them, as the lexer and parser do with tokens.
+ * The specialized buffer and the queue are measured with capacities
+ * that wrap indices with a division and with a power-of-two mask.
+ * Queues of positions are measured boxed and specialized.
+ */
+public class BufferBenchmark {
+
+    public static final int OPERATIONS = 10000000;
+
+    /** Number of elements put before they are read and freed. */
+    public static final int RUN = 50;
+
+    public static Benchmark streamBuffer() {
+        return new Benchmark("StreamBuffer<Character>") {
+            public long run() {
+                StreamBuffer<Character> buffer =
+                    new StreamBuffer<Character>(1000);
+                long sum = 0;
+                long position = 0;
+                for (int operation = 0; operation < OPERATIONS;
+                     operation += RUN) {
+                    for (int element = 0; element < RUN; element++) {
+                        buffer.put((char) ('a' + element));
+                    }
+                    for (int element = 0; element < RUN; element++) {
+                        sum += buffer.getAt(position + element);
+                    }
+                    position += RUN;
+                    buffer.free(position - 1);
+                }
+                sink = sum;
+                return OPERATIONS;
+            }
+        };
+    }
+
+    public static Benchmark streamBufferChar(final boolean powerOfTwo) {
+        return new Benchmark(powerOfTwo ? "StreamBufferChar (mask)"
+                             : "StreamBufferChar (division)") {
+            public long run() {
+                StreamBufferChar buffer =
+                    new StreamBufferChar(1000, powerOfTwo);
+                long sum = 0;
+                long position = 0;
+                for (int operation = 0; operation < OPERATIONS;
+                     operation += RUN) {
+                    for (int element = 0; element < RUN; element++) {
+                        buffer.put((char) ('a' + element));
+                    }
+                    for (int element = 0; element < RUN; element++) {
+                        sum += buffer.getAt(position + element);
+                    }
+                    position += RUN;
+                    buffer.free(position - 1);
+                }
+                sink = sum;
+                return OPERATIONS;
+            }
+        };
+    }
+
+    public static Benchmark arrayQueue(final boolean powerOfTwo) {
+        return new Benchmark(powerOfTwo ? "ArrayQueue<Token> (mask)"
+                             : "ArrayQueue<Token> (division)") {
+            public long run() {
+                ArrayQueue<Token> queue =
+                    new ArrayQueue<Token>(100, powerOfTwo);
+                Token token = new Token();
+                long count = 0;
+                for (int operation = 0; operation < OPERATIONS;
+                     operation += RUN) {
+                    for (int element = 0; element < RUN; element++) {
+                        queue.put(token);
+                    }
+                    for (int element = 0; element < RUN; element++) {
+                        if (queue.get() == token) {
+                            count++;
+                        }
+                    }
+                }
+                sink = count;
+                return OPERATIONS;
+            }
+        };
+    }
+
+    public static Benchmark arrayQueueBoxedLong() {
+        return new Benchmark("ArrayQueue<Long>") {
+            public long run() {
+                ArrayQueue<Long> queue = new ArrayQueue<Long>(100, true);
+                long sum = 0;
+                long position = 0;
+                for (int operation = 0; operation < OPERATIONS;
+                     operation += RUN) {
+                    for (int element = 0; element < RUN; element++) {
+                        queue.put(position++);
+                    }
+                    for (int element = 0; element < RUN; element++) {
+                        sum += queue.get();
+                    }
+                }
+                sink = sum;
+                return OPERATIONS;
+            }
+        };
+    }
+
+    public static Benchmark arrayQueueLong() {
+        return new Benchmark("ArrayQueueLong") {
+            public long run() {
+                ArrayQueueLong queue = new ArrayQueueLong(100, true);
+                long sum = 0;
+                long position = 0;
+                for (int operation = 0; operation < OPERATIONS;
+                     operation += RUN) {
+                    for (int element = 0; element < RUN; element++) {
+                        queue.put(position++);
+                    }
+                    for (int element = 0; element < RUN; element++) {
+                        sum += queue.get();
+                    }
+                }
+                sink = sum;
+                return OPERATIONS;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        streamBuffer().measure();
+        streamBufferChar(false).measure();
+        streamBufferChar(true).measure();
+        arrayQueue(false).measure();
+        arrayQueue(true).measure();
+        arrayQueueBoxedLong().measure();
+        arrayQueueLong().measure();
+    }
+}
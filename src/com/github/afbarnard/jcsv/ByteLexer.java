@@ -0,0 +1,887 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A lexer for UTF-8 (or ASCII) input that works directly on bytes.  It
+ * produces the same tokens as {@link Lexer} except that positions,
+ * lengths, and columns are in bytes.  Because the structural characters
+ * of a dialect must be ASCII, and no byte of a multi-byte UTF-8
+ * sequence is ASCII, no decoding is needed to find tokens.  Only the
+ * text that is requested (with {@link #getString(long, int)} or {@link
+ * #getView(long, int, CharView)}) is decoded.  Malformed UTF-8 is
+ * decoded as U+FFFD.
+ *
+ * <p>One difference from {@link Lexer} is that only ASCII space
+ * characters are space.  (The UTF-8 encoding of the non-breaking space
+ * is content.)</p>
+ *
+ * <p>Input can be a stream, in which case the input is held in a
+ * buffer until freed, or a {@link ByteBuffer}, in which case the byte
+ * buffer itself holds the input and nothing is copied.  Files can be
+ * memory mapped (see {@link #map(Dialect, Path)}), in which case the
+ * mapping holds the input.  Files of any size are lexed by mapping a
+ * window of the file that moves forward as input is freed.  The
+ * positions of tokens are file offsets.</p>
+ */
+public class ByteLexer implements TokenSource, Iterator<Token>, Iterable<Token>, Closeable {
+
+    private Dialect dialect;
+    private Pool<Token> tokenPool;
+    private ArrayQueue<Token> tokenQueue;
+
+    /** Batch being filled by {@link #readBatch}, if any. */
+    private TokenBatch batch = null;
+
+    /**
+     * Where lines start, if lines and columns are found on demand
+     * rather than set in every token.
+     */
+    private LineIndex lineIndex = null;
+
+    /**
+     * Token type (ordinal) of each byte.  Only ASCII bytes can be
+     * structural, everything else is content.
+     */
+    private final byte[] classes = new byte[256];
+
+    // Type ordinals for comparing with the table
+    private static final byte CONTENT = (byte) Token.Type.CONTENT.ordinal();
+    private static final byte SPACE = (byte) Token.Type.SPACE.ordinal();
+
+    // The structural characters of the dialect broadcast to every byte
+    // of a word.  Extra words are for any other structural bytes above
+    // the control characters.
+    private final long delimiterWord;
+    private final long quoteWord;
+    private final long escapeWord;
+    private final long commentWord;
+    private final long[] extraWords;
+    private static final long SPACE_WORD = Swar.broadcast(' ');
+
+    /** Input stream, if reading from a stream. */
+    private InputStream stream;
+
+    /** Buffer holding the input from the stream. */
+    private StreamBufferByte buffer;
+
+    /**
+     * Byte buffer holding the input, if reading from a byte buffer or a
+     * mapped file.  Position {@code windowStart} corresponds to index 0
+     * of the window.
+     */
+    private ByteBuffer window;
+    private long windowStart = 0;
+
+    /** Duplicate of the window for bulk reads. */
+    private ByteBuffer windowReader;
+
+    /** Freed positions are below this, when reading from a window. */
+    private long windowLower = 0;
+
+    /** File being mapped, if mapping. */
+    private FileChannel channel;
+    private boolean ownsChannel = false;
+
+    /** End of the input in the file. */
+    private long channelEnd;
+
+    /** Usual size of a mapped window. */
+    private int mapSize;
+
+    /**
+     * Largest possible mapped window.  Unfreed input must fit in this.
+     * Settable for testing.
+     */
+    int maxMapSize = Integer.MAX_VALUE;
+
+    /** Default size of a mapped window. */
+    public static final int DEFAULT_MAP_SIZE = 1 << 26;
+
+    /**
+     * Block of input bytes.  Bytes are lexed from here to avoid the
+     * overhead of reading them one at a time.
+     */
+    private byte[] block;
+    private int blockIndex = 0;
+    private int blockLength = 0;
+
+    /** The block as little-endian words for scanning 8 bytes at a time. */
+    private ByteBuffer blockWords;
+
+    /** View for decoding numbers. */
+    private CharView numberView = new CharView();
+
+    /** Character that replaces malformed UTF-8. */
+    private static final char REPLACEMENT = '\ufffd';
+
+    private ByteLexer(Dialect dialect, int queueSize, int blockSize) {
+        this.dialect = dialect;
+        byte delimiter = toByte(dialect.delimiter);
+        byte quote = toByte(dialect.quote);
+        byte escape = toByte(dialect.escape);
+        byte comment = toByte(dialect.comment);
+        for (int index = 0; index < dialect.extraSpace.length(); index++) {
+            toByte(dialect.extraSpace.charAt(index));
+        }
+        for (int index = 0; index < dialect.extraDelimiters.length(); index++) {
+            toByte(dialect.extraDelimiters.charAt(index));
+        }
+        delimiterWord = Swar.broadcast(delimiter);
+        quoteWord = Swar.broadcast(quote);
+        escapeWord = Swar.broadcast(escape);
+        commentWord = Swar.broadcast(comment);
+
+        // Copy the ASCII part of the dialect's table and find the
+        // structural bytes the word test does not already cover
+        List<Long> extras = new ArrayList<Long>();
+        for (int value = 0; value < classes.length; value++) {
+            classes[value] = value < 0x80 ? dialect.classes[value] : CONTENT;
+            if (value > '\r' && classes[value] != CONTENT
+                && value != ' ' && value != delimiter && value != quote
+                && value != escape && value != comment) {
+                extras.add(Swar.broadcast(value));
+            }
+        }
+        extraWords = new long[extras.size()];
+        for (int index = 0; index < extraWords.length; index++) {
+            extraWords[index] = extras.get(index);
+        }
+
+        tokenPool = new Pool<Token>(Math.max(100, 2 * queueSize));
+        tokenQueue = new ArrayQueue<Token>(queueSize, true);
+        block = new byte[blockSize];
+        blockWords = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public ByteLexer(Dialect dialect, InputStream stream, int bufferSize,
+                     int queueSize, int blockSize) {
+        this(dialect, queueSize, blockSize);
+        this.stream = stream;
+        buffer = new StreamBufferByte(bufferSize, true);
+    }
+
+    public ByteLexer(Dialect dialect, InputStream stream) {
+        this(dialect, stream, 1000, 100, 4096);
+    }
+
+    /**
+     * Lexes the remaining content of the given byte buffer (from its
+     * position to its limit).  The byte buffer is not modified.
+     */
+    public ByteLexer(Dialect dialect, ByteBuffer input, int queueSize,
+                     int blockSize) {
+        this(dialect, queueSize, blockSize);
+        window = input.slice();
+        windowReader = window.duplicate();
+    }
+
+    public ByteLexer(Dialect dialect, ByteBuffer input) {
+        this(dialect, input, 100, 4096);
+    }
+
+    /**
+     * Lexes the given range of the given file by mapping windows of it
+     * into memory.  Token positions are file offsets.  The range must
+     * start at the start of a line, which is numbered as given.
+     */
+    ByteLexer(Dialect dialect, FileChannel channel, long start, long end,
+              long line, int mapSize, int queueSize, int blockSize)
+        throws IOException {
+        this(dialect, queueSize, blockSize);
+        this.channel = channel;
+        this.mapSize = mapSize;
+        channelEnd = end;
+        windowStart = start;
+        windowLower = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                             Math.min(mapSize, end - start));
+        windowReader = window.duplicate();
+        // Start numbering positions at the start of the range
+        lineStartPosition = start;
+        tokenPosition = start;
+        bytePosition = start - 1;
+        this.line = line;
+    }
+
+    /**
+     * Returns a lexer for the given file that maps windows of the file
+     * of the given size into memory (rather than reading the file).
+     * The window size only limits how much of the file is mapped at
+     * once.  Windows grow if necessary to hold unfreed input, up to
+     * 2GB.  The channel is not closed by the lexer.
+     */
+    public static ByteLexer map(Dialect dialect, FileChannel channel,
+                                int mapSize) throws IOException {
+        return new ByteLexer(dialect, channel, 0, channel.size(), 1,
+                             mapSize, 100, 4096);
+    }
+
+    public static ByteLexer map(Dialect dialect, FileChannel channel)
+        throws IOException {
+        return map(dialect, channel, DEFAULT_MAP_SIZE);
+    }
+
+    /**
+     * Returns a lexer that maps the given file into memory.  Call
+     * {@link #close()} to close the file.
+     */
+    public static ByteLexer map(Dialect dialect, Path path)
+        throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteLexer lexer;
+        try {
+            lexer = map(dialect, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        lexer.ownsChannel = true;
+        return lexer;
+    }
+
+    /** Closes the file if the lexer opened it. */
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    private static byte toByte(char character) {
+        if (character > 0x7f) {
+            throw new IllegalArgumentException(
+                String.format("Not an ASCII character: U+%04X",
+                              (int) character));
+        }
+        return (byte) character;
+    }
+
+    public Iterator<Token> iterator() {
+        // Initialize the iterator by trying to read input
+        try {
+            readTokens();
+        } catch (IOException e) {
+            throw readFailed(e);
+        }
+        return this;
+    }
+
+    public boolean hasNext() {
+        // Queue could be empty with more input, so also check for EOF
+        return (tokenQueue.size() > 0 || byteCode != -1
+                || tokenType != Token.Type.NONE);
+    }
+
+    public Token next() {
+        // Read more tokens if needed
+        if (tokenQueue.size() <= 0) {
+            try {
+                readTokens();
+            } catch (IOException e) {
+                throw readFailed(e);
+            }
+        }
+        return tokenQueue.get();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Reports a failure to read (or map) input, which would otherwise
+     * look like the end of the input, as a parse error where lexing
+     * stopped.
+     */
+    private ParseException readFailed(IOException cause) {
+        long failedLine = line;
+        int failedColumn = (int)(tokenPosition - lineStartPosition + 1);
+        if (lineIndex != null) {
+            failedLine = lineIndex.lineAt(tokenPosition);
+            failedColumn = lineIndex.columnAt(tokenPosition);
+        }
+        return new ParseException("Failed to read input", failedLine,
+                                  failedColumn, cause);
+    }
+
+    /*
+     * The lexing algorithm is the same as in Lexer, just on bytes.  See
+     * the description there.
+     */
+
+    private long line = 1;
+    private long lineStartPosition = 0;
+    private int byteCode = -2;  // -2: nothing has been read yet
+    private long tokenPosition = 0;
+    private long bytePosition = -1;
+    private byte tokenByte;
+    private byte thisByte;
+    private Token.Type tokenType = Token.Type.NONE;
+    private Token.Type byteType;
+
+    /**
+     * Fills the token queue with tokens.  Quits when the queue is full
+     * or at EOF.  Call again to read more tokens.
+     */
+    public void readTokens() throws IOException {
+        // Quit if at EOF (with no token left to process) or if there
+        // is no space in the token queue
+        if ((byteCode == -1 && tokenType == Token.Type.NONE)
+            || freeSize() <= 0) {
+            return;
+        }
+
+        if (byteCode == -2) {
+            byteCode = readBlock();
+        }
+
+        // Loop to process bytes into tokens until the queue is full or
+        // EOF
+        while (byteCode >= 0 && freeSize() > 0) {
+            thisByte = (byte) byteCode;
+            if (buffer != null) {
+                buffer.put(thisByte);
+            }
+            bytePosition++;
+
+            // Determine the type of byte with one table lookup
+            byteType = Dialect.TYPES[classes[byteCode]];
+
+            // Determine if a token has been formed
+            switch (tokenType) {
+            case DELIMITER:
+            case QUOTE:
+            case ESCAPE:
+            case COMMENT:
+                // Single-byte tokens
+                processToken();
+                break;
+            case NEWLINE:
+                // Single- or double-byte token.  Only "\r\n" is one
+                // newline: "\r\n\n" is two.
+                if (tokenType != byteType || tokenByte != '\r'
+                    || thisByte != '\n' || bytePosition - tokenPosition != 1) {
+                    processToken();
+                }
+                break;
+            case NONE:
+                // First token
+                tokenByte = thisByte;
+                tokenType = byteType;
+                break;
+            default:
+                // Arbitrary-length tokens (space or content)
+                if (tokenType != byteType) {
+                    processToken();
+                }
+            }
+
+            // Take the rest of a run of content or space in the block
+            // in one step rather than byte by byte
+            if (tokenType == Token.Type.CONTENT) {
+                skip(contentEnd(blockIndex, blockLength));
+            } else if (tokenType == Token.Type.SPACE) {
+                skip(spaceEnd(blockIndex, blockLength));
+            }
+
+            // Get the next byte
+            if (blockIndex < blockLength) {
+                byteCode = block[blockIndex++] & 0xff;
+            } else {
+                byteCode = readBlock();
+            }
+        }
+        // Either the token queue is full or EOF
+
+        // If EOF, process the last token
+        if (byteCode == -1 && tokenType != Token.Type.NONE
+            && freeSize() > 0) {
+            bytePosition++;
+            processToken();
+            tokenType = Token.Type.NONE;
+        }
+    }
+
+    /**
+     * Adds the bytes of the block up to the given index to the current
+     * token.
+     */
+    private void skip(int end) {
+        int count = end - blockIndex;
+        if (count > 0) {
+            if (buffer != null) {
+                buffer.put(block, blockIndex, count);
+            }
+            bytePosition += count;
+            blockIndex = end;
+        }
+    }
+
+    /**
+     * Returns the index of the first byte in the given range of the
+     * block that may not be content, or the end of the range.  Scans 8
+     * bytes at a time.  Stops at all control characters, not just the
+     * newlines and spaces, which is harmless because the main loop
+     * classifies the byte it stops at.
+     */
+    private int contentEnd(int index, int end) {
+        while (index + 8 <= end) {
+            long word = blockWords.getLong(index);
+            long found = Swar.lessBytes(word, '\r' + 1)
+                | Swar.equalBytes(word, SPACE_WORD)
+                | Swar.equalBytes(word, delimiterWord)
+                | Swar.equalBytes(word, quoteWord)
+                | Swar.equalBytes(word, escapeWord)
+                | Swar.equalBytes(word, commentWord);
+            for (long extraWord : extraWords) {
+                found |= Swar.equalBytes(word, extraWord);
+            }
+            if (found != 0) {
+                return index + Swar.firstByte(found);
+            }
+            index += 8;
+        }
+        while (index < end && classes[block[index] & 0xff] == CONTENT) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the first byte in the given range of the
+     * block that is not space, or the end of the range.
+     */
+    private int spaceEnd(int index, int end) {
+        while (index < end && classes[block[index] & 0xff] == SPACE) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Reads the next block of bytes and returns the first one, or -1 if
+     * at EOF.
+     */
+    private int readBlock() throws IOException {
+        blockIndex = 0;
+        blockLength = 0;
+        int count;
+        if (stream != null) {
+            do {
+                count = stream.read(block, 0, block.length);
+            } while (count == 0);
+        } else {
+            if (!windowReader.hasRemaining() && channel != null) {
+                remap();
+            }
+            count = Math.min(block.length, windowReader.remaining());
+            if (count == 0) {
+                count = -1;
+            } else {
+                windowReader.get(block, 0, count);
+            }
+        }
+        if (count < 0) {
+            return -1;
+        }
+        blockLength = count;
+        return block[blockIndex++] & 0xff;
+    }
+
+    /**
+     * Maps the next window of the file.  The new window starts at the
+     * first unfreed position so that all unfreed input stays
+     * accessible.  The window grows if necessary to include new input.
+     */
+    private void remap() throws IOException {
+        long readPosition = windowStart + window.limit();
+        if (readPosition >= channelEnd) {
+            return;
+        }
+        long start = windowLower;
+        long needed = readPosition - start + 1;
+        if (needed > maxMapSize) {
+            throw new IllegalStateException(
+                String.format("Unfreed input [%d,%d) does not fit in a mapping of %d bytes",
+                              start, readPosition, maxMapSize));
+        }
+        long size = Math.min(Math.max(mapSize, needed + block.length),
+                             Math.min(maxMapSize, channelEnd - start));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        windowReader = window.duplicate();
+        windowReader.position((int)(readPosition - start));
+    }
+
+    /**
+     * Adds a completed token to the queue and updates necessary state.
+     */
+    private void processToken() {
+        int length = (int)(bytePosition - tokenPosition);
+        if (lineIndex != null) {
+            // Only note where lines start.  Lines and columns are found
+            // on demand.
+            if (tokenType == Token.Type.NEWLINE) {
+                lineIndex.add(bytePosition);
+            }
+            if (batch != null) {
+                batch.add(tokenType, tokenPosition, length, 0, 0);
+            } else {
+                queueToken(length);
+            }
+        } else {
+            int column = (int)(tokenPosition - lineStartPosition + 1);
+            if (batch != null) {
+                batch.add(tokenType, tokenPosition, length, line, column);
+            } else {
+                Token token = queueToken(length);
+                token.line = line;
+                token.column = column;
+            }
+            if (tokenType == Token.Type.NEWLINE) {
+                line++;
+                lineStartPosition = bytePosition;
+            }
+        }
+        tokenByte = thisByte;
+        tokenType = byteType;
+        tokenPosition = bytePosition;
+    }
+
+    /**
+     * Adds a token of the current type, position, and given length to
+     * the queue and returns it.
+     */
+    private Token queueToken(int length) {
+        Token token = tokenPool.take();
+        if (token == null) {
+            token = new Token();
+        }
+        token.type = tokenType;
+        token.position = tokenPosition;
+        token.length = length;
+        tokenQueue.put(token);
+        return token;
+    }
+
+    /**
+     * Returns the number of tokens that can be made before stopping,
+     * which is the free space in the batch being filled or else in the
+     * token queue.
+     */
+    private int freeSize() {
+        if (batch != null) {
+            return batch.freeSize();
+        }
+        return tokenQueue.freeSize();
+    }
+
+    /**
+     * Fills the given batch with the next tokens, as many as fit, and
+     * returns how many there are.  Returns zero only at EOF.  Tokens
+     * already read into the queue come first, so this may be mixed
+     * with {@link #readToken()}.  No {@link Token} objects are made,
+     * so the tokens in a batch are not freed individually.  Rather,
+     * free the input they cover with {@link #free(long)}.
+     */
+    public int readBatch(TokenBatch batch) throws IOException {
+        batch.clear();
+        while (tokenQueue.size() > 0 && batch.freeSize() > 0) {
+            Token token = tokenQueue.get();
+            batch.add(token.type, token.position, token.length,
+                      token.line, token.column);
+            tokenPool.give(token);
+        }
+        this.batch = batch;
+        try {
+            readTokens();
+        } finally {
+            this.batch = null;
+        }
+        return batch.size;
+    }
+
+    public Token readToken() {
+        // Read more tokens if needed
+        if (tokenQueue.size() <= 0) {
+            try {
+                readTokens();
+            } catch (IOException e) {
+                throw readFailed(e);
+            }
+        }
+        // Return the next token or null if none
+        if (tokenQueue.size() > 0) {
+            return tokenQueue.get();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the capacity of the buffer of input, 0 when lexing a byte
+     * buffer or a file.
+     */
+    public int getBufferCapacity() {
+        return (buffer != null ? buffer.capacity() : 0);
+    }
+
+    /**
+     * Limits the buffer of input that has not been freed to the given
+     * capacity.  Lexing a token (or holding tokens) that needs more
+     * throws {@link IllegalStateException} rather than running out of
+     * memory.  Has no effect when lexing a byte buffer or a file,
+     * which are not copied.
+     */
+    public void setMaximumBufferCapacity(int capacity) {
+        if (buffer != null) {
+            buffer.setMaximumCapacity(capacity);
+        }
+    }
+
+    /**
+     * Shrinks the buffer back toward the given capacity after a spike
+     * (such as a huge field) once it is the given factor larger than
+     * what it holds.  See {@link StreamBuffer#setShrinkPolicy(int,
+     * int)}.
+     */
+    public void setBufferShrinkPolicy(int targetCapacity, int shrinkFactor) {
+        if (buffer != null) {
+            buffer.setShrinkPolicy(targetCapacity, shrinkFactor);
+        }
+    }
+
+    /**
+     * Sets whether to find lines and columns on demand with {@link
+     * #lineAt(long)} and {@link #columnAt(long)} rather than setting
+     * them in every token.  Lazy provenance only records where lines
+     * start, which saves work per token, but then the lines and
+     * columns of tokens are not set.  Must be set before lexing.
+     *
+     * @throws IllegalStateException if lexing has started
+     */
+    public void setLazyProvenance(boolean lazy) {
+        if (byteCode != -2) {
+            throw new IllegalStateException("Lexing has started");
+        }
+        lineIndex = lazy ? new LineIndex(line, lineStartPosition) : null;
+    }
+
+    public boolean hasLazyProvenance() {
+        return lineIndex != null;
+    }
+
+    /**
+     * Returns the line of the given position of input that has not
+     * been freed.
+     *
+     * @throws IllegalStateException if provenance is not lazy
+     */
+    public long lineAt(long position) {
+        checkLazy();
+        return lineIndex.lineAt(position);
+    }
+
+    /**
+     * Returns the column of the given position of input that has not
+     * been freed.
+     *
+     * @throws IllegalStateException if provenance is not lazy
+     */
+    public int columnAt(long position) {
+        checkLazy();
+        return lineIndex.columnAt(position);
+    }
+
+    private void checkLazy() {
+        if (lineIndex == null) {
+            throw new IllegalStateException("Provenance is not lazy");
+        }
+    }
+
+    /** Returns the line of the given token, even if lazy. */
+    private long lineOf(Token token) {
+        return lineIndex != null ? lineIndex.lineAt(token.position)
+            : token.line;
+    }
+
+    /** Returns the column of the given token, even if lazy. */
+    private int columnOf(Token token) {
+        return lineIndex != null ? lineIndex.columnAt(token.position)
+            : token.column;
+    }
+
+    /**
+     * Returns the pool of freed tokens, whose statistics show how well
+     * tokens are being reused.
+     */
+    public Pool<Token> getTokenPool() {
+        return tokenPool;
+    }
+
+    public void free(Token token) {
+        tokenPool.give(token);
+        free(token.position + token.length - 1);
+    }
+
+    public void free(long position) {
+        if (buffer != null) {
+            buffer.free(position);
+        } else if (position >= windowLower) {
+            checkPosition(position);
+            windowLower = position + 1;
+        }
+        if (lineIndex != null) {
+            lineIndex.free(position);
+        }
+    }
+
+    /** Returns the byte of input at the given position. */
+    public byte getAt(long position) {
+        if (buffer != null) {
+            return buffer.getAt(position);
+        }
+        checkPosition(position);
+        return window.get((int)(position - windowStart));
+    }
+
+    private void checkPosition(long position) {
+        long windowEnd = windowStart + window.limit();
+        if (position < windowLower || position >= windowEnd) {
+            throw new NoSuchElementException(
+                String.format("Position %d is not in [%d,%d)",
+                              position, windowLower, windowEnd));
+        }
+    }
+
+    public CharView getView(Token token, CharView view) {
+        Pool.checkInUse(token);
+        return getView(token.position, token.length, view);
+    }
+
+    /**
+     * Decodes the given range of input into the given view and returns
+     * the view.  (Unlike {@link Lexer}, the view is a copy.)
+     */
+    public CharView getView(long position, int length, CharView view) {
+        // UTF-8 never has more characters than bytes
+        int count = decode(position, length, view.reserve(length));
+        view.setDecoded(count);
+        return view;
+    }
+
+    public int getInt(Token token) {
+        try {
+            return Numbers.parseInt(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not an int: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
+    }
+
+    public long getLong(Token token) {
+        try {
+            return Numbers.parseLong(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not a long: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
+    }
+
+    public double getDouble(Token token) {
+        try {
+            return Numbers.parseDouble(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not a double: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
+    }
+
+    public String getString(Token token) {
+        Pool.checkInUse(token);
+        return getString(token.position, token.length);
+    }
+
+    public String getString(long position, int length) {
+        char[] characters = new char[length];
+        int count = decode(position, length, characters);
+        return new String(characters, 0, count);
+    }
+
+    /**
+     * Decodes the given range of UTF-8 input into the given array and
+     * returns the number of characters.
+     */
+    private int decode(long position, int length, char[] characters) {
+        int count = 0;
+        long end = position + length;
+        while (position < end) {
+            int lead = getAt(position++) & 0xff;
+            if (lead < 0x80) {
+                characters[count++] = (char) lead;
+                continue;
+            }
+            // Determine the length of the sequence and its minimum
+            // value (to reject overlong encodings)
+            int extra;
+            int code;
+            int minimum;
+            if ((lead & 0xe0) == 0xc0) {
+                extra = 1;
+                code = lead & 0x1f;
+                minimum = 0x80;
+            } else if ((lead & 0xf0) == 0xe0) {
+                extra = 2;
+                code = lead & 0x0f;
+                minimum = 0x800;
+            } else if ((lead & 0xf8) == 0xf0) {
+                extra = 3;
+                code = lead & 0x07;
+                minimum = 0x10000;
+            } else {
+                characters[count++] = REPLACEMENT;
+                continue;
+            }
+            // Accumulate the continuation bytes.  Stop at the first
+            // invalid one so it is decoded on its own.
+            int index = 0;
+            for (; index < extra && position < end; index++) {
+                int next = getAt(position) & 0xff;
+                if ((next & 0xc0) != 0x80) {
+                    break;
+                }
+                code = (code << 6) | (next & 0x3f);
+                position++;
+            }
+            if (index < extra || code < minimum || code > 0x10ffff
+                || (code >= 0xd800 && code <= 0xdfff)) {
+                characters[count++] = REPLACEMENT;
+            } else if (code >= 0x10000) {
+                characters[count++] = Character.highSurrogate(code);
+                characters[count++] = Character.lowSurrogate(code);
+            } else {
+                characters[count++] = (char) code;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ByteLexerTest {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Texts without non-ASCII space, which lex the same as bytes. */
+    static final String[] texts = {
+        TestText.empty,
+        TestText.delimiters,
+        TestText.newlines,
+        TestText.returnsAndFeeds,
+        TestText.quotesAndEscapes,
+        TestText.comment,
+        TestText.singleData,
+        TestText.multilineField,
+        TestText.magicSquare3x3,
+        TestText.poem128,
+        "," + TestText.longToken10000 + "\r\n",
+        // Runs of content and space across words, with control
+        // characters that are content
+        "abcdefghijk\u0001lmnopqrstuvwxyz0123\u0000456789,\t \u000b\f" +
+        "  \t\"quoted \u0008\u000e\u001f content\",#x\\y\r\n",
+    };
+
+    public ByteLexer makeStreamLexer(String input, int blockSize) {
+        return new ByteLexer(Dialect.LOOSE,
+                             new ByteArrayInputStream(input.getBytes(UTF_8)),
+                             10, 3, blockSize);
+    }
+
+    public ByteLexer makeBufferLexer(String input, int blockSize) {
+        return new ByteLexer(Dialect.LOOSE,
+                             ByteBuffer.wrap(input.getBytes(UTF_8)),
+                             3, blockSize);
+    }
+
+    /** Checks that the byte lexer produces the same tokens as Lexer. */
+    public void checkSameTokens(String text, ByteLexer lexer) {
+        Lexer reference = new Lexer(Dialect.LOOSE, new StringReader(text));
+        Token expected = reference.readToken();
+        Token actual = lexer.readToken();
+        while (expected != null) {
+            assertNotNull(actual);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.position, actual.position);
+            assertEquals(expected.length, actual.length);
+            assertEquals(expected.line, actual.line);
+            assertEquals(expected.column, actual.column);
+            assertEquals(reference.getString(expected),
+                         lexer.getString(actual));
+            reference.free(expected);
+            lexer.free(actual);
+            expected = reference.readToken();
+            actual = lexer.readToken();
+        }
+        assertNull(actual);
+    }
+
+    @Test public void readToken_sameAsLexer() {
+        for (String text : texts) {
+            for (int blockSize = 1; blockSize <= 4; blockSize++) {
+                checkSameTokens(text, makeStreamLexer(text, blockSize));
+                checkSameTokens(text, makeBufferLexer(text, blockSize));
+            }
+            checkSameTokens(text, makeStreamLexer(text, 4096));
+            checkSameTokens(text, makeBufferLexer(text, 4096));
+        }
+    }
+
+    @Test public void readToken_utf8() {
+        // 2, 3, and 4 byte characters and a non-breaking space, which
+        // is content
+        String text = "\u00e9t\u00e9,\u20ac\u00a0 \ud83d\ude00\n";
+        ByteLexer lexer = makeStreamLexer(text, 3);
+        Object[][] tokens = {
+            {"\u00e9t\u00e9", Token.Type.CONTENT, 0L, 5},
+            {",", Token.Type.DELIMITER, 5L, 1},
+            {"\u20ac\u00a0", Token.Type.CONTENT, 6L, 5},
+            {" ", Token.Type.SPACE, 11L, 1},
+            {"\ud83d\ude00", Token.Type.CONTENT, 12L, 4},
+            {"\n", Token.Type.NEWLINE, 16L, 1},
+        };
+        CharView view = new CharView();
+        for (Object[] expected : tokens) {
+            Token token = lexer.readToken();
+            assertEquals(expected[0], lexer.getString(token));
+            assertTrue(lexer.getView(token, view).contentEquals((String) expected[0]));
+            assertEquals(expected[1], token.type);
+            assertEquals(expected[2], token.position);
+            assertEquals(expected[3], token.length);
+            // Columns are in bytes
+            assertEquals(token.position + 1, token.column);
+        }
+        assertNull(lexer.readToken());
+    }
+
+    @Test public void getString_malformed() {
+        byte[] bytes = {'a', (byte) 0xc3, 'b', (byte) 0xff, (byte) 0xe2,
+                        (byte) 0x82, (byte) 0xc0, (byte) 0x80};
+        ByteLexer lexer = new ByteLexer(Dialect.LOOSE, ByteBuffer.wrap(bytes));
+        Token token = lexer.readToken();
+        // One replacement for each malformed sequence: a lone lead
+        // byte, an invalid byte, a truncated sequence, an overlong one
+        assertEquals("a\ufffdb\ufffd\ufffd\ufffd",
+                     lexer.getString(token));
+    }
+
+    @Test public void readToken_bufferNotModified() {
+        ByteBuffer input = ByteBuffer.wrap("xx4,9\n".getBytes(UTF_8));
+        input.position(2);
+        ByteLexer lexer = new ByteLexer(Dialect.LOOSE, input);
+        Token token = lexer.readToken();
+        assertEquals(0, token.position);
+        assertEquals(4, lexer.getInt(token));
+        assertEquals(2, input.position());
+    }
+
+    @Test(expected=java.util.NoSuchElementException.class)
+    public void getString_afterFree() {
+        ByteLexer lexer = makeBufferLexer(TestText.magicSquare3x3, 4096);
+        Token token = lexer.readToken();
+        lexer.free(token);
+        // Read the freed range itself since reading through the freed
+        // token fails sooner when pools are checked
+        lexer.getString(token.position, token.length);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void nonAsciiDialect() {
+        Dialect dialect =
+            new Dialect('\u00a7', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        true, true, true, true);
+        new ByteLexer(dialect, ByteBuffer.allocate(0));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void nonAsciiExtraSpace() {
+        Dialect dialect =
+            new Dialect(',', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        true, true, true, true, "\u3000", "");
+        new ByteLexer(dialect, ByteBuffer.allocate(0));
+    }
+
+    @Test public void readToken_extraSpaceAndDelimiters() {
+        // The extra characters must stop runs of content too
+        Dialect dialect =
+            new Dialect(',', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        true, true, true, true, "_", "\t|;");
+        String text = "abcdefghij|klmnopqrstuvw;xyz0123456789\tABCDEFGHIJK" +
+            "LMNOPQRS___TUVWXYZ,\"x|y\"\n";
+        for (int blockSize = 1; blockSize <= 64; blockSize *= 4) {
+            Lexer reference = new Lexer(dialect, new StringReader(text));
+            ByteLexer lexer = new ByteLexer(
+                dialect, ByteBuffer.wrap(text.getBytes(UTF_8)),
+                3, blockSize);
+            Token expected = reference.readToken();
+            Token actual = lexer.readToken();
+            while (expected != null) {
+                assertEquals(expected.type, actual.type);
+                assertEquals(expected.position, actual.position);
+                assertEquals(expected.length, actual.length);
+                reference.free(expected);
+                lexer.free(actual);
+                expected = reference.readToken();
+                actual = lexer.readToken();
+            }
+            assertNull(actual);
+        }
+    }
+
+    @Test public void parser() {
+        String text = "na\u00efve, \"caf\u00e9 \"\"cr\u00e8me\"\"\", 3.5\n" +
+            "# comment\n\u00fcber,x\\,y,-7\n";
+        ByteLexer lexer = makeBufferLexer(text, 5);
+        Parser parser = new Parser(Dialect.LOOSE, lexer);
+        Record record = parser.readRecord();
+        assertEquals("na\u00efve", record.getString(0));
+        assertEquals("caf\u00e9 \"cr\u00e8me\"", record.getString(1));
+        assertEquals(3.5, record.getDouble(2), 0.0);
+        parser.free(record);
+        record = parser.readRecord();
+        assertEquals(3, record.line());
+        assertEquals("\u00fcber", record.getString(0));
+        assertEquals("x,y", record.getString(1));
+        assertEquals(-7, record.getInt(2));
+        parser.free(record);
+        assertNull(parser.readRecord());
+    }
+
+    /** Writes the given text to a temporary file. */
+    static Path writeTemp(String text) throws IOException {
+        Path path = Files.createTempFile("jcsv-", ".csv");
+        path.toFile().deleteOnExit();
+        Files.write(path, text.getBytes(UTF_8));
+        return path;
+    }
+
+    @Test public void map_sameAsLexer() throws IOException {
+        for (String text : texts) {
+            Path path = writeTemp(text);
+            try (FileChannel channel =
+                 FileChannel.open(path, StandardOpenOption.READ)) {
+                // Small windows force remapping
+                for (int mapSize = 1; mapSize <= 5; mapSize++) {
+                    checkSameTokens(text, new ByteLexer(
+                        Dialect.LOOSE, channel, 0, channel.size(), 1,
+                        mapSize, 3, 3));
+                }
+                checkSameTokens(text, ByteLexer.map(Dialect.LOOSE, channel));
+            }
+            Files.delete(path);
+        }
+    }
+
+    /** Checks that batches of tokens are the same as from Lexer. */
+    public void checkSameBatches(String text, ByteLexer lexer, int capacity)
+        throws IOException {
+        List<String> actual = new ArrayList<String>();
+        TokenBatch batch = new TokenBatch(capacity);
+        while (lexer.readBatch(batch) > 0) {
+            for (int index = 0; index < batch.size(); index++) {
+                actual.add(LexerTest.describe(batch, index, lexer.getString(
+                    batch.positions[index], batch.lengths[index])));
+            }
+            lexer.free(batch.lastPosition());
+        }
+        assertEquals(LexerTest.describeTokens(text), actual);
+    }
+
+    @Test public void readBatch_sameAsLexer() throws IOException {
+        for (String text : texts) {
+            Path path = writeTemp(text);
+            try (FileChannel channel =
+                 FileChannel.open(path, StandardOpenOption.READ)) {
+                for (int capacity = 1; capacity <= 4; capacity++) {
+                    checkSameBatches(text, makeStreamLexer(text, 3),
+                                     capacity);
+                    checkSameBatches(text, makeBufferLexer(text, 3),
+                                     capacity);
+                    checkSameBatches(text, new ByteLexer(
+                        Dialect.LOOSE, channel, 0, channel.size(), 1,
+                        2, 3, 3), capacity);
+                }
+            }
+            Files.delete(path);
+        }
+    }
+
+    @Test public void map_lazyProvenance() throws IOException {
+        String text = TestText.poem128 + TestText.multilineField;
+        Path path = writeTemp(text);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            // Lex from the start of the second line
+            long start = text.indexOf('\n') + 1;
+            ByteLexer reference = new ByteLexer(
+                Dialect.LOOSE, channel, start, channel.size(), 2, 4, 3, 3);
+            ByteLexer lexer = new ByteLexer(
+                Dialect.LOOSE, channel, start, channel.size(), 2, 4, 3, 3);
+            lexer.setLazyProvenance(true);
+            Token expected;
+            while ((expected = reference.readToken()) != null) {
+                Token token = lexer.readToken();
+                assertEquals(expected.position, token.position);
+                assertEquals(expected.line, lexer.lineAt(token.position));
+                assertEquals(expected.column,
+                             lexer.columnAt(token.position));
+                reference.free(expected);
+                lexer.free(token);
+            }
+            assertNull(lexer.readToken());
+        }
+        Files.delete(path);
+    }
+
+    @Test public void map_path() throws IOException {
+        Path path = writeTemp(TestText.magicSquare3x3);
+        try (ByteLexer lexer = ByteLexer.map(Dialect.LOOSE, path)) {
+            Parser parser = new Parser(Dialect.LOOSE, lexer);
+            int sum = 0;
+            for (Record record : parser) {
+                for (int field = 0; field < record.size(); field++) {
+                    sum += record.getInt(field);
+                }
+                parser.free(record);
+            }
+            assertEquals(45, sum);
+        }
+        Files.delete(path);
+    }
+
+    @Test public void map_unfreedInputKept() throws IOException {
+        // Tokens that are not freed stay readable across remaps
+        Path path = writeTemp(TestText.poem128);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteLexer lexer = new ByteLexer(
+                Dialect.LOOSE, channel, 0, channel.size(), 1, 8, 1000, 4);
+            Lexer reference = new Lexer(Dialect.LOOSE,
+                                        new StringReader(TestText.poem128));
+            List<Token> tokens = new ArrayList<Token>();
+            for (Token token : lexer) {
+                tokens.add(token);
+            }
+            for (Token token : tokens) {
+                assertEquals(reference.getString(reference.readToken()),
+                             lexer.getString(token));
+            }
+        }
+        Files.delete(path);
+    }
+
+    @Test public void map_readFailure() throws IOException {
+        // Failing to map more of the file is an error, not the end
+        Path path = writeTemp(TestText.poem128);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteLexer lexer = new ByteLexer(
+            Dialect.LOOSE, channel, 0, channel.size(), 1, 8, 1000, 4);
+        Parser parser = new Parser(Dialect.LOOSE, lexer);
+        channel.close();
+        try {
+            while (parser.readRecord() != null) {
+                // Keep going until the first window runs out
+            }
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        Files.delete(path);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void map_unfreedInputTooLarge() throws IOException {
+        Path path = writeTemp(TestText.poem128);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteLexer lexer = new ByteLexer(
+                Dialect.LOOSE, channel, 0, channel.size(), 1, 8, 1000, 4);
+            lexer.maxMapSize = 16;
+            while (lexer.readToken() != null) {
+                // Never free anything
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
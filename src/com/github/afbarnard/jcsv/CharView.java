@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A reusable view of a range of input characters.  A view refers
+ * directly to the lexer's buffer, so it does not copy and is valid only
+ * until its range is freed.  (Accessing freed characters throws {@link
+ * java.util.NoSuchElementException}.)  Fields that need decoding (such
+ * as fields with escapes) are decoded into storage owned by the view
+ * which is reused.
+ *
+ * <p>Views are meant to be reused: make one and pass it to {@link
+ * Lexer#getView(Token, CharView)} or {@link Record#getView(int,
+ * CharView)} as many times as needed.  Only {@link #toString()} and
+ * {@link #subSequence(int, int)} allocate.</p>
+ */
+public class CharView implements CharSequence {
+
+    /** Buffer containing the characters, if not decoded. */
+    private TextBuffer buffer;
+
+    /** Position of the first character in the buffer. */
+    private long position;
+
+    private int length = 0;
+
+    /** Storage for decoded characters, if decoded. */
+    private char[] characters;
+
+    private boolean decoded = false;
+
+    public CharView() {
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(
+                String.format("Index %d is not in [0,%d)", index, length));
+        }
+        if (decoded) {
+            return characters[index];
+        }
+        return buffer.getAt(position + index);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(
+                String.format("Range [%d,%d) is not in [0,%d)",
+                              start, end, length));
+        }
+        CharView view = new CharView();
+        if (decoded) {
+            char[] target = view.reserve(end - start);
+            System.arraycopy(characters, start, target, 0, end - start);
+            view.setDecoded(end - start);
+        } else {
+            view.set(buffer, position + start, end - start);
+        }
+        return view;
+    }
+
+    /**
+     * Returns whether this view has the same characters as the given
+     * sequence.  Does not allocate.
+     */
+    public boolean contentEquals(CharSequence sequence) {
+        if (sequence.length() != length) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            if (charAt(index) != sequence.charAt(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String toString() {
+        if (decoded) {
+            return new String(characters, 0, length);
+        }
+        char[] copy = new char[length];
+        buffer.copyTo(position, copy, 0, length);
+        return new String(copy);
+    }
+
+    ////////////////////////////////////////
+    // Setting, for use by lexers and records
+
+    /** Makes this a view of the given range of the given buffer. */
+    void set(TextBuffer buffer, long position, int length) {
+        this.buffer = buffer;
+        this.position = position;
+        this.length = length;
+        decoded = false;
+    }
+
+    /**
+     * Returns storage for at least the given number of decoded
+     * characters.  Follow with {@link #setDecoded(int)}.
+     */
+    char[] reserve(int capacity) {
+        if (characters == null || characters.length < capacity) {
+            characters = new char[Math.max(capacity, 16)];
+        }
+        return characters;
+    }
+
+    /** Makes this a view of the given number of decoded characters. */
+    void setDecoded(int length) {
+        buffer = null;
+        this.length = length;
+        decoded = true;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.Arrays;
+
+/**
+ * Values of up to a fixed number of records stored by column in
+ * primitive arrays, as filled by {@link Parser#readBatch(ColumnBatch)}
+ * according to a {@link Schema}.  Values are decoded straight from the
+ * lexer's buffer into the arrays, so reading a batch makes no strings
+ * or boxed objects, and the same batch is refilled by every read.
+ *
+ * <p>The arrays belong to the caller: get them once and index them by
+ * row in [0,{@link #size()}).  Number, boolean, and date columns may
+ * instead be given arrays of the caller's own (at least as long as the
+ * capacity) to fill.  String columns store their values one after
+ * another in one {@code char[]}, with value {@code row} ending at
+ * {@code getStringEnds(column)[row]} and starting where the previous
+ * one ends (or at zero).  The character array grows as needed, so get
+ * it again after each read.</p>
+ */
+public class ColumnBatch {
+
+    private final Schema schema;
+    private final Schema.Type[] types;
+    private final int capacity;
+
+    /** Number of rows filled. */
+    int size = 0;
+
+    // Arrays of each column by type, null if the column has another
+    // type
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final boolean[][] booleans;
+    private final char[][] chars;
+    private final int[][] ends;
+
+    /** View for decoding strings. */
+    private final CharView view = new CharView();
+
+    /**
+     * Makes a batch of up to the given number of rows of the given
+     * schema.
+     */
+    public ColumnBatch(Schema schema, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                "Capacity is not positive: " + capacity);
+        }
+        this.schema = schema;
+        this.capacity = capacity;
+        int columns = schema.size();
+        types = new Schema.Type[columns];
+        ints = new int[columns][];
+        longs = new long[columns][];
+        doubles = new double[columns][];
+        booleans = new boolean[columns][];
+        chars = new char[columns][];
+        ends = new int[columns][];
+        for (int column = 0; column < columns; column++) {
+            types[column] = schema.getType(column);
+            switch (types[column]) {
+            case INT:
+            case DATE:
+                ints[column] = new int[capacity];
+                break;
+            case LONG:
+                longs[column] = new long[capacity];
+                break;
+            case DOUBLE:
+                doubles[column] = new double[capacity];
+                break;
+            case BOOLEAN:
+                booleans[column] = new boolean[capacity];
+                break;
+            case STRING:
+                chars[column] = new char[capacity * 8];
+                ends[column] = new int[capacity];
+                break;
+            }
+        }
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /** Returns the maximum number of rows. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Returns the number of rows filled by the last read. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the values of the given INT or DATE column. */
+    public int[] getInts(int column) {
+        checkType(column, Schema.Type.INT, Schema.Type.DATE);
+        return ints[column];
+    }
+
+    public long[] getLongs(int column) {
+        checkType(column, Schema.Type.LONG, null);
+        return longs[column];
+    }
+
+    public double[] getDoubles(int column) {
+        checkType(column, Schema.Type.DOUBLE, null);
+        return doubles[column];
+    }
+
+    public boolean[] getBooleans(int column) {
+        checkType(column, Schema.Type.BOOLEAN, null);
+        return booleans[column];
+    }
+
+    /** Returns the characters of the values of the given STRING column. */
+    public char[] getStringChars(int column) {
+        checkType(column, Schema.Type.STRING, null);
+        return chars[column];
+    }
+
+    /** Returns where each value of the given STRING column ends. */
+    public int[] getStringEnds(int column) {
+        checkType(column, Schema.Type.STRING, null);
+        return ends[column];
+    }
+
+    /**
+     * Returns the given value of the given STRING column as a string,
+     * which allocates.
+     */
+    public String getString(int column, int row) {
+        checkType(column, Schema.Type.STRING, null);
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException(
+                String.format("Row %d is not in [0,%d)", row, size));
+        }
+        int start = (row == 0 ? 0 : ends[column][row - 1]);
+        return new String(chars[column], start, ends[column][row] - start);
+    }
+
+    /** Fills the given array with the values of the given INT or DATE column. */
+    public void setInts(int column, int[] values) {
+        checkType(column, Schema.Type.INT, Schema.Type.DATE);
+        checkLength(values.length);
+        ints[column] = values;
+    }
+
+    public void setLongs(int column, long[] values) {
+        checkType(column, Schema.Type.LONG, null);
+        checkLength(values.length);
+        longs[column] = values;
+    }
+
+    public void setDoubles(int column, double[] values) {
+        checkType(column, Schema.Type.DOUBLE, null);
+        checkLength(values.length);
+        doubles[column] = values;
+    }
+
+    public void setBooleans(int column, boolean[] values) {
+        checkType(column, Schema.Type.BOOLEAN, null);
+        checkLength(values.length);
+        booleans[column] = values;
+    }
+
+    private void checkType(int column, Schema.Type type,
+                           Schema.Type otherType) {
+        if (column < 0 || column >= types.length) {
+            throw new IndexOutOfBoundsException(
+                String.format("Column %d is not in [0,%d)", column,
+                              types.length));
+        }
+        if (types[column] != type && types[column] != otherType) {
+            throw new IllegalArgumentException(
+                String.format("Column %d is %s, not %s", column,
+                              types[column], type));
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length < capacity) {
+            throw new IllegalArgumentException(
+                String.format("Array of %d is shorter than capacity %d",
+                              length, capacity));
+        }
+    }
+
+    ////////////////////////////////////////
+    // Filling, for use by the parser
+
+    /**
+     * Decodes the values of the given record into the given row.  Field
+     * {@code fields[column]} of the record has the value of each
+     * column.
+     *
+     * @throws ParseException if the record does not have a field or a
+     * value is not of its column's type
+     */
+    void read(int row, Record record, int[] fields) {
+        for (int column = 0; column < types.length; column++) {
+            int field = fields[column];
+            if (field >= record.size()) {
+                String name = schema.getName(column);
+                throw new ParseException(
+                    String.format("Record has no column %s",
+                                  name != null ? "'" + name + "'"
+                                  : String.valueOf(schema.getIndex(column))),
+                    record.line(), record.column());
+            }
+            switch (types[column]) {
+            case INT:
+                ints[column][row] = record.getInt(field);
+                break;
+            case LONG:
+                longs[column][row] = record.getLong(field);
+                break;
+            case DOUBLE:
+                doubles[column][row] = record.getDouble(field);
+                break;
+            case BOOLEAN:
+                booleans[column][row] = record.getBoolean(field);
+                break;
+            case DATE:
+                ints[column][row] = record.getEpochDay(field);
+                break;
+            case STRING:
+                appendString(column, row, record.getView(field, view));
+                break;
+            }
+        }
+    }
+
+    private void appendString(int column, int row, CharView value) {
+        int start = (row == 0 ? 0 : ends[column][row - 1]);
+        int length = value.length();
+        char[] characters = chars[column];
+        if (start + length > characters.length) {
+            characters = Arrays.copyOf(
+                characters, Math.max(characters.length * 2, start + length));
+            chars[column] = characters;
+        }
+        for (int index = 0; index < length; index++) {
+            characters[start + index] = value.charAt(index);
+        }
+        ends[column][row] = start + length;
+    }
+}
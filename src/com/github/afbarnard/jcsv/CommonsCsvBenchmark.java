@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Compares parsing with jcsv and with Apache Commons CSV head to head
+ * on each of the generated corpora, in characters per second.  Both
+ * parse RFC 4180 and visit the length of every field.
+ *
+ * <p>This benchmark is only built if the Commons CSV JAR is found (see
+ * the makefile), so that everything else builds offline without
+ * it.</p>
+ */
+public class CommonsCsvBenchmark {
+
+    public static Benchmark parsing(String corpus, final String text) {
+        return new Benchmark(String.format("Commons CSV (%s)", corpus)) {
+            public long run() throws Exception {
+                CSVParser parser =
+                    CSVFormat.RFC4180.parse(new StringReader(text));
+                long length = 0;
+                for (CSVRecord record : parser) {
+                    for (String field : record) {
+                        length += field.length();
+                    }
+                }
+                parser.close();
+                sink = length;
+                return text.length();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (Map.Entry<String, String> corpus :
+                 Benchmark.corpora(4000000).entrySet()) {
+            String name = corpus.getKey();
+            String text = corpus.getValue();
+            ParserBenchmark.parsing(name, text).measure();
+            parsing(name, text).measure();
+            ParserBenchmark.splitting(name, text).measure();
+        }
+    }
+}
@@ -26,6 +26,22 @@ public class Dialect {
     boolean allowComments;
     boolean allowVariableLengthRecords;
 
+    /** Characters that are space in addition to the usual ones. */
+    String extraSpace;
+
+    /** Characters that are delimiters in addition to the delimiter. */
+    String extraDelimiters;
+
+    /**
+     * Token type of each Latin-1 character, as the ordinal of the type.
+     * Characters above Latin-1 are classified by {@link
+     * #classify(char)}.
+     */
+    final byte[] classes = new byte[256];
+
+    /** The token types indexed by ordinal, for decoding classes. */
+    static final Token.Type[] TYPES = Token.Type.values();
+
     public Dialect(char delimiter,
                    char quote,
                    char escape,
@@ -36,6 +52,28 @@ public class Dialect {
                    boolean allowComments,
                    boolean allowVariableLengthRecords
                    ) {
+        this(delimiter, quote, escape, comment, quoteEscapeStyle,
+             trimSpace, allowBlankLines, allowComments,
+             allowVariableLengthRecords, "", "");
+    }
+
+    /**
+     * Constructs a dialect where the given extra characters are also
+     * space and delimiters.  Extra delimiters take precedence over
+     * space, so, for example, tab can be a delimiter.
+     */
+    public Dialect(char delimiter,
+                   char quote,
+                   char escape,
+                   char comment,
+                   QuoteEscapeStyle quoteEscapeStyle,
+                   boolean trimSpace,
+                   boolean allowBlankLines,
+                   boolean allowComments,
+                   boolean allowVariableLengthRecords,
+                   String extraSpace,
+                   String extraDelimiters
+                   ) {
         this.delimiter = delimiter;
         this.quote = quote;
         this.escape = escape;
@@ -45,6 +83,75 @@ public class Dialect {
         this.allowBlankLines = allowBlankLines;
         this.allowComments = allowComments;
         this.allowVariableLengthRecords = allowVariableLengthRecords;
+        this.extraSpace = extraSpace;
+        this.extraDelimiters = extraDelimiters;
+        for (int character = 0; character < classes.length; character++) {
+            classes[character] = (byte) classify((char) character).ordinal();
+        }
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public char getQuote() {
+        return quote;
+    }
+
+    public char getEscape() {
+        return escape;
+    }
+
+    public char getComment() {
+        return comment;
+    }
+
+    public QuoteEscapeStyle getQuoteEscapeStyle() {
+        return quoteEscapeStyle;
+    }
+
+    public boolean allowsComments() {
+        return allowComments;
+    }
+
+    public boolean allowsVariableLengthRecords() {
+        return allowVariableLengthRecords;
+    }
+
+    /**
+     * Returns the token type of the given character.  The lexers look
+     * up Latin-1 characters in {@link #classes} instead.
+     */
+    Token.Type classify(char character) {
+        switch (character) {
+        case '\n':
+        case '\r':
+            return Token.Type.NEWLINE;
+        }
+        if (extraDelimiters.indexOf(character) >= 0) {
+            return Token.Type.DELIMITER;
+        }
+        if (extraSpace.indexOf(character) >= 0) {
+            return Token.Type.SPACE;
+        }
+        switch (character) {
+        case ' ':
+        case '\t':
+        case '\u000b':  // Vertical tab
+        case '\f':
+        case '\u00a0':  // Non-breaking space
+            return Token.Type.SPACE;
+        }
+        if (character == delimiter)
+            return Token.Type.DELIMITER;
+        else if (character == quote)
+            return Token.Type.QUOTE;
+        else if (character == escape)
+            return Token.Type.ESCAPE;
+        else if (character == comment)
+            return Token.Type.COMMENT;
+        else
+            return Token.Type.CONTENT;
     }
 
     public static final Dialect LOOSE =
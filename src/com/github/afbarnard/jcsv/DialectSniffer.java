@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Guesses the dialect of delimited text from a sample of its start.
+ * Each candidate delimiter and quote is tried by lexing the sample and
+ * counting the fields of each record: the right dialect is the one
+ * whose records most consistently have the same number of fields (more
+ * than one).  The quote escape style and whether there are comments are
+ * then read off the sample with the chosen delimiter and quote.
+ *
+ * <p>At most {@link #getSampleSize()} characters are read however long
+ * the input is, and there are a fixed number of candidates, so sniffing
+ * takes bounded time.</p>
+ */
+public class DialectSniffer {
+
+    /** A guessed dialect and how sure the guess is. */
+    public static class Result {
+        public final Dialect dialect;
+
+        /**
+         * Confidence in [0,1]: the fraction of sampled records with the
+         * usual number of fields, reduced for small samples and for
+         * close runners-up.
+         */
+        public final double confidence;
+
+        Result(Dialect dialect, double confidence) {
+            this.dialect = dialect;
+            this.confidence = confidence;
+        }
+
+        public String toString() {
+            return String.format(
+                "delimiter '%s', quote '%s', %s, comments %s (%.2f)",
+                dialect.delimiter, dialect.quote, dialect.quoteEscapeStyle,
+                dialect.allowComments, confidence);
+        }
+    }
+
+    /** Default number of characters to sample. */
+    public static final int SAMPLE_SIZE = 65536;
+
+    /** Records sampled before the confidence is full. */
+    static final int CONFIDENT_RECORDS = 10;
+
+    private final int sampleSize;
+    private final String delimiters;
+    private final String quotes;
+
+    /**
+     * Makes a sniffer that samples the given number of characters and
+     * tries the given candidate delimiters and quotes (in order of
+     * preference when tied).
+     */
+    public DialectSniffer(int sampleSize, String delimiters,
+                          String quotes) {
+        if (sampleSize <= 0 || delimiters.isEmpty() || quotes.isEmpty()) {
+            throw new IllegalArgumentException(
+                "Non-positive sample size or no candidates");
+        }
+        this.sampleSize = sampleSize;
+        this.delimiters = delimiters;
+        this.quotes = quotes;
+    }
+
+    public DialectSniffer() {
+        this(SAMPLE_SIZE, ",\t;|:", "\"'");
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Sniffs the start of the given reader.  If the reader supports
+     * {@link Reader#mark(int)}, it is reset afterward so that it can be
+     * parsed from the start; otherwise the sample is consumed.
+     */
+    public Result sniff(Reader reader) throws IOException {
+        boolean marked = reader.markSupported();
+        if (marked) {
+            reader.mark(sampleSize);
+        }
+        char[] sample = new char[sampleSize];
+        int length = 0;
+        int count;
+        while (length < sampleSize
+               && (count = reader.read(sample, length,
+                                       sampleSize - length)) >= 0) {
+            length += count;
+        }
+        if (marked) {
+            reader.reset();
+        }
+        // Drop a partial last record if the sample is cut short
+        String text = new String(sample, 0, length);
+        if (length == sampleSize) {
+            int end = Math.max(text.lastIndexOf('\n'),
+                               text.lastIndexOf('\r'));
+            if (end > 0) {
+                text = text.substring(0, end + 1);
+            }
+        }
+        return sniff(text);
+    }
+
+    /** Sniffs the start of the given text. */
+    public Result sniff(String text) {
+        if (text.length() > sampleSize) {
+            text = text.substring(0, sampleSize);
+        }
+        // Score every candidate, keeping the best and the best with a
+        // different delimiter
+        Tally best = null;
+        Tally runnerUp = null;
+        for (int index = 0; index < delimiters.length(); index++) {
+            Tally bestForDelimiter = null;
+            for (int quote = 0; quote < quotes.length(); quote++) {
+                Tally tally = tally(text, delimiters.charAt(index),
+                                    quotes.charAt(quote));
+                if (tally.isBetterThan(bestForDelimiter)) {
+                    bestForDelimiter = tally;
+                }
+            }
+            if (bestForDelimiter.isBetterThan(best)) {
+                runnerUp = best;
+                best = bestForDelimiter;
+            } else if (bestForDelimiter.isBetterThan(runnerUp)) {
+                runnerUp = bestForDelimiter;
+            }
+        }
+
+        // Confidence is consistency, less for few records and less for
+        // a close runner-up
+        double confidence = best.score();
+        confidence *= Math.min(1.0,
+                               (double) best.records / CONFIDENT_RECORDS);
+        if (runnerUp != null && best.score() > 0.0) {
+            confidence *= Math.min(1.0, 2.0 * (1.0 - runnerUp.score()
+                                               / best.score()) + 0.5);
+        }
+        return new Result(best.toDialect(), confidence);
+    }
+
+    /** Makes a dialect with the given delimiter and quote for lexing. */
+    static Dialect candidate(char delimiter, char quote,
+                             Dialect.QuoteEscapeStyle style,
+                             boolean allowComments,
+                             boolean allowVariableLengthRecords) {
+        // Delimiters that are usually space (tab) have to be extra
+        // delimiters to take precedence
+        String extraDelimiters =
+            (Dialect.LOOSE.classify(delimiter) == Token.Type.SPACE
+             ? String.valueOf(delimiter) : "");
+        return new Dialect(delimiter, quote, '\\', '#', style,
+                           true, true, allowComments,
+                           allowVariableLengthRecords, "",
+                           extraDelimiters);
+    }
+
+    /** Counts the fields of the records of the sample. */
+    static Tally tally(String text, char delimiter, char quote) {
+        Tally tally = new Tally(delimiter, quote);
+        Lexer lexer = new Lexer(
+            candidate(delimiter, quote, Dialect.QuoteEscapeStyle.EITHER,
+                      true, true),
+            new StringReader(text));
+        boolean quoted = false;
+        boolean comment = false;
+        int fields = 0;
+        boolean empty = true;
+        Token.Type previous = Token.Type.NONE;
+        Token token;
+        while ((token = lexer.readToken()) != null) {
+            Token.Type type = token.type;
+            lexer.free(token);
+            if (quoted) {
+                switch (type) {
+                case QUOTE:
+                    quoted = false;
+                    break;
+                case ESCAPE:
+                    // Skip what is escaped
+                    token = lexer.readToken();
+                    if (token != null) {
+                        if (token.type == Token.Type.QUOTE) {
+                            tally.escapedQuotes++;
+                        }
+                        lexer.free(token);
+                    }
+                    break;
+                default:
+                    break;
+                }
+            } else {
+                switch (type) {
+                case QUOTE:
+                    if (previous == Token.Type.QUOTE) {
+                        // A doubled quote: back in the field
+                        tally.doubledQuotes++;
+                    }
+                    quoted = true;
+                    empty = false;
+                    break;
+                case DELIMITER:
+                    fields++;
+                    empty = false;
+                    break;
+                case NEWLINE:
+                    if (!empty) {
+                        tally.add(fields + 1, comment);
+                    }
+                    fields = 0;
+                    empty = true;
+                    comment = false;
+                    break;
+                case COMMENT:
+                    if (empty) {
+                        comment = true;
+                    }
+                    empty = false;
+                    break;
+                case SPACE:
+                    break;
+                default:
+                    empty = false;
+                }
+            }
+            previous = type;
+        }
+        if (quoted) {
+            tally.unbalanced = true;
+        } else if (!empty) {
+            tally.add(fields + 1, comment);
+        }
+        return tally;
+    }
+
+    /** Field counts of the records of a sample lexed one way. */
+    static class Tally {
+        final char delimiter;
+        final char quote;
+
+        /** Number of records with each number of fields. */
+        final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        int records = 0;
+
+        /** Records starting with a comment character. */
+        final Map<Integer, Integer> commentCounts =
+            new HashMap<Integer, Integer>();
+        int commentRecords = 0;
+
+        int escapedQuotes = 0;
+        int doubledQuotes = 0;
+        boolean unbalanced = false;
+
+        // The most common number of fields and how many records have it
+        private int usualFields = 0;
+        private int usualRecords = 0;
+
+        Tally(char delimiter, char quote) {
+            this.delimiter = delimiter;
+            this.quote = quote;
+        }
+
+        void add(int fields, boolean comment) {
+            Map<Integer, Integer> map = (comment ? commentCounts : counts);
+            Integer count = map.get(fields);
+            count = (count == null ? 1 : count + 1);
+            map.put(fields, count);
+            if (comment) {
+                commentRecords++;
+                return;
+            }
+            records++;
+            if (count > usualRecords
+                || (count == usualRecords && fields > usualFields)) {
+                usualFields = fields;
+                usualRecords = count;
+            }
+        }
+
+        /**
+         * Returns whether lines that start with a comment character
+         * look like comments rather than records.
+         */
+        boolean hasComments() {
+            if (commentRecords == 0) {
+                return false;
+            }
+            Integer asRecords = commentCounts.get(usualFields);
+            return (asRecords == null || 2 * asRecords < commentRecords);
+        }
+
+        /**
+         * Returns the fraction of records with the usual number of
+         * fields, 0 if that is one field (the delimiter does not split
+         * anything), halved if a quote is left open.  Lines that start
+         * with a comment character count as records unless they look
+         * like comments.
+         */
+        double score() {
+            int total = records;
+            int usual = usualRecords;
+            if (!hasComments()) {
+                total += commentRecords;
+                Integer asRecords = commentCounts.get(usualFields);
+                usual += (asRecords == null ? 0 : asRecords);
+            }
+            if (usualFields < 2 || total == 0) {
+                return 0.0;
+            }
+            double score = (double) usual / total;
+            return (unbalanced ? score / 2 : score);
+        }
+
+        /**
+         * Returns whether this is better than the given tally (which
+         * may be null): a higher score, or the same score and more
+         * fields.  Otherwise earlier candidates win.
+         */
+        boolean isBetterThan(Tally tally) {
+            if (tally == null) {
+                return true;
+            }
+            double score = score();
+            double other = tally.score();
+            return (score > other
+                    || (score == other && score > 0.0
+                        && usualFields > tally.usualFields));
+        }
+
+        Dialect toDialect() {
+            Dialect.QuoteEscapeStyle style;
+            if (escapedQuotes > 0 && doubledQuotes == 0) {
+                style = Dialect.QuoteEscapeStyle.ESCAPED;
+            } else if (doubledQuotes > 0 && escapedQuotes == 0) {
+                style = Dialect.QuoteEscapeStyle.DOUBLED;
+            } else {
+                style = Dialect.QuoteEscapeStyle.EITHER;
+            }
+            boolean variable = (score() < 1.0);
+            return candidate(delimiter, quote, style, hasComments(),
+                             variable);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DialectSnifferTest {
+
+    /** A reader of endless records that counts what is read. */
+    static class EndlessReader extends Reader {
+        static final String RECORD = "1;two;\"thr;ee\";4\n";
+        long read = 0;
+
+        public int read(char[] buffer, int offset, int length) {
+            for (int index = 0; index < length; index++) {
+                buffer[offset + index] =
+                    RECORD.charAt((int)(read++ % RECORD.length()));
+            }
+            return length;
+        }
+
+        public void close() {
+        }
+    }
+
+    private final DialectSniffer sniffer = new DialectSniffer();
+
+    /** Returns the given records with the given delimiter. */
+    static String table(char delimiter, String... records) {
+        StringBuilder builder = new StringBuilder();
+        for (String record : records) {
+            builder.append(record.replace('|', delimiter)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    static final String[] records = {
+        "id|name|score|note",
+        "1|alpha|3.5|first",
+        "2|beta|4.25|",
+        "3|gamma|0.75|third one",
+        "4|delta|12|fourth",
+        "5|epsilon|7|fifth",
+        "6|zeta|9.5|sixth",
+        "7|eta|1|seventh",
+        "8|theta|2|eighth",
+        "9|iota|3|ninth",
+        "10|kappa|4|tenth",
+    };
+
+    @Test public void delimiters() {
+        for (char delimiter : ",\t;|:".toCharArray()) {
+            DialectSniffer.Result result =
+                sniffer.sniff(table(delimiter, records));
+            assertEquals(delimiter, result.dialect.getDelimiter());
+            assertEquals(1.0, result.confidence, 1e-9);
+            assertFalse(result.dialect.allowsVariableLengthRecords());
+        }
+    }
+
+    @Test public void semicolonsWithDecimalCommas() {
+        String text = table(';', "a|1,5|x", "b|2,25|y", "c|3,0|z");
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals(';', result.dialect.getDelimiter());
+        // Only a few records
+        assertTrue(result.confidence < 0.5);
+    }
+
+    @Test public void quotedDelimiters() {
+        String text = "name,address,zip\n"
+            + "ann,\"1 Main St, Apt 2\",53703\n"
+            + "bob,\"22 Oak Ave, Unit 5\",53704\n"
+            + "cat,\"3 Elm Rd\",53705\n";
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals(',', result.dialect.getDelimiter());
+        assertEquals('"', result.dialect.getQuote());
+    }
+
+    @Test public void singleQuotes() {
+        String text = "name|motto|n\n"
+            + "ann|'yes|no'|1\n"
+            + "bob|'a|b|c'|2\n"
+            + "cat|'none'|3\n";
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals('|', result.dialect.getDelimiter());
+        assertEquals('\'', result.dialect.getQuote());
+    }
+
+    @Test public void apostrophesAreNotQuotes() {
+        String text = "name,saying\n"
+            + "ann,don't\n"
+            + "bob,it's fine\n"
+            + "cat,ok\n";
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals(',', result.dialect.getDelimiter());
+        assertEquals('"', result.dialect.getQuote());
+    }
+
+    @Test public void quoteEscapeStyles() {
+        String doubled = "a,b\n\"say \"\"hi\"\"\",1\n\"x\",2\n";
+        assertEquals(Dialect.QuoteEscapeStyle.DOUBLED,
+                     sniffer.sniff(doubled).dialect.getQuoteEscapeStyle());
+        String escaped = "a,b\n\"say \\\"hi\\\"\",1\n\"x\",2\n";
+        assertEquals(Dialect.QuoteEscapeStyle.ESCAPED,
+                     sniffer.sniff(escaped).dialect.getQuoteEscapeStyle());
+        String plain = "a,b\n1,2\n";
+        assertEquals(Dialect.QuoteEscapeStyle.EITHER,
+                     sniffer.sniff(plain).dialect.getQuoteEscapeStyle());
+    }
+
+    @Test public void comments() {
+        String text = "# exported 2015-06-01\n# by someone\n"
+            + table('\t', records);
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals('\t', result.dialect.getDelimiter());
+        assertTrue(result.dialect.allowsComments());
+        assertEquals(1.0, result.confidence, 1e-9);
+        // Data that happens to start with '#' is not comments
+        text = table(',', "#|a|b", "#1|c|d", "2|e|f");
+        assertFalse(sniffer.sniff(text).dialect.allowsComments());
+    }
+
+    @Test public void ragged() {
+        String text = table(',', records) + "11,lambda\n12\n";
+        DialectSniffer.Result result = sniffer.sniff(text);
+        assertEquals(',', result.dialect.getDelimiter());
+        assertTrue(result.dialect.allowsVariableLengthRecords());
+        assertTrue(result.confidence < 1.0);
+        assertTrue(result.confidence > 0.5);
+    }
+
+    @Test public void noDelimiters() {
+        DialectSniffer.Result result = sniffer.sniff("one\ntwo\nthree\n");
+        assertEquals(0.0, result.confidence, 0.0);
+    }
+
+    @Test public void boundedSample() throws IOException {
+        EndlessReader reader = new EndlessReader();
+        DialectSniffer sniffer = new DialectSniffer(4096, ",;", "\"");
+        DialectSniffer.Result result = sniffer.sniff(reader);
+        assertEquals(4096, reader.read);
+        assertEquals(';', result.dialect.getDelimiter());
+        assertEquals(1.0, result.confidence, 1e-9);
+    }
+
+    @Test public void resetsReader() throws IOException {
+        String text = table(';', records);
+        Reader reader = new BufferedReader(new StringReader(text));
+        DialectSniffer.Result result = sniffer.sniff(reader);
+        // Parse from the start with the sniffed dialect
+        Parser parser = new Parser(result.dialect, reader);
+        int count = 0;
+        for (Record record : parser) {
+            assertEquals(4, record.size());
+            if (count == 0) {
+                assertEquals("id", record.getString(0));
+            }
+            parser.free(record);
+            count++;
+        }
+        assertEquals(records.length, count);
+    }
+}
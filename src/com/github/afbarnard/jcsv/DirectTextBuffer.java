@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link TextBuffer} that keeps its characters off the heap in a
+ * direct {@link ByteBuffer}, so that many long-lived lexers do not
+ * fill the heap (and the old generation) with their buffers.  Like
+ * {@link StreamBuffer} it is a dynamic circular buffer with the same
+ * growth, shrink policy, and maximum capacity.  Its capacity is always
+ * a power of two.
+ *
+ * <p>Call {@link #release()} when done.  Java has no public way to
+ * free direct memory immediately, so releasing drops the storage for
+ * the collector to reclaim (which it does without copying it) and
+ * makes any later use fail rather than read stale characters.</p>
+ */
+public class DirectTextBuffer implements TextBuffer {
+
+    /** Storage, or null once released. */
+    private CharBuffer buffer;
+
+    /** Capacity of the storage. */
+    private int length;
+
+    private int mask;
+
+    /** The storage index that corresponds to the lower position. */
+    private int lowerIndex = 0;
+
+    /** Contents are the positions in [lower,upper). */
+    private long lower = 0;
+    private long upper = 0;
+
+    /**
+     * Largest capacity whose storage (two bytes per character) a direct
+     * buffer can have.
+     */
+    static final int MAX_DIRECT_CAPACITY = Integer.MAX_VALUE / 2;
+
+    private int maximumCapacity = MAX_DIRECT_CAPACITY;
+    private int targetCapacity = 0;
+    private int shrinkFactor = 0;
+
+    /** See {@link StreamBuffer}. */
+    private int shrinkSize = -1;
+
+    /**
+     * Makes a buffer with the given initial capacity rounded up to a
+     * power of two.
+     */
+    public DirectTextBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException(
+                "Non-positive capacity: " + initialCapacity);
+        }
+        if (initialCapacity > Integer.highestOneBit(MAX_DIRECT_CAPACITY)) {
+            throw new IllegalArgumentException(String.format(
+                "Capacity %d is more than the maximum %d", initialCapacity,
+                Integer.highestOneBit(MAX_DIRECT_CAPACITY)));
+        }
+        if (Integer.bitCount(initialCapacity) != 1) {
+            initialCapacity = Integer.highestOneBit(initialCapacity) << 1;
+        }
+        buffer = allocate(initialCapacity);
+        setLength(initialCapacity);
+    }
+
+    public DirectTextBuffer() {
+        this(1024);
+    }
+
+    /**
+     * Drops the storage.  Using the buffer afterward throws {@link
+     * IllegalStateException}.  Releasing again has no effect.
+     */
+    public void release() {
+        buffer = null;
+        lower = upper;
+    }
+
+    public boolean isReleased() {
+        return buffer == null;
+    }
+
+    public int capacity() {
+        return length;
+    }
+
+    public int size() {
+        return (int)(upper - lower);
+    }
+
+    public long lower() {
+        return lower;
+    }
+
+    public long upper() {
+        return upper;
+    }
+
+    public int maximumCapacity() {
+        return maximumCapacity;
+    }
+
+    /**
+     * See {@link StreamBuffer#setMaximumCapacity(int)}.  Maximums past
+     * what a direct buffer can hold ({@link Integer#MAX_VALUE} / 2)
+     * are reduced to that.
+     */
+    public void setMaximumCapacity(int maximumCapacity) {
+        if (maximumCapacity < length) {
+            throw new IllegalArgumentException(String.format(
+                "Maximum capacity %d is less than the capacity %d",
+                maximumCapacity, length));
+        }
+        this.maximumCapacity = Math.min(maximumCapacity, MAX_DIRECT_CAPACITY);
+    }
+
+    public void setShrinkPolicy(int targetCapacity, int shrinkFactor) {
+        if (targetCapacity < 0 || shrinkFactor < 2) {
+            throw new IllegalArgumentException(String.format(
+                "Bad target capacity or shrink factor: %d, %d",
+                targetCapacity, shrinkFactor));
+        }
+        this.targetCapacity = targetCapacity;
+        this.shrinkFactor = shrinkFactor;
+        setShrinkSize();
+    }
+
+    public void put(char character) {
+        checkLive();
+        if ((int)(upper - lower) >= length) {
+            growBuffer(length + 1);
+        }
+        buffer.put(bufferIndex(upper), character);
+        upper++;
+    }
+
+    public void put(char[] characters, int offset, int count) {
+        checkLive();
+        checkArrayRange(characters.length, offset, count);
+        int size = (int)(upper - lower);
+        if (count > length - size) {
+            growBuffer(size + count);
+        }
+        // Add the characters in at most two chunks
+        int index = bufferIndex(upper);
+        int chunkSize = Math.min(count, length - index);
+        buffer.position(index);
+        buffer.put(characters, offset, chunkSize);
+        if (chunkSize < count) {
+            buffer.position(0);
+            buffer.put(characters, offset + chunkSize, count - chunkSize);
+        }
+        upper += count;
+    }
+
+    public char getAt(long position) {
+        checkLive();
+        checkRange(position, 1);
+        return buffer.get(bufferIndex(position));
+    }
+
+    public void copyTo(long position, char[] characters, int offset,
+                       int count) {
+        checkLive();
+        checkRange(position, count);
+        checkArrayRange(characters.length, offset, count);
+        int index = bufferIndex(position);
+        int chunkSize = Math.min(count, length - index);
+        buffer.position(index);
+        buffer.get(characters, offset, chunkSize);
+        if (chunkSize < count) {
+            buffer.position(0);
+            buffer.get(characters, offset + chunkSize, count - chunkSize);
+        }
+    }
+
+    public void free(long position) {
+        checkLive();
+        if (position >= lower) {
+            checkRange(position, 1);
+            int amount = (int)(position - lower) + 1;
+            lowerIndex = (lowerIndex + amount) & mask;
+            lower = position + 1;
+            if ((int)(upper - lower) <= shrinkSize) {
+                shrinkBuffer();
+            }
+        }
+    }
+
+    /** Returns null: the characters are not in an array. */
+    public char[] array() {
+        return null;
+    }
+
+    /** Returns -1: the characters are not in an array. */
+    public int arrayIndex(long position, int count) {
+        checkRange(position, count);
+        return -1;
+    }
+
+    ////////////////////////////////////////
+    // Internal
+
+    private static CharBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 2)
+            .order(ByteOrder.nativeOrder()).asCharBuffer();
+    }
+
+    private void checkLive() {
+        if (buffer == null) {
+            throw new IllegalStateException("Buffer released");
+        }
+    }
+
+    private void checkRange(long position, int count) {
+        if (count < 0 || position < lower || position + count > upper) {
+            throw new NoSuchElementException(
+                String.format("Range [%d,%d) is not in [%d,%d)",
+                              position, position + count, lower, upper));
+        }
+    }
+
+    private static void checkArrayRange(int arrayLength, int offset,
+                                        int count) {
+        if (offset < 0 || count < 0 || count > arrayLength - offset) {
+            throw new IndexOutOfBoundsException(
+                String.format("Range [%d,%d) is not in [0,%d)",
+                              offset, offset + count, arrayLength));
+        }
+    }
+
+    private int bufferIndex(long position) {
+        return (lowerIndex + (int)(position - lower)) & mask;
+    }
+
+    private void setLength(int length) {
+        this.length = length;
+        mask = length - 1;
+        setShrinkSize();
+    }
+
+    private void setShrinkSize() {
+        if (targetCapacity > 0 && length > targetCapacity) {
+            shrinkSize = length / shrinkFactor;
+        } else {
+            shrinkSize = -1;
+        }
+    }
+
+    private void growBuffer(int minimumCapacity) {
+        // Fail fast rather than run out of memory.  Only powers of two
+        // are allowed, so the maximum is effectively rounded down.
+        long capacity = length * 2L;
+        while (capacity < minimumCapacity) {
+            capacity *= 2;
+        }
+        if (minimumCapacity < 0 || capacity > maximumCapacity) {
+            throw new IllegalStateException(String.format(
+                "Buffer needs capacity %d but the maximum is %d",
+                (minimumCapacity < 0
+                 ? (long) Integer.MAX_VALUE + 1 : capacity),
+                maximumCapacity));
+        }
+        resizeBuffer((int) capacity);
+    }
+
+    private void shrinkBuffer() {
+        // Leave room for the contents to double
+        int target = Integer.highestOneBit(targetCapacity);
+        long capacity = (target < targetCapacity ? target * 2L : target);
+        int size = (int)(upper - lower);
+        while (capacity < 2L * size) {
+            capacity *= 2;
+        }
+        if (capacity < length) {
+            resizeBuffer((int) capacity);
+        } else {
+            shrinkSize = -1;
+        }
+    }
+
+    private void resizeBuffer(int capacity) {
+        // Copy the contents to the start of the new storage in at most
+        // two chunks
+        CharBuffer newBuffer = allocate(capacity);
+        int size = (int)(upper - lower);
+        int chunkSize = Math.min(size, length - lowerIndex);
+        CharBuffer chunk = buffer.duplicate();
+        chunk.limit(lowerIndex + chunkSize).position(lowerIndex);
+        newBuffer.put(chunk);
+        if (chunkSize < size) {
+            chunk.limit(size - chunkSize).position(0);
+            newBuffer.put(chunk);
+        }
+        buffer = newBuffer;
+        lowerIndex = 0;
+        setLength(capacity);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectTextBufferTest {
+
+    static final char[] sequence = StreamBufferCharTest.sequence;
+
+    DirectTextBuffer buffer;
+
+    private void checkSizeCapacity(int size, int capacity) {
+        assertEquals(size, buffer.size());
+        assertEquals(capacity, buffer.capacity());
+    }
+
+    private void checkContents() {
+        for (long position = buffer.lower(); position < buffer.upper();
+             position++) {
+            assertEquals(sequence[(int) position], buffer.getAt(position));
+        }
+    }
+
+    @Before public void setUp() {
+        buffer = new DirectTextBuffer(10);
+    }
+
+    @Test public void newSizeCapacity() {
+        // Rounded up to a power of two
+        checkSizeCapacity(0, 16);
+        assertNull(buffer.array());
+    }
+
+    @Test public void putFreeGrow() {
+        // Keep a few characters while putting many so the contents wrap
+        // and then grow while wrapped
+        for (int index = 0; index < sequence.length; index++) {
+            buffer.put(sequence[index]);
+            if (index % 3 == 2) {
+                buffer.free(index - 1 - index / 4);
+            }
+            assertEquals(sequence[index], buffer.getAt(index));
+        }
+        checkContents();
+        assertEquals(sequence.length, buffer.upper());
+    }
+
+    @Test public void putCopyTo_range() {
+        buffer = new DirectTextBuffer(8);
+        int position = 0;
+        int[] chunks = {3, 2, 4, 1, 4, 3, 4, 2, 4, 4, 60};
+        for (int chunk : chunks) {
+            buffer.put(sequence, position, chunk);
+            position += chunk;
+            if (position > 4) {
+                buffer.free(position - 5);
+            }
+            char[] copy = new char[buffer.size()];
+            buffer.copyTo(buffer.lower(), copy, 0, copy.length);
+            assertEquals(new String(sequence, (int) buffer.lower(),
+                                    copy.length),
+                         new String(copy));
+            // Never in an array
+            assertEquals(-1, buffer.arrayIndex(buffer.lower(), copy.length));
+        }
+        assertEquals(64, buffer.capacity());
+        checkContents();
+    }
+
+    @Test public void shrinkPolicy() {
+        buffer = new DirectTextBuffer(8);
+        buffer.setShrinkPolicy(8, 4);
+        buffer.put(sequence, 0, 70);
+        assertEquals(128, buffer.capacity());
+        buffer.free(36);
+        checkSizeCapacity(33, 128);
+        buffer.free(37);
+        checkSizeCapacity(32, 64);
+        checkContents();
+        buffer.free(69);
+        checkSizeCapacity(0, 8);
+        buffer.put(sequence, 70, 20);
+        checkContents();
+    }
+
+    @Test public void maximumCapacity() {
+        buffer.setMaximumCapacity(32);
+        buffer.put(sequence, 0, 32);
+        try {
+            buffer.put('x');
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("maximum is 32"));
+        }
+        checkSizeCapacity(32, 32);
+        checkContents();
+    }
+
+    @Test public void maximumCapacity_direct() {
+        // Storage is two bytes per character, which must fit in an int,
+        // so growth past that fails fast like any other maximum
+        assertEquals(Integer.MAX_VALUE / 2, buffer.maximumCapacity());
+        buffer.setMaximumCapacity(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE / 2, buffer.maximumCapacity());
+        try {
+            new DirectTextBuffer((1 << 29) + 1);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test public void release() {
+        buffer.put(sequence, 0, 5);
+        buffer.release();
+        assertTrue(buffer.isReleased());
+        try {
+            buffer.getAt(0);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            buffer.put('x');
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        // Releasing again is harmless
+        buffer.release();
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getAt_freed() {
+        buffer.put(sequence, 0, 5);
+        buffer.free(2);
+        buffer.getAt(2);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void put_badRange() {
+        buffer.put(sequence, sequence.length - 2, 3);
+    }
+
+    @Test public void lexer_sameAsHeap() {
+        String text = TestText.poem128 + TestText.multilineField
+            + TestText.magicSquare3x3;
+        Lexer expected = new Lexer(Dialect.LOOSE,
+                                   new java.io.StringReader(text), 8, 4);
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new java.io.StringReader(text),
+                                new DirectTextBuffer(8), 4, 16);
+        Token expectedToken;
+        while ((expectedToken = expected.readToken()) != null) {
+            Token token = lexer.readToken();
+            assertEquals(expectedToken.type, token.type);
+            assertEquals(expectedToken.position, token.position);
+            assertEquals(expected.getString(expectedToken),
+                         lexer.getString(token));
+            assertEquals(expected.getString(expectedToken),
+                         lexer.getCharBuffer(token).toString());
+            expected.free(expectedToken);
+            lexer.free(token);
+        }
+        assertNull(lexer.readToken());
+        lexer.release();
+    }
+}
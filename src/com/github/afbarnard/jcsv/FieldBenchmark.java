@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.StringReader;
+
+/**
+ * Measures the throughput and allocation of accessing field values as
+ * strings versus as views.  Each field is compared to a constant as an
+ * example of typical use.
+ */
+public class FieldBenchmark {
+
+    public static Benchmark strings(final String text) {
+        return new Benchmark("Fields via getString") {
+            public long run() throws Exception {
+                Parser parser =
+                    new Parser(Dialect.LOOSE, new StringReader(text));
+                long fields = 0;
+                long matches = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    for (int field = 0; field < record.size(); field++) {
+                        if (record.getString(field).equals("two")) {
+                            matches++;
+                        }
+                    }
+                    fields += record.size();
+                    parser.free(record);
+                }
+                sink += matches;
+                return fields;
+            }
+        };
+    }
+
+    public static Benchmark views(final String text) {
+        return new Benchmark("Fields via getView") {
+            public long run() throws Exception {
+                Parser parser =
+                    new Parser(Dialect.LOOSE, new StringReader(text));
+                CharView view = new CharView();
+                long fields = 0;
+                long matches = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    for (int field = 0; field < record.size(); field++) {
+                        if (record.getView(field, view).contentEquals("two")) {
+                            matches++;
+                        }
+                    }
+                    fields += record.size();
+                    parser.free(record);
+                }
+                sink += matches;
+                return fields;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        String text = LexerBenchmark.makeCorpus(2000000);
+        strings(text).measure();
+        views(text).measure();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A test of the value of a field for filtering records while lexing
+ * (see {@link Parser#addFilter(int, FieldPredicate)}).  The value is
+ * given as a {@link CharView} of the lexer's buffer (or of the decoded
+ * value if the field has escapes), so testing should not allocate.
+ */
+public abstract class FieldPredicate {
+
+    /** Returns whether the given value passes. */
+    public abstract boolean test(CharSequence value);
+
+    /** Passes values equal to the given one. */
+    public static FieldPredicate equalTo(final String expected) {
+        return new FieldPredicate() {
+            public boolean test(CharSequence value) {
+                int length = expected.length();
+                if (value.length() != length) {
+                    return false;
+                }
+                for (int index = 0; index < length; index++) {
+                    if (value.charAt(index) != expected.charAt(index)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public String toString() {
+                return "equal to '" + expected + "'";
+            }
+        };
+    }
+
+    /** Passes values that start with the given prefix. */
+    public static FieldPredicate startsWith(final String prefix) {
+        return new FieldPredicate() {
+            public boolean test(CharSequence value) {
+                int length = prefix.length();
+                if (value.length() < length) {
+                    return false;
+                }
+                for (int index = 0; index < length; index++) {
+                    if (value.charAt(index) != prefix.charAt(index)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public String toString() {
+                return "starting with '" + prefix + "'";
+            }
+        };
+    }
+
+    /**
+     * Passes numbers in [minimum,maximum].  Values that are not numbers
+     * do not pass.
+     */
+    public static FieldPredicate between(final double minimum,
+                                         final double maximum) {
+        return new FieldPredicate() {
+            public boolean test(CharSequence value) {
+                double number;
+                try {
+                    number = Numbers.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return number >= minimum && number <= maximum;
+            }
+
+            public String toString() {
+                return String.format("between %s and %s", minimum, maximum);
+            }
+        };
+    }
+
+    /** Passes values that pass both the given predicates. */
+    public static FieldPredicate and(final FieldPredicate first,
+                                     final FieldPredicate second) {
+        return new FieldPredicate() {
+            public boolean test(CharSequence value) {
+                return first.test(value) && second.test(value);
+            }
+
+            public String toString() {
+                return first + " and " + second;
+            }
+        };
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class FieldPredicateTest {
+
+    @Test public void equalTo() {
+        FieldPredicate predicate = FieldPredicate.equalTo("abc");
+        assertTrue(predicate.test("abc"));
+        assertTrue(predicate.test(new StringBuilder("abc")));
+        assertFalse(predicate.test("ab"));
+        assertFalse(predicate.test("abcd"));
+        assertFalse(predicate.test("abd"));
+        assertFalse(predicate.test(""));
+        assertTrue(FieldPredicate.equalTo("").test(""));
+    }
+
+    @Test public void startsWith() {
+        FieldPredicate predicate = FieldPredicate.startsWith("ab");
+        assertTrue(predicate.test("ab"));
+        assertTrue(predicate.test("abc"));
+        assertFalse(predicate.test("a"));
+        assertFalse(predicate.test("ba"));
+        assertFalse(predicate.test(""));
+    }
+
+    @Test public void between() {
+        FieldPredicate predicate = FieldPredicate.between(-1.5, 10);
+        assertTrue(predicate.test("-1.5"));
+        assertTrue(predicate.test("0"));
+        assertTrue(predicate.test("10"));
+        assertTrue(predicate.test("1e1"));
+        assertFalse(predicate.test("-2"));
+        assertFalse(predicate.test("10.01"));
+        // Values that are not numbers do not pass
+        for (String text : new String[] {"", "-", "a", "1a", "--1"}) {
+            assertFalse(text, predicate.test(text));
+        }
+    }
+
+    @Test public void and() {
+        FieldPredicate predicate = FieldPredicate.and(
+            FieldPredicate.startsWith("1"), FieldPredicate.between(0, 15));
+        assertTrue(predicate.test("1"));
+        assertTrue(predicate.test("12"));
+        assertFalse(predicate.test("2"));
+        assertFalse(predicate.test("16"));
+    }
+}
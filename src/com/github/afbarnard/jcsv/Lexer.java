@@ -9,27 +9,104 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 // TODO should "position" start at 1 or 0? If zero, rename to "offset"?
 
-public class Lexer implements Iterator<Token>, Iterable<Token> {
+public class Lexer implements TokenSource, Iterator<Token>, Iterable<Token> {
 
     private Dialect dialect;
+
+    /** The dialect's table of character types. */
+    private byte[] classes;
+
+    // Type ordinals for comparing with the table
+    private static final byte CONTENT = (byte) Token.Type.CONTENT.ordinal();
+    private static final byte SPACE = (byte) Token.Type.SPACE.ordinal();
+    private static final byte NEWLINE = (byte) Token.Type.NEWLINE.ordinal();
+    private static final byte QUOTE = (byte) Token.Type.QUOTE.ordinal();
+    private static final byte ESCAPE = (byte) Token.Type.ESCAPE.ordinal();
+    private static final byte DELIMITER =
+        (byte) Token.Type.DELIMITER.ordinal();
+
+    /**
+     * Whether lexers that are not given a buffer keep their input off
+     * the heap, in a {@link DirectTextBuffer}.  Turn on with the system
+     * property {@code jcsv.offHeapBuffers}.
+     */
+    static final boolean OFF_HEAP_BUFFERS =
+        Boolean.getBoolean("jcsv.offHeapBuffers");
+
     private Reader reader;
-    private StreamBufferChar buffer;
-    private Deque<Token> tokenPool;
+    private TextBuffer buffer;
+    private Pool<Token> tokenPool;
     private ArrayQueue<Token> tokenQueue;
 
-    public Lexer(Dialect dialect, Reader reader, int bufferSize, int queueSize) {
+    /**
+     * Extra tokens one character can make when projecting or filtering
+     * (see {@link #readTokens()}).
+     */
+    private static final int RESERVE = 2;
+
+    /** Failure reading the input, if any. */
+    private IOException failure = null;
+
+    /** Batch being filled by {@link #readBatch}, if any. */
+    private TokenBatch batch = null;
+
+    /**
+     * Where lines start, if lines and columns are found on demand
+     * rather than set in every token.
+     */
+    private LineIndex lineIndex = null;
+
+    // Whether the escape character escapes and whether doubled quotes
+    // escape, for following fields when projecting
+    private final boolean escapes;
+    private final boolean doubledQuotes;
+
+    /** View for decoding numbers. */
+    private CharView numberView = new CharView();
+
+    /**
+     * Block of input characters read from the reader with a single
+     * call.  Characters are lexed from here to avoid the overhead of
+     * reading them one at a time.
+     */
+    private char[] block;
+    private int blockIndex = 0;
+    private int blockLength = 0;
+
+    /**
+     * Lexes the given reader keeping the input that has not been freed
+     * in the given buffer, which must be empty.
+     */
+    public Lexer(Dialect dialect, Reader reader, TextBuffer buffer,
+                 int queueSize, int blockSize) {
         this.dialect = dialect;
+        classes = dialect.classes;
+        escapes = dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.DOUBLED;
+        doubledQuotes = dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.ESCAPED;
         this.reader = reader;
-        buffer = new StreamBufferChar(bufferSize);
-        tokenPool = new ArrayDeque<Token>(100);
-        tokenQueue = new ArrayQueue<Token>(queueSize);
+        this.buffer = buffer;
+        tokenPool = new Pool<Token>(Math.max(100, 2 * queueSize));
+        tokenQueue = new ArrayQueue<Token>(queueSize, true);
+        block = new char[blockSize];
+    }
+
+    public Lexer(Dialect dialect, Reader reader, int bufferSize,
+                 int queueSize, int blockSize) {
+        this(dialect, reader, (OFF_HEAP_BUFFERS
+                               ? new DirectTextBuffer(bufferSize)
+                               : new StreamBufferChar(bufferSize, true)),
+             queueSize, blockSize);
+    }
+
+    public Lexer(Dialect dialect, Reader reader, int bufferSize, int queueSize) {
+        this(dialect, reader, bufferSize, queueSize, 4096);
     }
 
     public Lexer(Dialect dialect, Reader reader) {
@@ -41,7 +118,7 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
         try {
             readTokens();
         } catch (IOException e) {
-            // FIXME
+            throw readFailed(e);
         }
         return this;
     }
@@ -53,7 +130,8 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
      */
     public boolean hasNext() {
         // Queue could be empty with more input, so also check for EOF
-        return tokenQueue.size() > 0 || charCode != -1;
+        return (tokenQueue.size() > 0 || charCode != -1
+                || tokenType != Token.Type.NONE || lineHasField);
     }
 
     /**
@@ -71,7 +149,7 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
             try {
                 readTokens();
             } catch (IOException e) {
-                // FIXME
+                throw readFailed(e);
             }
         }
         return tokenQueue.get();
@@ -81,6 +159,21 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Reports a failure to read input, which would otherwise look like
+     * the end of the input, as a parse error where lexing stopped.
+     */
+    private ParseException readFailed(IOException cause) {
+        long failedLine = line;
+        int failedColumn = (int)(tokenPosition - lineStartPosition + 1);
+        if (lineIndex != null) {
+            failedLine = lineIndex.lineAt(tokenPosition);
+            failedColumn = lineIndex.columnAt(tokenPosition);
+        }
+        return new ParseException("Failed to read input", failedLine,
+                                  failedColumn, cause);
+    }
+
     /*
      * The Lexing Algorithm
      * --------------------
@@ -156,15 +249,119 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
     private Token.Type tokenType = Token.Type.NONE;
     private Token.Type charType;
 
+    /*
+     * Projection
+     * ----------
+     *
+     * To lex only some columns, the lexer follows the fields of each
+     * line character by character with the same states as the parser
+     * (which it cannot consult because it runs ahead).  The characters
+     * of other columns are put in the buffer, so positions do not
+     * change, but they are not made into tokens.  The delimiter before
+     * a projected field is kept, but not the delimiter after it, so
+     * that the parser sees the start of every projected field.  The
+     * first field of a line has no delimiter before it, so a
+     * zero-length delimiter is made instead.  Newlines that end lines
+     * are always kept.  Comments are kept only as their comment
+     * character.
+     *
+     * Filters are checked on the text of their fields in the buffer as
+     * soon as the fields end.  When a line fails, a zero-length reject
+     * token is made and the rest of the line (including its newline)
+     * is not made into tokens, so the parser drops what it has of the
+     * record and starts over with the next line.  Lines that end before
+     * a filtered column fail.
+     *
+     * Following the fields is only necessary when projecting or
+     * filtering, so it is turned on by the first call that needs it,
+     * before lexing starts.
+     */
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int UNQUOTED_ESCAPE = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTED_ESCAPE = 4;
+    private static final int AFTER_QUOTE = 5;
+    private static final int AFTER_CLOSE = 6;
+    private static final int COMMENT = 7;
+
+    /** Whether fields are followed. */
+    private boolean tracking = false;
+
+    /** Columns to lex, or null for all of them. */
+    private boolean[] projection = null;
+
+    /** Filters by column (null where none), or null if none. */
+    private FieldPredicate[] filters = null;
+    private int lastFilteredColumn = -1;
+
+    /** View of the value of a filtered field. */
+    private CharView filterView = new CharView();
+
+    private int fieldState = FIELD_START;
+    private int fieldIndex = 0;
+    private boolean fieldKept = true;
+
+    // Where the content of the field starts, where it ends if quoted
+    // (at the closing quote), and whether it has escapes
+    private long fieldContentStart;
+    private long fieldContentEnd;
+    private boolean fieldEscaped;
+
+    // Whether the line failed a filter, whether to make a reject
+    // token, and whether the line ended with a '\r' (that may be
+    // followed by '\n')
+    private boolean rejected = false;
+    private boolean markReject = false;
+    private boolean rejectedReturn = false;
+
+    /** Whether a field has started on this line (it is not blank). */
+    private boolean lineHasField = false;
+
+    /** Whether to make a zero-length delimiter for the first field. */
+    private boolean markField = false;
+
+    /** Whether an escape just took a '\r' (that may be followed by '\n'). */
+    private boolean escapedReturn = false;
+
+    // Where the line after the last newline that was not made into a
+    // token starts, and whether that newline was '\r'
+    private long untokenedLineStart = -1;
+    private boolean untokenedReturn = false;
+
+    // Whether to stop lexing after the next line with fields, whether
+    // that line has ended, and whether lexing has stopped
+    private boolean pauseAfterLine = false;
+    private boolean lineEnded = false;
+    private boolean paused = false;
+
     /**
      * Fills the token queue with tokens.  Quits when the queue is full
      * or at EOF.  Call again to read more tokens.  Do not call this
      * method unless you need {@link #next()} to be a guaranteed O(1)
-     * operation.
+     * operation.  Once reading the input fails, every later call
+     * throws the same exception rather than lexing from where the
+     * failure left off.
      */
     public void readTokens() throws IOException {
-        // Quit if at EOF or if there is no space in the token queue
-        if (charCode == -1 || tokenQueue.freeSize() <= 0) {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            lexTokens();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void lexTokens() throws IOException {
+        // Quit if at EOF (with no token left to process) or if there
+        // is no space in the token queue
+        if ((charCode == -1 && tokenType == Token.Type.NONE
+             && !lineHasField)
+            || freeSize() <= 0) {
             return;
         }
         // OK, there are characters to be read and space to record the
@@ -177,108 +374,328 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
         // Taking this approach allows a single conditional, here,
         // outside the loop.
         if (charCode == -2) {
-            charCode = reader.read();
+            charCode = readBlock();
         }
 
         // Loop to process characters into tokens until the queue is
-        // full or EOF
-        while (charCode >= 0 && tokenQueue.freeSize() > 0) {
+        // full or EOF.  When projecting or filtering, one character can
+        // make three tokens (the one it ends, a zero-length delimiter,
+        // and a reject), so leave room for all of them.
+        paused = false;
+        int reserve = reserve();
+        while (charCode >= 0 && freeSize() > reserve) {
+            // Stop at the start of the line after the one asked for,
+            // but not between the characters of a '\r\n' newline
+            if (lineEnded && (thisChar != '\r' || charCode != '\n')) {
+                lineEnded = false;
+                pauseAfterLine = false;
+                paused = true;
+                // Process the newline, which ends with the last
+                // character rather than before this one
+                charPosition++;
+                endToken();
+                charPosition--;
+                break;
+            }
+
             // Convert the code and put the character in the buffer
             thisChar = (char) charCode;
             buffer.put(thisChar);
             charPosition++;
 
-            // Determine the type of character.  The cases are ordered
-            // (as much as possible) with the (expected) most frequent
-            // first.
-            switch (thisChar) {
-            case ' ':
-            case '\t':
-            case '\u000b':  // Vertical tab
-            case '\f':
-            case '\u00a0':  // Non-breaking space
-                charType = Token.Type.SPACE;
-                break;
-            case '\n':
-            case '\r':
-                charType = Token.Type.NEWLINE;
-                break;
-            default:
-                if (thisChar == dialect.delimiter)
-                    charType = Token.Type.DELIMITER;
-                else if (thisChar == dialect.quote)
-                    charType = Token.Type.QUOTE;
-                else if (thisChar == dialect.escape)
-                    charType = Token.Type.ESCAPE;
-                else if (thisChar == dialect.comment)
-                    charType = Token.Type.COMMENT;
-                else
-                    charType = Token.Type.CONTENT;
+            // Determine the type of character.  Latin-1 characters
+            // take one lookup in the dialect's table.
+            if (thisChar < 256) {
+                charType = Dialect.TYPES[classes[thisChar]];
+            } else {
+                charType = dialect.classify(thisChar);
             }
 
-            // Determine if a token has been formed
-            switch (tokenType) {
-            case DELIMITER:
-            case QUOTE:
-            case ESCAPE:
-            case COMMENT:
-                // Single-character tokens
-                processToken();
-                break;
-            case NEWLINE:
-                // Single- or double-character token
-                if (tokenType != charType || tokenChar != '\r' || thisChar != '\n') {
-                    processToken();
+            if (tracking && !project(charType)) {
+                // The character is in a column that is not projected.
+                // End the token being formed (if any) and pass over
+                // the rest of the block that cannot be in a token.
+                endToken();
+                if (markField) {
+                    queueMarker();
                 }
-                break;
-            case NONE:
-                // First token
-                tokenChar = thisChar;
-                tokenType = charType;
-                break;
-            default:
-                // Arbitrary-length tokens (space or content)
-                if (tokenType != charType) {
-                    processToken();
+                if (markReject) {
+                    queueReject();
+                }
+                if (charType == Token.Type.NEWLINE) {
+                    untokenedNewline();
+                }
+                skip(untokenedEnd(blockIndex, blockLength));
+            } else {
+                if (markField) {
+                    // The first field of the line starts here, so end
+                    // the previous token and mark the field
+                    if (tokenType != Token.Type.NONE) {
+                        processToken();
+                    } else {
+                        startToken();
+                    }
+                    queueMarker();
+                } else {
+                    // Determine if a token has been formed
+                    switch (tokenType) {
+                    case DELIMITER:
+                    case QUOTE:
+                    case ESCAPE:
+                    case COMMENT:
+                        // Single-character tokens
+                        processToken();
+                        break;
+                    case NEWLINE:
+                        // Single- or double-character token.  Only
+                        // "\r\n" is one newline: "\r\n\n" is two.
+                        if (tokenType != charType || tokenChar != '\r'
+                            || thisChar != '\n'
+                            || charPosition - tokenPosition != 1) {
+                            processToken();
+                        }
+                        break;
+                    case NONE:
+                        // First token (of the input or after characters
+                        // that are not in tokens)
+                        startToken();
+                        break;
+                    default:
+                        // Arbitrary-length tokens (space or content)
+                        if (tokenType != charType) {
+                            processToken();
+                        }
+                    }
+                }
+
+                // Take the rest of a run of content or space in the
+                // block in one step rather than character by character
+                if (tokenType == Token.Type.CONTENT) {
+                    skip(contentEnd(blockIndex, blockLength));
+                } else if (tokenType == Token.Type.SPACE) {
+                    skip(spaceEnd(blockIndex, blockLength));
                 }
             }
 
-            // Get the next character
-            charCode = reader.read();
+            // Get the next character.  Only go to the reader when the
+            // current block has been used up.
+            if (blockIndex < blockLength) {
+                charCode = block[blockIndex++];
+            } else {
+                charCode = readBlock();
+            }
         }
         // Either the token queue is full or EOF
 
         // If EOF, process the last token.  An unprocessed token exists
-        // if the input was not empty.
-        if (charCode == -1 && charPosition > -1) {
+        // if the input was not empty.  The queue may have filled up
+        // just as EOF was reached, in which case the last token is
+        // processed in a later call.
+        // When following fields, the last line also ends here.
+        if (charCode == -1 && (tokenType != Token.Type.NONE || lineHasField)
+            && freeSize() > reserve) {
             charPosition++;
+            endToken();
+            if (lineHasField) {
+                endInputLine();
+            }
+        }
+    }
+
+    /** Starts a token with the current character. */
+    private void startToken() {
+        tokenChar = thisChar;
+        tokenType = charType;
+        tokenPosition = charPosition;
+    }
+
+    /**
+     * Processes the token being formed, if any, without starting
+     * another with the current character.
+     */
+    private void endToken() {
+        if (tokenType != Token.Type.NONE) {
             processToken();
+            tokenType = Token.Type.NONE;
+        }
+    }
+
+    /**
+     * Adds the characters of the block up to the given index to the
+     * current token (or to the buffer only, if not making tokens).
+     */
+    private void skip(int end) {
+        int count = end - blockIndex;
+        if (count > 0) {
+            buffer.put(block, blockIndex, count);
+            charPosition += count;
+            blockIndex = end;
+        }
+    }
+
+    /**
+     * Returns the index of the first character in the given range of
+     * the block that is not content, or the end of the range.  Stops
+     * at all characters above Latin-1, which is harmless because the
+     * main loop classifies the character it stops at.
+     */
+    private int contentEnd(int index, int end) {
+        byte[] classes = this.classes;
+        while (index < end) {
+            char value = block[index];
+            if (value >= 256 || classes[value] != CONTENT) {
+                break;
+            }
+            index++;
         }
+        return index;
+    }
+
+    /**
+     * Returns the index of the first character in the given range of
+     * the block that is not space, or the end of the range.
+     */
+    private int spaceEnd(int index, int end) {
+        byte[] classes = this.classes;
+        while (index < end) {
+            char value = block[index];
+            if (value >= 256 || classes[value] != SPACE) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Follows the fields of the line through the given range of the
+     * block for as long as they are not projected and returns the index
+     * of the first character that may need to go in a token, or the end
+     * of the range.  Stops at all characters above Latin-1 and at those
+     * that need more than the simplest states (which the main loop
+     * handles).
+     */
+    private int untokenedEnd(int index, int end) {
+        // The field may be kept if a rejected line just ended
+        if (fieldKept || escapedReturn || rejectedReturn) {
+            return index;
+        }
+        byte[] classes = this.classes;
+        boolean trimSpace = dialect.trimSpace;
+        int state = fieldState;
+        scan:
+        while (index < end) {
+            char value = block[index];
+            if (value >= 256) {
+                break;
+            }
+            byte type = classes[value];
+            switch (state) {
+            case FIELD_START:
+                if (!rejected && hasFilter(fieldIndex)) {
+                    // The field's value has to be found
+                    break scan;
+                }
+                if (type == CONTENT || (type == SPACE && !trimSpace)) {
+                    state = UNQUOTED;
+                    lineHasField = true;
+                } else if (type == QUOTE) {
+                    state = QUOTED;
+                    lineHasField = true;
+                } else if (type == DELIMITER) {
+                    if (!rejected && isFollowed(fieldIndex + 1)) {
+                        break scan;
+                    }
+                    fieldIndex++;
+                    lineHasField = true;
+                } else if (type != SPACE) {
+                    break scan;
+                }
+                break;
+            case UNQUOTED:
+            case AFTER_CLOSE:
+                if (type == DELIMITER) {
+                    if (!rejected && (hasFilter(fieldIndex)
+                                      || isFollowed(fieldIndex + 1))) {
+                        break scan;
+                    }
+                    fieldIndex++;
+                    state = FIELD_START;
+                } else if (type != CONTENT && type != SPACE
+                           && type != QUOTE) {
+                    break scan;
+                }
+                break;
+            case QUOTED:
+                // Newlines stop too, to be counted
+                if (type == QUOTE || type == ESCAPE || type == NEWLINE) {
+                    break scan;
+                }
+                break;
+            case COMMENT:
+                if (type == NEWLINE) {
+                    break scan;
+                }
+                break;
+            default:
+                break scan;
+            }
+            index++;
+        }
+        fieldState = state;
+        return index;
+    }
+
+    /**
+     * Reads the next block of characters and returns the first one, or
+     * -1 if at EOF.
+     */
+    private int readBlock() throws IOException {
+        blockIndex = 0;
+        blockLength = 0;
+        int count;
+        // A reader only returns zero characters if asked for zero, but
+        // be defensive
+        do {
+            count = reader.read(block, 0, block.length);
+        } while (count == 0);
+        if (count < 0) {
+            return -1;
+        }
+        blockLength = count;
+        return block[blockIndex++];
     }
 
     /**
      * Adds a completed token to the queue and updates necessary state.
      */
     private void processToken() {
-        // Get a token to use
-        Token token;
-        if (tokenPool.isEmpty()) {
-            token = new Token();
+        int length = (int)(charPosition - tokenPosition);
+        if (lineIndex != null) {
+            // Only note where lines start.  Lines and columns are found
+            // on demand.
+            if (tokenType == Token.Type.NEWLINE) {
+                lineIndex.add(charPosition);
+            }
+            if (batch != null) {
+                batch.add(tokenType, tokenPosition, length, 0, 0);
+            } else {
+                queueToken(tokenType, tokenPosition, length);
+            }
         } else {
-            token = tokenPool.pop();
-        }
-        // Populate the token
-        token.type = tokenType;
-        token.position = tokenPosition;
-        token.length = (int)(charPosition - tokenPosition);
-        token.line = line;
-        token.column = (int)(tokenPosition - lineStartPosition + 1);
-        // Add it to the queue
-        tokenQueue.put(token);
-        // Update input location
-        if (tokenType == Token.Type.NEWLINE) {
-            line++;
-            lineStartPosition = charPosition;
+            int column = (int)(tokenPosition - lineStartPosition + 1);
+            if (batch != null) {
+                batch.add(tokenType, tokenPosition, length, line, column);
+            } else {
+                Token token = queueToken(tokenType, tokenPosition, length);
+                token.line = line;
+                token.column = column;
+            }
+            // Update input location
+            if (tokenType == Token.Type.NEWLINE) {
+                line++;
+                lineStartPosition = charPosition;
+            }
         }
         // Update token state
         tokenChar = thisChar;
@@ -286,13 +703,459 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
         tokenPosition = charPosition;
     }
 
+    /**
+     * Adds a token of the given type, position, and length to the queue
+     * and returns it.
+     */
+    private Token queueToken(Token.Type type, long position, int length) {
+        // Get a token to use
+        Token token = tokenPool.take();
+        if (token == null) {
+            token = new Token();
+        }
+        token.type = type;
+        token.position = position;
+        token.length = length;
+        tokenQueue.put(token);
+        return token;
+    }
+
+    /**
+     * Adds a zero-length delimiter at the current character, where the
+     * first field of a line starts, when projecting.
+     */
+    private void queueMarker() {
+        markField = false;
+        queueMark(Token.Type.DELIMITER);
+    }
+
+    /** Adds a reject token at the current character. */
+    private void queueReject() {
+        markReject = false;
+        queueMark(Token.Type.REJECT);
+    }
+
+    /** Adds a zero-length token of the given type at the current character. */
+    private void queueMark(Token.Type type) {
+        long markLine = 0;
+        int markColumn = 0;
+        if (lineIndex == null) {
+            markLine = line;
+            markColumn = (int)(charPosition - lineStartPosition + 1);
+        }
+        if (batch != null) {
+            batch.add(type, charPosition, 0, markLine, markColumn);
+        } else {
+            Token token = queueToken(type, charPosition, 0);
+            token.line = markLine;
+            token.column = markColumn;
+        }
+    }
+
+    /**
+     * Accounts for a newline (in a quoted field or escaped) that is not
+     * in a token, so that lines and columns stay right.  A '\n' right
+     * after such a '\r' is part of the same newline.
+     */
+    private void untokenedNewline() {
+        long start = charPosition + 1;
+        boolean pair = (thisChar == '\n' && untokenedReturn
+                        && untokenedLineStart == charPosition);
+        if (lineIndex != null) {
+            if (pair) {
+                lineIndex.moveLast(start);
+            } else {
+                lineIndex.add(start);
+            }
+        } else {
+            if (!pair) {
+                line++;
+            }
+            lineStartPosition = start;
+        }
+        untokenedLineStart = start;
+        untokenedReturn = (thisChar == '\r');
+    }
+
+    /**
+     * Follows the fields of the line through the current character,
+     * which has the given type, and returns whether the character goes
+     * in a token: whether it is in a projected column (or is the
+     * delimiter before one) or ends the line.
+     */
+    private boolean project(Token.Type type) {
+        if (rejectedReturn) {
+            // A '\n' after the '\r' of a rejected line is skipped too
+            rejectedReturn = false;
+            if (thisChar == '\n') {
+                return false;
+            }
+        }
+        if (escapedReturn) {
+            // A '\n' after an escaped '\r' is escaped too
+            escapedReturn = false;
+            if (thisChar == '\n') {
+                return fieldKept;
+            }
+        }
+        switch (fieldState) {
+        case FIELD_START:
+            switch (type) {
+            case SPACE:
+                if (!dialect.trimSpace) {
+                    startField(UNQUOTED);
+                }
+                return fieldKept;
+            case QUOTE:
+                startField(QUOTED);
+                return fieldKept;
+            case DELIMITER:
+                // An empty field
+                startField(FIELD_START);
+                endField(charPosition);
+                return nextField();
+            case NEWLINE:
+                return endLine();
+            case COMMENT:
+                if (dialect.allowComments) {
+                    if (lineHasField) {
+                        // Ends an empty field
+                        endField(charPosition);
+                    }
+                    fieldState = COMMENT;
+                } else {
+                    startField(UNQUOTED);
+                }
+                return fieldKept;
+            case ESCAPE:
+                startField(escapes ? UNQUOTED_ESCAPE : UNQUOTED);
+                return fieldKept;
+            default:
+                startField(UNQUOTED);
+                return fieldKept;
+            }
+
+        case UNQUOTED:
+            switch (type) {
+            case DELIMITER:
+                endField(charPosition);
+                return nextField();
+            case NEWLINE:
+                return endLine();
+            case COMMENT:
+                if (dialect.allowComments) {
+                    endField(charPosition);
+                    fieldState = COMMENT;
+                }
+                return fieldKept;
+            case ESCAPE:
+                if (escapes) {
+                    fieldState = UNQUOTED_ESCAPE;
+                    fieldEscaped = true;
+                }
+                return fieldKept;
+            default:
+                return fieldKept;
+            }
+
+        case UNQUOTED_ESCAPE:
+            fieldState = UNQUOTED;
+            escapedReturn = (thisChar == '\r');
+            return fieldKept;
+
+        case QUOTED:
+            if (type == Token.Type.QUOTE) {
+                fieldState = AFTER_QUOTE;
+                fieldContentEnd = charPosition;
+            } else if (type == Token.Type.ESCAPE && escapes) {
+                fieldState = QUOTED_ESCAPE;
+                fieldEscaped = true;
+            }
+            return fieldKept;
+
+        case QUOTED_ESCAPE:
+            fieldState = QUOTED;
+            escapedReturn = (thisChar == '\r');
+            return fieldKept;
+
+        case AFTER_QUOTE:
+            if (type == Token.Type.QUOTE && doubledQuotes) {
+                fieldState = QUOTED;
+                fieldEscaped = true;
+                return fieldKept;
+            }
+            fieldState = AFTER_CLOSE;
+            return project(type);
+
+        case AFTER_CLOSE:
+            switch (type) {
+            case DELIMITER:
+                endField(charPosition);
+                return nextField();
+            case NEWLINE:
+                return endLine();
+            case COMMENT:
+                if (dialect.allowComments) {
+                    endField(charPosition);
+                    fieldState = COMMENT;
+                }
+                return fieldKept;
+            default:
+                return fieldKept;
+            }
+
+        default:
+            // In a comment, which only needs its comment character
+            if (type == Token.Type.NEWLINE) {
+                return endLine();
+            }
+            return projection == null && !rejected;
+        }
+    }
+
+    /** Starts a field in the given state. */
+    private void startField(int state) {
+        fieldState = state;
+        fieldContentStart = (state == QUOTED ? charPosition + 1 : charPosition);
+        fieldEscaped = (state == UNQUOTED_ESCAPE);
+        if (!lineHasField) {
+            lineHasField = true;
+            markField = (projection != null && fieldKept);
+        }
+    }
+
+    /**
+     * Moves on to the next field of the line at a delimiter and returns
+     * whether the delimiter is kept, which it is before a projected
+     * field.
+     */
+    private boolean nextField() {
+        fieldIndex++;
+        fieldKept = !rejected && isProjected(fieldIndex);
+        fieldState = FIELD_START;
+        return fieldKept;
+    }
+
+    /**
+     * Starts over at a newline, which is kept unless the line is
+     * rejected.
+     */
+    private boolean endLine() {
+        if (lineHasField) {
+            checkLineEnd(charPosition);
+        }
+        boolean kept = !rejected;
+        if (rejected) {
+            rejected = false;
+            rejectedReturn = (thisChar == '\r');
+        }
+        if (pauseAfterLine && lineHasField) {
+            lineEnded = true;
+        }
+        fieldIndex = 0;
+        fieldKept = isProjected(0);
+        fieldState = FIELD_START;
+        lineHasField = false;
+        return kept;
+    }
+
+    /** Ends the last line at EOF, rejecting it if it fails. */
+    private void endInputLine() {
+        checkLineEnd(charPosition);
+        if (markReject) {
+            queueReject();
+        }
+        rejected = false;
+        lineHasField = false;
+    }
+
+    /**
+     * Ends the last field of the line at the given position (unless a
+     * comment already ended it) and rejects the line if it ends before
+     * a filtered column.
+     */
+    private void checkLineEnd(long end) {
+        if (fieldState != COMMENT) {
+            endField(end);
+        }
+        if (fieldIndex < lastFilteredColumn) {
+            reject();
+        }
+    }
+
+    /**
+     * Checks the filter (if any) of the field that ends at the given
+     * position.  The value is found like the parser would, without
+     * quotes, escapes, or trimmed space.  Malformed fields are left
+     * for the parser to report.
+     */
+    private void endField(long end) {
+        if (rejected || !hasFilter(fieldIndex)) {
+            return;
+        }
+        long start;
+        switch (fieldState) {
+        case FIELD_START:
+            start = end;
+            break;
+        case UNQUOTED:
+            start = fieldContentStart;
+            if (dialect.trimSpace) {
+                end = trimmedEnd(start, end);
+            }
+            break;
+        case AFTER_QUOTE:
+        case AFTER_CLOSE:
+            start = fieldContentStart;
+            end = fieldContentEnd;
+            break;
+        default:
+            return;
+        }
+        CharView value = filterView;
+        int length = (int)(end - start);
+        if (fieldEscaped) {
+            value.setDecoded(decode(start, length, value.reserve(length)));
+        } else {
+            value.set(buffer, start, length);
+        }
+        if (!filters[fieldIndex].test(value)) {
+            reject();
+        }
+    }
+
+    /**
+     * Returns the end of the given range of an unquoted field without
+     * trailing space, except that an escaped space is kept.
+     */
+    private long trimmedEnd(long start, long end) {
+        long trimmed = end;
+        while (trimmed > start && isSpace(buffer.getAt(trimmed - 1))) {
+            trimmed--;
+        }
+        if (trimmed < end && escapes) {
+            // Count the escapes before the space
+            long index = trimmed;
+            while (index > start && buffer.getAt(index - 1) == dialect.escape) {
+                index--;
+            }
+            if ((trimmed - index) % 2 == 1) {
+                trimmed++;
+            }
+        }
+        return trimmed;
+    }
+
+    private boolean isSpace(char character) {
+        if (character < 256) {
+            return classes[character] == SPACE;
+        }
+        return dialect.classify(character) == Token.Type.SPACE;
+    }
+
+    /**
+     * Decodes the escape sequences in the given range of a field into
+     * the given array and returns the number of characters.  See {@link
+     * Record}.
+     */
+    private int decode(long position, int length, char[] characters) {
+        boolean doubled = doubledQuotes && fieldState != UNQUOTED;
+        int count = 0;
+        for (int offset = 0; offset < length; offset++) {
+            char character = buffer.getAt(position + offset);
+            if (((doubled && character == dialect.quote)
+                 || (escapes && character == dialect.escape))
+                && offset + 1 < length) {
+                // Take the following character literally
+                offset++;
+                character = buffer.getAt(position + offset);
+            }
+            characters[count++] = character;
+        }
+        return count;
+    }
+
+    /** Rejects the line and skips the rest of it. */
+    private void reject() {
+        if (!rejected) {
+            rejected = true;
+            markReject = true;
+            fieldKept = false;
+        }
+    }
+
+    private boolean hasFilter(int column) {
+        return (filters != null && column < filters.length
+                && filters[column] != null);
+    }
+
+    /** Whether the given column is projected or filtered. */
+    private boolean isFollowed(int column) {
+        return isProjected(column) || hasFilter(column);
+    }
+
+    private boolean isProjected(int column) {
+        return (projection == null
+                || (column < projection.length && projection[column]));
+    }
+
+    /**
+     * Returns how many extra tokens one character can make, which must
+     * fit in the queue (or batch) along with the first.
+     */
+    private int reserve() {
+        return (projection != null || filters != null ? RESERVE : 0);
+    }
+
+    /**
+     * Returns the number of tokens that can be made before stopping,
+     * which is the free space in the batch being filled or else in the
+     * token queue.
+     */
+    private int freeSize() {
+        if (batch != null) {
+            return batch.freeSize();
+        }
+        return tokenQueue.freeSize();
+    }
+
+    /**
+     * Fills the given batch with the next tokens, as many as fit, and
+     * returns how many there are.  Returns zero only at EOF.  Tokens
+     * already read into the queue come first, so this may be mixed
+     * with {@link #readToken()}.  No {@link Token} objects are made,
+     * so the tokens in a batch are not freed individually.  Rather,
+     * free the input they cover with {@link #free(long)}.
+     */
+    public int readBatch(TokenBatch batch) throws IOException {
+        if (batch.capacity() <= reserve()) {
+            throw new IllegalArgumentException(String.format(
+                "Batch capacity %d is too small when projecting or filtering",
+                batch.capacity()));
+        }
+        batch.clear();
+        while (tokenQueue.size() > 0 && batch.freeSize() > 0) {
+            Token token = tokenQueue.get();
+            batch.add(token.type, token.position, token.length,
+                      token.line, token.column);
+            tokenPool.give(token);
+        }
+        this.batch = batch;
+        try {
+            readTokens();
+        } finally {
+            this.batch = null;
+        }
+        return batch.size;
+    }
+
     public Token readToken() {
         // Read more tokens if needed
         if (tokenQueue.size() <= 0) {
             try {
                 readTokens();
             } catch (IOException e) {
-                // FIXME
+                throw readFailed(e);
             }
         }
         // Return the next token or null if none
@@ -303,24 +1166,313 @@ public class Lexer implements Iterator<Token>, Iterable<Token> {
         }
     }
 
+    /**
+     * Releases the buffer of input if it is off the heap.  Do not use
+     * the lexer (or its tokens) afterward.
+     */
+    public void release() {
+        if (buffer instanceof DirectTextBuffer) {
+            ((DirectTextBuffer) buffer).release();
+        }
+    }
+
+    /** Returns the capacity of the buffer of input. */
+    public int getBufferCapacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Limits the buffer of input that has not been freed to the given
+     * capacity.  Lexing a token (or holding tokens) that needs more
+     * throws {@link IllegalStateException} rather than running out of
+     * memory.
+     */
+    public void setMaximumBufferCapacity(int capacity) {
+        buffer.setMaximumCapacity(capacity);
+    }
+
+    /**
+     * Shrinks the buffer back toward the given capacity after a spike
+     * (such as a huge field) once it is the given factor larger than
+     * what it holds.  See {@link StreamBuffer#setShrinkPolicy(int,
+     * int)}.
+     */
+    public void setBufferShrinkPolicy(int targetCapacity, int shrinkFactor) {
+        buffer.setShrinkPolicy(targetCapacity, shrinkFactor);
+    }
+
+    /**
+     * Sets whether to find lines and columns on demand with {@link
+     * #lineAt(long)} and {@link #columnAt(long)} rather than setting
+     * them in every token.  Lazy provenance only records where lines
+     * start, which saves work per token, but then the lines and
+     * columns of tokens are not set.  Must be set before lexing.
+     *
+     * @throws IllegalStateException if lexing has started
+     */
+    public void setLazyProvenance(boolean lazy) {
+        if (charCode != -2) {
+            throw new IllegalStateException("Lexing has started");
+        }
+        lineIndex = lazy ? new LineIndex(line, lineStartPosition) : null;
+    }
+
+    /**
+     * Sets which columns to lex, where {@code columns[i]} is whether to
+     * lex column {@code i} (columns past the end are not lexed), or
+     * null to lex all of them.  The characters of other columns are
+     * only scanned to find where their fields end: they make no tokens.
+     * So that the start of every projected field is still known, the
+     * delimiter before a projected field is kept and the first field of
+     * a line gets a zero-length delimiter, but the delimiter after the
+     * last projected field of a line is not kept.  A line whose fields
+     * all end before the first projected column makes only a newline.
+     * The parser uses these tokens for {@link
+     * Parser#setProjection(int...)}.
+     *
+     * @throws IllegalStateException if lexing has started and is not
+     * paused by {@link #pauseAfterLine()}
+     */
+    public void setProjection(boolean[] columns) {
+        checkNotLexing();
+        tracking = true;
+        projection = (columns == null ? null : columns.clone());
+        growQueueForReserve();
+        fieldKept = isProjected(fieldIndex);
+    }
+
+    /**
+     * Adds a filter on the given column: lines whose value in the
+     * column fails the given predicate (or that do not have the column)
+     * are skipped.  The value is tested as soon as its field ends.  If
+     * the line fails, a {@link Token.Type#REJECT} token is made and the
+     * rest of the line makes no tokens, so tokens of the line before the
+     * reject token must be dropped.  Filters on the same column must
+     * all pass.  The parser uses these tokens for {@link
+     * Parser#addFilter(int, FieldPredicate)}.
+     *
+     * @throws IllegalStateException if lexing has started and is not
+     * paused by {@link #pauseAfterLine()}
+     */
+    public void addFilter(int column, FieldPredicate predicate) {
+        checkNotLexing();
+        if (column < 0) {
+            throw new IllegalArgumentException("Negative column: " + column);
+        }
+        tracking = true;
+        if (filters == null) {
+            filters = new FieldPredicate[column + 1];
+        } else if (column >= filters.length) {
+            filters = Arrays.copyOf(filters, column + 1);
+        }
+        filters[column] = (filters[column] == null ? predicate
+                           : FieldPredicate.and(filters[column], predicate));
+        lastFilteredColumn = Math.max(lastFilteredColumn, column);
+        growQueueForReserve();
+    }
+
+    /**
+     * Grows the token queue if it cannot hold all the tokens one
+     * character can make, which would otherwise stop lexing.
+     */
+    private void growQueueForReserve() {
+        if (tokenQueue.capacity() > reserve()) {
+            return;
+        }
+        ArrayQueue<Token> queue = new ArrayQueue<Token>(reserve() + 1, true);
+        while (tokenQueue.size() > 0) {
+            queue.put(tokenQueue.get());
+        }
+        tokenQueue = queue;
+    }
+
+    /**
+     * Stops lexing after the next line that has fields (so that
+     * projection can be changed after a header).  Reading tokens
+     * afterward continues.  That line is lexed in full, so projection
+     * and filters must not be set yet.
+     *
+     * @throws IllegalStateException if lexing has started and is not
+     * paused, or if projection or filters are set
+     */
+    public void pauseAfterLine() {
+        checkNotLexing();
+        if (projection != null || filters != null) {
+            throw new IllegalStateException(
+                "Projection or filters are set");
+        }
+        tracking = true;
+        pauseAfterLine = true;
+    }
+
+    private void checkNotLexing() {
+        if (charCode != -2 && !paused) {
+            throw new IllegalStateException(
+                "Lexing has started and is not paused");
+        }
+    }
+
+    public boolean hasLazyProvenance() {
+        return lineIndex != null;
+    }
+
+    /**
+     * Returns the line of the given position of input that has not
+     * been freed.
+     *
+     * @throws IllegalStateException if provenance is not lazy
+     */
+    public long lineAt(long position) {
+        checkLazy();
+        return lineIndex.lineAt(position);
+    }
+
+    /**
+     * Returns the column of the given position of input that has not
+     * been freed.
+     *
+     * @throws IllegalStateException if provenance is not lazy
+     */
+    public int columnAt(long position) {
+        checkLazy();
+        return lineIndex.columnAt(position);
+    }
+
+    private void checkLazy() {
+        if (lineIndex == null) {
+            throw new IllegalStateException("Provenance is not lazy");
+        }
+    }
+
+    /** Returns the line of the given token, even if lazy. */
+    private long lineOf(Token token) {
+        return lineIndex != null ? lineIndex.lineAt(token.position)
+            : token.line;
+    }
+
+    /** Returns the column of the given token, even if lazy. */
+    private int columnOf(Token token) {
+        return lineIndex != null ? lineIndex.columnAt(token.position)
+            : token.column;
+    }
+
+    /**
+     * Returns the pool of freed tokens, whose statistics show how well
+     * tokens are being reused.
+     */
+    public Pool<Token> getTokenPool() {
+        return tokenPool;
+    }
+
     public void free(Token token) {
-        tokenPool.push(token);
+        tokenPool.give(token);
         free(token.position + token.length - 1);
     }
 
     public void free(long position) {
         buffer.free(position);
+        if (lineIndex != null) {
+            lineIndex.free(position);
+        }
+    }
+
+    public char getAt(long position) {
+        return buffer.getAt(position);
+    }
+
+    /**
+     * Sets the given view to the text of the given token and returns
+     * the view.  The view does not copy and is valid until the token is
+     * freed.
+     */
+    public CharView getView(Token token, CharView view) {
+        Pool.checkInUse(token);
+        return getView(token.position, token.length, view);
+    }
+
+    public CharView getView(long position, int length, CharView view) {
+        view.set(buffer, position, length);
+        return view;
+    }
+
+    /**
+     * Returns a read-only buffer of the text of the given token.  If
+     * the text is stored in one piece, the buffer refers directly to
+     * the lexer's storage, does not copy, and is valid until the token
+     * is freed or more input is lexed.  Otherwise the buffer is a copy.
+     */
+    public CharBuffer getCharBuffer(Token token) {
+        Pool.checkInUse(token);
+        return getCharBuffer(token.position, token.length);
+    }
+
+    public CharBuffer getCharBuffer(long position, int length) {
+        int index = buffer.arrayIndex(position, length);
+        if (index >= 0) {
+            return CharBuffer.wrap(buffer.array(), index, length)
+                .slice().asReadOnlyBuffer();
+        }
+        char[] characters = new char[length];
+        buffer.copyTo(position, characters, 0, length);
+        return CharBuffer.wrap(characters).asReadOnlyBuffer();
+    }
+
+    /**
+     * Parses the text of the given token as an integer without making
+     * a string.
+     *
+     * @throws ParseException if the text is not an integer
+     */
+    public int getInt(Token token) {
+        try {
+            return Numbers.parseInt(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not an int: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
+    }
+
+    /**
+     * Parses the text of the given token as a long without making a
+     * string.
+     *
+     * @throws ParseException if the text is not a long
+     */
+    public long getLong(Token token) {
+        try {
+            return Numbers.parseLong(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not a long: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
+    }
+
+    /**
+     * Parses the text of the given token as a double.  Most decimal
+     * numbers are parsed without making a string.
+     *
+     * @throws ParseException if the text is not a double
+     */
+    public double getDouble(Token token) {
+        try {
+            return Numbers.parseDouble(getView(token, numberView));
+        } catch (NumberFormatException e) {
+            throw new ParseException(
+                String.format("Not a double: '%s'", numberView),
+                lineOf(token), columnOf(token), e);
+        }
     }
 
     public String getString(Token token) {
+        Pool.checkInUse(token);
         return getString(token.position, token.length);
     }
 
     public String getString(long position, int length) {
         char[] characters = new char[length];
-        for (int offset = 0; offset < length; offset++) {
-            characters[offset] = buffer.getAt(position + offset);
-        }
+        buffer.copyTo(position, characters, 0, length);
         return new String(characters);
     }
 
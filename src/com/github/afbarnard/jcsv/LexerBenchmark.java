@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures lexing throughput in characters (or bytes) per second.  A
+ * block size of one makes the lexer read one character per call to the
+ * reader, which is equivalent to reading with {@link Reader#read()}.
+ * The byte benchmarks compare lexing UTF-8 by decoding it to characters
+ * with lexing the bytes directly, one token at a time and in batches
+ * ({@link TokenBatch}).  The latency benchmarks read from a reader
+ * that waits before every read, as a network file system might, with
+ * and without reading ahead ({@link ReadAheadReader}).  The off-heap
+ * benchmark keeps the input in a {@link DirectTextBuffer}.
+ */
+public class LexerBenchmark {
+
+    /** Makes a corpus of roughly the given number of characters. */
+    public static String makeCorpus(int size) {
+        StringBuilder builder = new StringBuilder(size + 200);
+        while (builder.length() < size) {
+            builder.append(TestText.poem128);
+            builder.append(TestText.magicSquare3x3);
+            builder.append(TestText.multilineField);
+        }
+        return builder.toString();
+    }
+
+    public static Benchmark lexing(final String text,
+                                   final int blockSize) {
+        return new Benchmark(String.format("Lexer chars (block %d)",
+                                           blockSize)) {
+            public long run() throws Exception {
+                Reader reader =
+                    new BufferedReader(new StringReader(text));
+                Lexer lexer = new Lexer(Dialect.LOOSE, reader,
+                                        1000, 100, blockSize);
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    lexer.free(token);
+                }
+                return text.length();
+            }
+        };
+    }
+
+    public static Benchmark offHeapLexing(final String text) {
+        return new Benchmark("Lexer chars (off-heap buffer)") {
+            public long run() throws Exception {
+                Reader reader =
+                    new BufferedReader(new StringReader(text));
+                Lexer lexer = new Lexer(Dialect.LOOSE, reader,
+                                        new DirectTextBuffer(1024), 100,
+                                        4096);
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    lexer.free(token);
+                }
+                lexer.release();
+                return text.length();
+            }
+        };
+    }
+
+    public static Benchmark decodingLexing(final byte[] bytes) {
+        return new Benchmark("Lexer bytes (decoded UTF-8)") {
+            public long run() throws Exception {
+                Reader reader = new InputStreamReader(
+                    new ByteArrayInputStream(bytes), "UTF-8");
+                Lexer lexer = new Lexer(Dialect.LOOSE, reader);
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    lexer.free(token);
+                }
+                return bytes.length;
+            }
+        };
+    }
+
+    public static Benchmark byteLexing(final byte[] bytes,
+                                       final boolean stream) {
+        return new Benchmark(stream ? "ByteLexer bytes (stream)"
+                             : "ByteLexer bytes (byte buffer)") {
+            public long run() throws Exception {
+                ByteLexer lexer;
+                if (stream) {
+                    lexer = new ByteLexer(Dialect.LOOSE,
+                                          new ByteArrayInputStream(bytes));
+                } else {
+                    lexer = new ByteLexer(Dialect.LOOSE,
+                                          ByteBuffer.wrap(bytes));
+                }
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    lexer.free(token);
+                }
+                return bytes.length;
+            }
+        };
+    }
+
+    public static Benchmark batchLexing(final byte[] bytes) {
+        return new Benchmark("ByteLexer bytes (byte buffer, batches)") {
+            public long run() throws Exception {
+                ByteLexer lexer = new ByteLexer(Dialect.LOOSE,
+                                                ByteBuffer.wrap(bytes));
+                TokenBatch batch = new TokenBatch();
+                long contentLength = 0;
+                while (lexer.readBatch(batch) > 0) {
+                    // Touch the tokens as a consumer would
+                    for (int index = 0; index < batch.size(); index++) {
+                        contentLength += batch.lengths[index];
+                    }
+                    lexer.free(batch.lastPosition());
+                }
+                sink = contentLength;
+                return bytes.length;
+            }
+        };
+    }
+
+    /** A reader that waits the given time before every read. */
+    static class LatentReader extends Reader {
+        private final Reader reader;
+        private final long latency;
+
+        LatentReader(Reader reader, long latency) {
+            this.reader = reader;
+            this.latency = latency;
+        }
+
+        public int read(char[] buffer, int offset, int length)
+            throws IOException {
+            LockSupport.parkNanos(latency);
+            return reader.read(buffer, offset, length);
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    public static Benchmark latentLexing(final String text,
+                                         final boolean readAhead) {
+        return new Benchmark(readAhead ? "Lexer chars (latency, read ahead)"
+                             : "Lexer chars (latency)") {
+            public long run() throws Exception {
+                // 20 microseconds per 4096 characters
+                Reader reader = new LatentReader(
+                    new StringReader(text), 20000L);
+                if (readAhead) {
+                    reader = new ReadAheadReader(reader, 4096, 8);
+                }
+                Lexer lexer = new Lexer(Dialect.LOOSE, reader);
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    lexer.free(token);
+                }
+                reader.close();
+                return text.length();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        String text = makeCorpus(4000000);
+        lexing(text, 1).measure();
+        lexing(text, 4096).measure();
+        offHeapLexing(text).measure();
+        latentLexing(text, false).measure();
+        latentLexing(text, true).measure();
+        byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+        decodingLexing(bytes).measure();
+        byteLexing(bytes, true).measure();
+        byteLexing(bytes, false).measure();
+        batchLexing(bytes).measure();
+    }
+}
@@ -5,7 +5,10 @@
 
 package com.github.afbarnard.jcsv;
 
+import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -104,6 +107,15 @@ public class LexerTest {
         };
         lexer = makeLexer(TestText.newlines);
         checkTokenStream(tokens);
+        Object[][] moreTokens = {
+            {"\r\n", Token.Type.NEWLINE},
+            {"\n", Token.Type.NEWLINE},
+            {"\r", Token.Type.NEWLINE},
+            {"\r\n", Token.Type.NEWLINE},
+            {"\n", Token.Type.NEWLINE},
+        };
+        lexer = makeLexer("\r\n\n\r\r\n\n");
+        checkTokenStream(moreTokens);
     }
 
     @Test public void readToken_space() {
@@ -277,6 +289,250 @@ public class LexerTest {
         checkTokenStream(tokens);
     }
 
+    @Test public void readToken_blockSizes() {
+        // Lexing must not depend on how the input is split into blocks
+        String[] texts = {TestText.allBasicCharacters, TestText.poem128,
+                          TestText.multilineField, TestText.newlines,
+                          TestText.returnsAndFeeds};
+        for (String text : texts) {
+            for (int blockSize = 1; blockSize <= 5; blockSize++) {
+                lexer = new Lexer(Dialect.LOOSE, new StringReader(text),
+                                  10, 3, blockSize);
+                Lexer reference = makeLexer(text);
+                Token token = lexer.readToken();
+                Token refToken = reference.readToken();
+                int tokenIndex = 0;
+                while (refToken != null) {
+                    assertNotNull(token);
+                    checkToken(reference.getString(refToken),
+                               refToken.type, refToken.position,
+                               refToken.length, refToken.line,
+                               refToken.column, token, tokenIndex);
+                    lexer.free(token);
+                    reference.free(refToken);
+                    token = lexer.readToken();
+                    refToken = reference.readToken();
+                    tokenIndex++;
+                }
+                assertNull(token);
+            }
+        }
+    }
+
+    @Test public void getView() {
+        lexer = makeLexer(TestText.poem128);
+        CharView view = new CharView();
+        Token token = lexer.readToken();
+        assertSame(view, lexer.getView(token, view));
+        assertEquals(3, view.length());
+        assertTrue(view.contentEquals("one"));
+        assertFalse(view.contentEquals("on"));
+        assertFalse(view.contentEquals("two"));
+        assertEquals('n', view.charAt(1));
+        assertEquals("ne", view.subSequence(1, 3).toString());
+        assertEquals("one", view.toString());
+        lexer.free(token);
+        // Reuse the view
+        token = lexer.readToken();
+        lexer.getView(token, view);
+        assertEquals(",", view.toString());
+    }
+
+    @Test(expected=java.util.NoSuchElementException.class)
+    public void getView_afterFree() {
+        lexer = makeLexer(TestText.poem128);
+        CharView view = new CharView();
+        Token token = lexer.readToken();
+        lexer.getView(token, view);
+        lexer.free(token);
+        view.charAt(0);
+    }
+
+    @Test public void getCharBuffer() {
+        // A small buffer so that some tokens wrap around its end
+        lexer = new Lexer(Dialect.LOOSE,
+                          new StringReader(TestText.poem128), 8, 2);
+        Token token;
+        while ((token = lexer.readToken()) != null) {
+            java.nio.CharBuffer characters = lexer.getCharBuffer(token);
+            assertTrue(characters.isReadOnly());
+            assertEquals(token.length, characters.remaining());
+            assertEquals(lexer.getString(token), characters.toString());
+            lexer.free(token);
+        }
+    }
+
+    /** Returns text with a quoted field of the given length. */
+    static String hugeField(int length) {
+        StringBuilder builder = new StringBuilder("a,\"");
+        for (int index = 0; index < length; index++) {
+            builder.append((char) ('a' + index % 26));
+        }
+        return builder.append("\",b\nc,d\n").toString();
+    }
+
+    @Test public void bufferShrinkPolicy() {
+        lexer = new Lexer(Dialect.LOOSE,
+                          new StringReader(hugeField(5000)), 16, 4);
+        lexer.setBufferShrinkPolicy(16, 4);
+        Token token;
+        while ((token = lexer.readToken()) != null) {
+            lexer.free(token);
+        }
+        assertEquals(16, lexer.getBufferCapacity());
+    }
+
+    @Test public void maximumBufferCapacity() {
+        lexer = new Lexer(Dialect.LOOSE,
+                          new StringReader(hugeField(5000)), 16, 4);
+        lexer.setMaximumBufferCapacity(4096);
+        Token token;
+        try {
+            while ((token = lexer.readToken()) != null) {
+                lexer.free(token);
+            }
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("maximum is 4096"));
+        }
+    }
+
+    @Test public void getNumbers() {
+        lexer = makeLexer("-42,2147483648,6.02e23\n 7x");
+        Token token = lexer.readToken();
+        assertEquals(-42, lexer.getInt(token));
+        assertEquals(-42L, lexer.getLong(token));
+        assertEquals(-42.0, lexer.getDouble(token), 0.0);
+        lexer.readToken();
+        token = lexer.readToken();
+        assertEquals(2147483648L, lexer.getLong(token));
+        try {
+            lexer.getInt(token);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(1, e.getLine());
+            assertEquals(5, e.getColumn());
+        }
+        lexer.readToken();
+        token = lexer.readToken();
+        assertEquals(6.02e23, lexer.getDouble(token), 0.0);
+        lexer.readToken();
+        lexer.readToken();
+        token = lexer.readToken();
+        try {
+            lexer.getLong(token);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(2, e.getColumn());
+        }
+    }
+
+    @Test public void readToken_extraSpaceAndDelimiters() {
+        // Tab and pipe delimit, underscore and ideographic space are
+        // space, and a delimiter above Latin-1 uses the fallback
+        Dialect dialect =
+            new Dialect('\u2192', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        true, true, true, true,
+                        "_\u3000", "\t|");
+        Object[][] tokens = {
+            {"a", Token.Type.CONTENT},
+            {"\t", Token.Type.DELIMITER},
+            {"_\u3000 ", Token.Type.SPACE},
+            {"b", Token.Type.CONTENT},
+            {"|", Token.Type.DELIMITER},
+            {"\u2192", Token.Type.DELIMITER},
+            {"c\u00e9\u4e2d", Token.Type.CONTENT},
+            {"\n", Token.Type.NEWLINE},
+        };
+        lexer = new Lexer(dialect, new StringReader(
+            "a\t_\u3000 b|\u2192c\u00e9\u4e2d\n"));
+        checkTokenStream(tokens);
+    }
+
+    /** Describes the given token of the given batch. */
+    static String describe(TokenBatch batch, int index, String text) {
+        return String.format("%s:%d:%d:%d:%d:%s", batch.type(index),
+                             batch.positions[index], batch.lengths[index],
+                             batch.lines[index], batch.columns[index],
+                             text);
+    }
+
+    /** Describes the given token. */
+    static String describe(Token token, String text) {
+        return String.format("%s:%d:%d:%d:%d:%s", token.type,
+                             token.position, token.length,
+                             token.line, token.column, text);
+    }
+
+    /** Describes the tokens of the given text as read one at a time. */
+    static List<String> describeTokens(String text) {
+        Lexer lexer = new Lexer(Dialect.LOOSE, new StringReader(text));
+        List<String> tokens = new ArrayList<String>();
+        Token token;
+        while ((token = lexer.readToken()) != null) {
+            tokens.add(describe(token, lexer.getString(token)));
+            lexer.free(token);
+        }
+        return tokens;
+    }
+
+    @Test public void readBatch() throws IOException {
+        String text = TestText.poem128 + TestText.multilineField;
+        List<String> expected = describeTokens(text);
+        for (int capacity = 1; capacity <= 5; capacity++) {
+            lexer = new Lexer(Dialect.LOOSE, new StringReader(text), 10, 3);
+            List<String> actual = new ArrayList<String>();
+            // Tokens already queued come first
+            Token token = lexer.readToken();
+            actual.add(describe(token, lexer.getString(token)));
+            lexer.free(token);
+            TokenBatch batch = new TokenBatch(capacity);
+            while (lexer.readBatch(batch) > 0) {
+                for (int index = 0; index < batch.size(); index++) {
+                    actual.add(describe(batch, index, lexer.getString(
+                        batch.positions[index], batch.lengths[index])));
+                }
+                lexer.free(batch.lastPosition());
+            }
+            assertEquals("Capacity " + capacity, expected, actual);
+        }
+    }
+
+    @Test public void lazyProvenance() {
+        String text = TestText.poem128 + TestText.multilineField + "\r\r\n";
+        Lexer reference = makeLexer(text);
+        lexer = makeLexer(text);
+        lexer.setLazyProvenance(true);
+        assertTrue(lexer.hasLazyProvenance());
+        Token expected;
+        while ((expected = reference.readToken()) != null) {
+            Token token = lexer.readToken();
+            assertEquals(expected.position, token.position);
+            assertEquals(expected.line, lexer.lineAt(token.position));
+            assertEquals(expected.column, lexer.columnAt(token.position));
+            // Freeing as lexing goes drops lines from the index
+            reference.free(expected);
+            lexer.free(token);
+        }
+        assertNull(lexer.readToken());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void lazyProvenance_afterStart() {
+        lexer = makeLexer(TestText.poem128);
+        lexer.readToken();
+        lexer.setLazyProvenance(true);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void lineAt_notLazy() {
+        lexer = makeLexer(TestText.poem128);
+        lexer.readToken();
+        lexer.lineAt(0);
+    }
+
     @Test public void iterator_poem128() {
         Object[][] tokens = {
             {"one", Token.Type.CONTENT},
@@ -362,4 +618,74 @@ public class LexerTest {
         assertEquals(tokens.length, tokenIndex);
         assertNull(lexer.readToken());
     }
+
+    @Test public void setProjection() {
+        lexer = makeLexer("a, \"b,\nb\",c\n,d,\"e\n\",f\n");
+        lexer.setProjection(new boolean[] {false, true, false, true});
+        Object[][] tokens = {
+            // text, type, position, line, column
+            {",", Token.Type.DELIMITER, 1L, 1L, 2},
+            {" ", Token.Type.SPACE, 2L, 1L, 3},
+            {"\"", Token.Type.QUOTE, 3L, 1L, 4},
+            {"b", Token.Type.CONTENT, 4L, 1L, 5},
+            {",", Token.Type.DELIMITER, 5L, 1L, 6},
+            {"\n", Token.Type.NEWLINE, 6L, 1L, 7},
+            {"b", Token.Type.CONTENT, 7L, 2L, 1},
+            {"\"", Token.Type.QUOTE, 8L, 2L, 2},
+            {"\n", Token.Type.NEWLINE, 11L, 2L, 5},
+            {",", Token.Type.DELIMITER, 12L, 3L, 1},
+            {"d", Token.Type.CONTENT, 13L, 3L, 2},
+            // The quoted newline of column 2 is counted
+            {",", Token.Type.DELIMITER, 19L, 4L, 2},
+            {"f", Token.Type.CONTENT, 20L, 4L, 3},
+            {"\n", Token.Type.NEWLINE, 21L, 4L, 4},
+        };
+        for (int index = 0; index < tokens.length; index++) {
+            Object[] expected = tokens[index];
+            String text = (String) expected[0];
+            checkToken(text, (Token.Type) expected[1], (Long) expected[2],
+                       text.length(), (Long) expected[3],
+                       (Integer) expected[4], lexer.readToken(), index);
+        }
+        assertNull(lexer.readToken());
+    }
+
+    @Test public void setProjection_firstColumn() {
+        // The first field is marked with a zero-length delimiter, even
+        // if it is empty, but the line of only space is not
+        lexer = makeLexer("a,b\n  \n,c\n");
+        lexer.setProjection(new boolean[] {true});
+        Object[][] tokens = {
+            {"", Token.Type.DELIMITER, 0L, 1L, 1},
+            {"a", Token.Type.CONTENT, 0L, 1L, 1},
+            {"\n", Token.Type.NEWLINE, 3L, 1L, 4},
+            {"  ", Token.Type.SPACE, 4L, 2L, 1},
+            {"\n", Token.Type.NEWLINE, 6L, 2L, 3},
+            {"", Token.Type.DELIMITER, 7L, 3L, 1},
+            {"\n", Token.Type.NEWLINE, 9L, 3L, 3},
+        };
+        for (int index = 0; index < tokens.length; index++) {
+            Object[] expected = tokens[index];
+            String text = (String) expected[0];
+            checkToken(text, (Token.Type) expected[1], (Long) expected[2],
+                       text.length(), (Long) expected[3],
+                       (Integer) expected[4], lexer.readToken(), index);
+        }
+        assertNull(lexer.readToken());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setProjection_batchTooSmall() throws IOException {
+        // One character can make three tokens when projecting
+        lexer = makeLexer("a,b\n");
+        lexer.setProjection(new boolean[] {false, true});
+        lexer.readBatch(new TokenBatch(2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setProjection_afterLexing() {
+        lexer = makeLexer("a,b\n");
+        lexer.readToken();
+        lexer.setProjection(new boolean[] {true});
+    }
 }
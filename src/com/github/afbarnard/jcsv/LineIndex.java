@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The positions where lines start, for finding the line and column of
+ * a position on demand rather than for every token.  Lines are added in
+ * order as newlines are lexed and dropped as input is freed, so the
+ * index only covers input that is still held.
+ */
+final class LineIndex {
+
+    /** Positions where lines start, in [lower,upper). */
+    private long[] starts = new long[64];
+    private int lower = 0;
+    private int upper = 0;
+
+    // The line before the first indexed one and where it starts
+    private long baseLine;
+    private long baseStart;
+
+    /** Makes an index of input whose given line starts at the given position. */
+    LineIndex(long line, long start) {
+        baseLine = line;
+        baseStart = start;
+    }
+
+    /** Records that a line starts at the given position. */
+    void add(long start) {
+        if (upper == starts.length) {
+            if (lower > starts.length / 2) {
+                // Enough is freed to compact in place
+                System.arraycopy(starts, lower, starts, 0, upper - lower);
+            } else {
+                long[] newStarts = new long[starts.length * 2];
+                System.arraycopy(starts, lower, newStarts, 0, upper - lower);
+                starts = newStarts;
+            }
+            upper -= lower;
+            lower = 0;
+        }
+        starts[upper++] = start;
+    }
+
+    /**
+     * Moves the start of the last line added to the given position, as
+     * when its newline turns out to be two characters long.
+     */
+    void moveLast(long start) {
+        starts[upper - 1] = start;
+    }
+
+    /**
+     * Drops the lines that end at or before the given position, which
+     * are no longer needed once the input up to there is freed.
+     */
+    void free(long position) {
+        while (lower < upper && starts[lower] <= position + 1) {
+            baseLine++;
+            baseStart = starts[lower++];
+        }
+    }
+
+    /** Returns the index of the line containing the given position. */
+    private int find(long position) {
+        if (position < baseStart) {
+            throw new NoSuchElementException(
+                String.format("Position %d is before %d", position,
+                              baseStart));
+        }
+        // Find the number of indexed lines starting at or before the
+        // position
+        int low = lower;
+        int high = upper;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - lower;
+    }
+
+    /** Returns the line of the given position. */
+    long lineAt(long position) {
+        return baseLine + find(position);
+    }
+
+    /** Returns the (1-based) column of the given position. */
+    int columnAt(long position) {
+        int count = find(position);
+        long start = (count == 0 ? baseStart : starts[lower + count - 1]);
+        return (int)(position - start + 1);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * Parses numbers from character sequences without making strings.  The
+ * syntax accepted is the same as that of the corresponding {@code
+ * parse*} methods in the standard library.  Booleans and dates, which
+ * are stored as numbers by {@link ColumnBatch}, are parsed here too.
+ */
+class Numbers {
+
+    /** Exactly representable powers of ten. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest integer such that it and all smaller are exact doubles. */
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private Numbers() {
+    }
+
+    public static int parseInt(CharSequence text) {
+        long value = parseLong(text);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw invalid(text);
+        }
+        return (int) value;
+    }
+
+    public static long parseLong(CharSequence text) {
+        int length = text.length();
+        int index = 0;
+        boolean negative = false;
+        if (length > 0) {
+            char first = text.charAt(0);
+            if (first == '-') {
+                negative = true;
+                index++;
+            } else if (first == '+') {
+                index++;
+            }
+        }
+        if (index >= length) {
+            throw invalid(text);
+        }
+        // Accumulate negatively so that the most negative value can be
+        // represented (as in Long.parseLong)
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long value = 0;
+        for (; index < length; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9 || value < multiplyLimit) {
+                throw invalid(text);
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                throw invalid(text);
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * Parses a double.  Simple decimal numbers (at most 15 or so
+     * significant digits and small exponents) are converted exactly
+     * without allocating.  Anything else is converted with {@link
+     * Double#parseDouble(String)}.
+     */
+    public static double parseDouble(CharSequence text) {
+        int length = text.length();
+        int index = 0;
+        boolean negative = false;
+        if (length > 0) {
+            char first = text.charAt(0);
+            if (first == '-') {
+                negative = true;
+                index++;
+            } else if (first == '+') {
+                index++;
+            }
+        }
+
+        // Accumulate the significant digits into an integer mantissa
+        // and keep track of the decimal exponent
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean exact = true;
+        boolean point = false;
+        for (; index < length; index++) {
+            char character = text.charAt(index);
+            if (character >= '0' && character <= '9') {
+                digits++;
+                if (mantissa <= (MAX_EXACT_INTEGER - 9) / 10) {
+                    mantissa = mantissa * 10 + (character - '0');
+                    if (point) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                    break;
+                }
+            } else if (character == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (exact && digits > 0 && index < length) {
+            char character = text.charAt(index);
+            if (character == 'e' || character == 'E') {
+                index++;
+                boolean negativeExponent = false;
+                if (index < length) {
+                    character = text.charAt(index);
+                    if (character == '-') {
+                        negativeExponent = true;
+                        index++;
+                    } else if (character == '+') {
+                        index++;
+                    }
+                }
+                int explicit = 0;
+                int exponentDigits = 0;
+                for (; index < length; index++) {
+                    character = text.charAt(index);
+                    if (character < '0' || character > '9'
+                        || explicit > 1000) {
+                        break;
+                    }
+                    explicit = explicit * 10 + (character - '0');
+                    exponentDigits++;
+                }
+                if (exponentDigits == 0) {
+                    exact = false;
+                }
+                exponent += negativeExponent ? -explicit : explicit;
+            }
+        }
+
+        // Use the exact conversion if everything was consumed and the
+        // mantissa and power of ten are exact doubles.  Then the result
+        // of a single multiplication or division is correctly rounded.
+        if (exact && digits > 0 && index == length
+            && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            if (exponent < 0) {
+                value /= POWERS_OF_TEN[-exponent];
+            } else {
+                value *= POWERS_OF_TEN[exponent];
+            }
+            return negative ? -value : value;
+        }
+
+        // Otherwise fall back on the library
+        try {
+            return Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw invalid(text);
+        }
+    }
+
+    /**
+     * Parses "true" or "false", ignoring case.  Unlike {@link
+     * Boolean#parseBoolean(String)}, anything else is invalid.
+     */
+    public static boolean parseBoolean(CharSequence text) {
+        if (matches(text, "true")) {
+            return true;
+        } else if (matches(text, "false")) {
+            return false;
+        }
+        throw invalid(text);
+    }
+
+    private static boolean matches(CharSequence text, String lowerCase) {
+        int length = lowerCase.length();
+        if (text.length() != length) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            if (Character.toLowerCase(text.charAt(index))
+                != lowerCase.charAt(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an ISO 8601 date ("yyyy-mm-dd") as the number of days
+     * since 1970-01-01 in the proleptic Gregorian calendar.
+     */
+    public static int parseEpochDay(CharSequence text) {
+        if (text.length() != 10
+            || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            throw invalid(text);
+        }
+        int year = parseDigits(text, 0, 4);
+        int month = parseDigits(text, 5, 7);
+        int day = parseDigits(text, 8, 10);
+        if (month < 1 || month > 12 || day < 1
+            || day > daysInMonth(year, month)) {
+            throw invalid(text);
+        }
+        // Count from March so that leap days end the year
+        // (http://howardhinnant.github.io/date_algorithms.html)
+        if (month <= 2) {
+            year--;
+        }
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+            + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+            + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int parseDigits(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int index = start; index < end; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            boolean leap = year % 4 == 0
+                && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    private static NumberFormatException invalid(CharSequence text) {
+        return new NumberFormatException(
+            String.format("For input string: \"%s\"", text));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class NumbersTest {
+
+    static final String[] notNumbers = {
+        "", "-", "+", "a", "1a", "1 ", " 1", "--1", "1-", "0x10",
+    };
+
+    // Each parse must agree with the standard library
+
+    private void checkLong(String text) {
+        long expected;
+        try {
+            expected = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            try {
+                Numbers.parseLong(text);
+                fail("Expected NumberFormatException for: " + text);
+            } catch (NumberFormatException e2) {
+            }
+            return;
+        }
+        assertEquals(text, expected, Numbers.parseLong(text));
+    }
+
+    private void checkInt(String text) {
+        int expected;
+        try {
+            expected = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            try {
+                Numbers.parseInt(text);
+                fail("Expected NumberFormatException for: " + text);
+            } catch (NumberFormatException e2) {
+            }
+            return;
+        }
+        assertEquals(text, expected, Numbers.parseInt(text));
+    }
+
+    private void checkDouble(String text) {
+        double expected;
+        try {
+            expected = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            try {
+                Numbers.parseDouble(text);
+                fail("Expected NumberFormatException for: " + text);
+            } catch (NumberFormatException e2) {
+            }
+            return;
+        }
+        // Compare bits to distinguish -0.0 and to match NaN
+        assertEquals(text, Double.doubleToLongBits(expected),
+                     Double.doubleToLongBits(Numbers.parseDouble(text)));
+    }
+
+    @Test public void parseLong() {
+        String[] texts = {
+            "0", "-0", "+0", "1", "-1", "+17", "00042", "1234567890123",
+            "9223372036854775807", "-9223372036854775808",
+            "9223372036854775808", "-9223372036854775809",
+            "99999999999999999999",
+        };
+        for (String text : texts) {
+            checkLong(text);
+        }
+        for (String text : notNumbers) {
+            checkLong(text);
+        }
+    }
+
+    @Test public void parseInt() {
+        String[] texts = {
+            "0", "-1", "+17", "2147483647", "-2147483648",
+            "2147483648", "-2147483649", "9223372036854775807",
+        };
+        for (String text : texts) {
+            checkInt(text);
+        }
+        for (String text : notNumbers) {
+            checkInt(text);
+        }
+    }
+
+    @Test public void parseDouble() {
+        String[] texts = {
+            "0", "-0", "0.0", "-0.0", "1", "1.", ".5", "-.5", "+2.5",
+            "3.14159", "1e10", "1E-10", "1e+22", "1e23", "1e-22",
+            "1e-23", "123456789012345678", "9007199254740993",
+            "0.1", "0.30000000000000004", "1.7976931348623157e308",
+            "4.9e-324", "1e400", "1e-400", "NaN", "-Infinity", "1.5f",
+            "1e", "1e+", ".", "1..2", "0x1p3", "1.0e0001",
+            "00000000000000000000000001.5",
+        };
+        for (String text : texts) {
+            checkDouble(text);
+        }
+        for (String text : notNumbers) {
+            checkDouble(text);
+        }
+    }
+
+    @Test public void parseDouble_random() {
+        Random random = new Random(20151017);
+        for (int i = 0; i < 10000; i++) {
+            // Decimals with various numbers of digits and exponents
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                text.append('-');
+            }
+            text.append(random.nextInt(1000000));
+            if (random.nextBoolean()) {
+                text.append('.').append(random.nextInt(100000000));
+            }
+            if (random.nextBoolean()) {
+                text.append('e').append(random.nextInt(60) - 30);
+            }
+            checkDouble(text.toString());
+            checkDouble(Double.toString(random.nextDouble()));
+        }
+    }
+
+    @Test public void parseBoolean() {
+        assertTrue(Numbers.parseBoolean("true"));
+        assertTrue(Numbers.parseBoolean("TRUE"));
+        assertTrue(Numbers.parseBoolean("True"));
+        assertFalse(Numbers.parseBoolean("false"));
+        assertFalse(Numbers.parseBoolean("FaLsE"));
+        for (String text : new String[] {"", "t", "1", "yes", "truee",
+                                         " true", "fals"}) {
+            try {
+                Numbers.parseBoolean(text);
+                fail("Expected NumberFormatException for: " + text);
+            } catch (NumberFormatException e) {
+            }
+        }
+    }
+
+    @Test public void parseEpochDay() {
+        assertEquals(0, Numbers.parseEpochDay("1970-01-01"));
+        assertEquals(-1, Numbers.parseEpochDay("1969-12-31"));
+        assertEquals(11016, Numbers.parseEpochDay("2000-02-29"));
+        assertEquals(-719528, Numbers.parseEpochDay("0000-01-01"));
+        assertEquals(2932896, Numbers.parseEpochDay("9999-12-31"));
+        // Every day of four centuries agrees with the (Gregorian part
+        // of the) standard library calendar
+        GregorianCalendar calendar =
+            new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(1800, Calendar.JANUARY, 1);
+        while (calendar.get(Calendar.YEAR) < 2200) {
+            String text = String.format(
+                "%04d-%02d-%02d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH));
+            long expected = calendar.getTimeInMillis() / 86400000L;
+            assertEquals(text, expected, Numbers.parseEpochDay(text));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        String[] invalid = {
+            "", "1970-1-1", "1970-01-1", "70-01-01", "1970/01/01",
+            "1970-00-01", "1970-13-01", "1970-01-00", "1970-01-32",
+            "1970-04-31", "1900-02-29", "2001-02-29", "1970-01-01T00",
+            "197a-01-01", "+970-01-01",
+        };
+        for (String text : invalid) {
+            try {
+                Numbers.parseEpochDay(text);
+                fail("Expected NumberFormatException for: " + text);
+            } catch (NumberFormatException e) {
+            }
+        }
+    }
+}
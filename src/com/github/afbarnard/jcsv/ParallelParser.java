@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a file in parallel by splitting it into chunks at record
+ * starts (see {@link BoundaryFinder}) and lexing and parsing each chunk
+ * with its own memory-mapped {@link ByteLexer} and {@link Parser}.
+ * Tokens and records have the same positions (file offsets), lines,
+ * and columns as when parsing the whole file serially.
+ *
+ * <p>Records are given to a {@link RecordHandler} either in order or
+ * not.  In order, the handler is called from the calling thread, one
+ * record at a time, in the order the records appear in the file.  Out
+ * of order, the handler is called concurrently from the worker threads
+ * and so must be thread safe.  Records from the same chunk are always
+ * handled in order by the same thread.</p>
+ *
+ * <p>If any chunk fails to parse, parsing stops and the error is
+ * thrown.  Out of order, records after the error may have already been
+ * handled.</p>
+ */
+public class ParallelParser {
+
+    private Dialect dialect;
+    private FileChannel channel;
+    private ExecutorService executor;
+    private int threads;
+    private int chunkSize;
+
+    /** Default size of a chunk in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    /**
+     * Parses the given file using the given executor to run the given
+     * number of chunks at a time.  Chunks are about the given size.
+     * Memory use is proportional to the number of threads times the
+     * chunk size when parsing in order.
+     */
+    public ParallelParser(Dialect dialect, FileChannel channel,
+                          ExecutorService executor, int threads,
+                          int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException(
+                String.format("Bad number of threads (%d) or chunk size (%d)",
+                              threads, chunkSize));
+        }
+        this.dialect = dialect;
+        this.channel = channel;
+        this.executor = executor;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    public ParallelParser(Dialect dialect, FileChannel channel,
+                          ExecutorService executor, int threads) {
+        this(dialect, channel, executor, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Parses the given file with the given number of threads and gives
+     * the records to the given handler, in order or not.
+     */
+    public static void parse(Dialect dialect, Path path, int threads,
+                             boolean ordered, RecordHandler handler)
+        throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            new ParallelParser(dialect, channel, executor, threads)
+                .parse(handler, ordered);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses the file and gives the records to the given handler, in
+     * order or not.  Returns when all the records have been handled.
+     *
+     * @throws ParseException if the input is malformed
+     */
+    public void parse(RecordHandler handler, boolean ordered)
+        throws IOException {
+        // Split the file into chunks at record starts
+        long size = channel.size();
+        int numberOfTargets = (int) Math.max(0, (size - 1) / chunkSize);
+        long[] targets = new long[numberOfTargets];
+        for (int index = 0; index < numberOfTargets; index++) {
+            targets[index] = (index + 1) * (long) chunkSize;
+        }
+        long[] starts = new long[numberOfTargets];
+        long[] lines = new long[numberOfTargets];
+        new BoundaryFinder(dialect).findStarts(channel, targets,
+                                               starts, lines, executor);
+        List<Chunk> chunks = new ArrayList<Chunk>(numberOfTargets + 1);
+        long start = 0;
+        long line = 1;
+        for (int index = 0; index <= numberOfTargets; index++) {
+            if (index == numberOfTargets) {
+                chunks.add(new Chunk(start, size, line));
+            } else if (starts[index] > start) {
+                chunks.add(new Chunk(start, starts[index], line));
+                start = starts[index];
+                line = lines[index];
+            }
+        }
+
+        // Records in all chunks must have as many fields as the first
+        // record of the file unless lengths are variable.  The first
+        // record need not be in the first chunk, as when the file
+        // starts with comments or blank lines longer than a chunk.
+        int expectedSize = -1;
+        if (!dialect.allowVariableLengthRecords && chunks.size() > 1) {
+            for (int index = 0; index < chunks.size() - 1; index++) {
+                Parser parser = chunks.get(index).newParser();
+                Record record = parser.readRecord();
+                if (record != null) {
+                    expectedSize = record.size();
+                    break;
+                }
+            }
+        }
+        for (Chunk chunk : chunks) {
+            chunk.expectedSize = expectedSize;
+            chunk.ordered = ordered;
+            chunk.handler = handler;
+        }
+
+        if (ordered) {
+            parseOrdered(chunks, handler);
+        } else {
+            parseUnordered(chunks);
+        }
+    }
+
+    /**
+     * Parses chunks in the workers and handles their records in this
+     * thread, keeping at most twice as many chunks in flight as there
+     * are threads.
+     */
+    private void parseOrdered(List<Chunk> chunks, RecordHandler handler)
+        throws IOException {
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        int next = 0;
+        try {
+            while (next < chunks.size() || !pending.isEmpty()) {
+                while (next < chunks.size() && pending.size() < 2 * threads) {
+                    pending.add(executor.submit(chunks.get(next++)));
+                }
+                Chunk chunk = await(pending.remove());
+                for (Record record : chunk.records) {
+                    handler.handle(record);
+                    chunk.parser.free(record);
+                }
+                chunk.records = null;
+            }
+        } finally {
+            cancel(pending);
+        }
+    }
+
+    /** Parses chunks and handles their records in the workers. */
+    private void parseUnordered(List<Chunk> chunks) throws IOException {
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        try {
+            for (Chunk chunk : chunks) {
+                pending.add(executor.submit(chunk));
+            }
+            while (!pending.isEmpty()) {
+                await(pending.remove());
+            }
+        } finally {
+            cancel(pending);
+        }
+    }
+
+    /**
+     * Waits for the given chunk to finish and returns it, rethrowing
+     * any exception it threw.
+     */
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void cancel(Deque<Future<Chunk>> pending) {
+        for (Future<Chunk> future : pending) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A range of the file starting at a record start.  Parsing a chunk
+     * either collects its records (in order) or handles them (out of
+     * order).
+     */
+    private class Chunk implements Callable<Chunk> {
+        long start;
+        long end;
+        long line;
+        int expectedSize;
+        boolean ordered;
+        RecordHandler handler;
+        Parser parser;
+        List<Record> records;
+
+        Chunk(long start, long end, long line) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            expectedSize = -1;
+        }
+
+        Parser newParser() throws IOException {
+            // Map the whole chunk at once
+            int mapSize = (int) Math.min(end - start, Integer.MAX_VALUE);
+            ByteLexer lexer = new ByteLexer(dialect, channel, start, end,
+                                            line, mapSize, 100, 4096);
+            Parser parser = new Parser(dialect, lexer);
+            if (expectedSize >= 0) {
+                parser.setExpectedSize(expectedSize);
+            }
+            return parser;
+        }
+
+        public Chunk call() throws IOException {
+            parser = newParser();
+            if (ordered) {
+                // Keep the records (and so the input) until they are
+                // handled
+                records = new ArrayList<Record>();
+                Record record = parser.readRecord();
+                while (record != null) {
+                    records.add(record);
+                    record = parser.readRecord();
+                }
+            } else {
+                Record record = parser.readRecord();
+                while (record != null) {
+                    handler.handle(record);
+                    parser.free(record);
+                    record = parser.readRecord();
+                }
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelParserTest {
+
+    /** Records that span lines in all the ways the dialect allows. */
+    static final String corpus =
+        TestText.delimiters +
+        TestText.magicSquare3x3 +
+        TestText.multilineField +
+        TestText.quotesAndEscapes + "\n" +
+        TestText.comment +
+        TestText.returnsAndFeeds +
+        "a,\"b\r\nc\",d\r\n" +
+        "e\\\r\nf,g\\\n\r\n" +
+        "# \"not a quote\n" +
+        "\n  \"q\"\"x\r\",  y  \r" +
+        "\"#\",\"\\\"\n\"\n" +
+        TestText.poem128;
+
+    private ExecutorService executor;
+
+    @Before public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Describes a record by its provenance and fields. */
+    static String describe(Record record) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d:%d:%d", record.position(),
+                                     record.line(), record.column()));
+        for (int field = 0; field < record.size(); field++) {
+            builder.append(String.format("|%d:%d:%s", record.getLine(field),
+                                         record.getColumn(field),
+                                         record.getString(field)));
+        }
+        return builder.toString();
+    }
+
+    /** Collects descriptions of records (thread safe). */
+    static class Collector implements RecordHandler {
+        List<String> records =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        public void handle(Record record) {
+            records.add(describe(record));
+        }
+    }
+
+    static Path writeTemp(String text) throws IOException {
+        return ByteLexerTest.writeTemp(text);
+    }
+
+    /** Parses the given file serially. */
+    static List<String> parseSerially(Dialect dialect, FileChannel channel)
+        throws IOException {
+        Parser parser = new Parser(dialect, ByteLexer.map(dialect, channel));
+        List<String> records = new ArrayList<String>();
+        for (Record record : parser) {
+            records.add(describe(record));
+            parser.free(record);
+        }
+        return records;
+    }
+
+    public void checkSameAsSerial(Dialect dialect, String text)
+        throws IOException {
+        Path path = writeTemp(text);
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            List<String> expected = parseSerially(dialect, channel);
+            for (int chunkSize = 1; chunkSize <= 40; chunkSize++) {
+                Collector collector = new Collector();
+                new ParallelParser(dialect, channel, executor, 3, chunkSize)
+                    .parse(collector, true);
+                assertEquals("Chunk size " + chunkSize,
+                             expected, collector.records);
+
+                // Out of order records are the same records
+                collector = new Collector();
+                new ParallelParser(dialect, channel, executor, 3, chunkSize)
+                    .parse(collector, false);
+                List<String> actual = collector.records;
+                assertEquals("Chunk size " + chunkSize,
+                             expected.size(), actual.size());
+                assertTrue("Chunk size " + chunkSize,
+                           actual.containsAll(expected));
+            }
+        }
+        Files.delete(path);
+    }
+
+    @Test public void parse_sameAsSerial() throws IOException {
+        checkSameAsSerial(Dialect.LOOSE, corpus);
+        checkSameAsSerial(Dialect.LOOSE, TestText.empty);
+        checkSameAsSerial(Dialect.LOOSE, TestText.singleData);
+        checkSameAsSerial(ParserTest.STRICT,
+                          TestText.magicSquare3x3 + "\"1\r\n0\",0,\"\"\"\"\n");
+    }
+
+    @Test public void parse_escapedStyle() throws IOException {
+        Dialect dialect =
+            new Dialect(',', '\'', '\\', '#',
+                        Dialect.QuoteEscapeStyle.ESCAPED,
+                        true, true, true, true);
+        checkSameAsSerial(dialect, "'a\\'\n',b\n''\n'\n,c'\n" +
+                          TestText.poem128);
+    }
+
+    @Test public void parse_path() throws IOException {
+        Path path = writeTemp(TestText.poem128);
+        Collector collector = new Collector();
+        ParallelParser.parse(Dialect.LOOSE, path, 2, true, collector);
+        assertEquals(5, collector.records.size());
+        Files.delete(path);
+    }
+
+    @Test public void parse_recordLengthAcrossChunks() throws IOException {
+        // The bad record is in a later chunk than the first record
+        Path path = writeTemp(TestText.magicSquare3x3 + "1,2\n");
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            for (boolean ordered : new boolean[] {true, false}) {
+                try {
+                    new ParallelParser(ParserTest.STRICT, channel,
+                                       executor, 3, 4)
+                        .parse(new Collector(), ordered);
+                    fail("Expected a ParseException");
+                } catch (ParseException e) {
+                    assertEquals(4, e.getLine());
+                    assertEquals(1, e.getColumn());
+                }
+            }
+        }
+        Files.delete(path);
+    }
+
+    @Test public void parse_recordLengthAfterLongPreamble() throws IOException {
+        // The first chunk has no records, only a comment
+        Dialect dialect =
+            new Dialect(',', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.DOUBLED,
+                        false, false, true, false);
+        Path path = writeTemp("# a long preamble comment line\na,b\nc,d,e\n");
+        try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+            for (boolean ordered : new boolean[] {true, false}) {
+                try {
+                    new ParallelParser(dialect, channel, executor, 3, 16)
+                        .parse(new Collector(), ordered);
+                    fail("Expected a ParseException");
+                } catch (ParseException e) {
+                    assertEquals(3, e.getLine());
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * Signals malformed input.  Carries the provenance (line and column) of
+ * the input that caused the problem.
+ */
+public class ParseException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long line;
+    private final int column;
+
+    public ParseException(String message, long line, int column) {
+        super(String.format("%s at line %d, column %d",
+                            message, line, column));
+        this.line = line;
+        this.column = column;
+    }
+
+    public ParseException(String message, long line, int column,
+                          Throwable cause) {
+        this(message, line, column);
+        initCause(cause);
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Assembles the tokens from a lexer ({@link Lexer}, {@link ByteLexer},
+ * or any other {@link TokenSource}) into records and fields according
+ * to a {@link Dialect}.
+ *
+ * <p>Records refer to the lexer's buffer rather than copying their
+ * content, so they must be freed with {@link #free(Record)} once they
+ * are no longer needed.  Freeing a record frees all the input up to its
+ * end, so free records in the order they were read.  Freed records and
+ * their tokens are reused, so a parser processes input of any size with
+ * a fixed memory footprint and, once warmed up, without allocating.</p>
+ */
+public class Parser implements Iterator<Record>, Iterable<Record> {
+
+    private Dialect dialect;
+    private TokenSource lexer;
+    private Pool<Record> recordPool;
+
+    /** Record read ahead by {@link #hasNext()}. */
+    private Record nextRecord = null;
+
+    private boolean eof = false;
+
+    /** Number of records read and not yet freed. */
+    private int unfreedRecords = 0;
+
+    /** Number of fields in the first record, if lengths are fixed. */
+    private int expectedSize = -1;
+
+    // Whether the escape character escapes and whether doubled quotes
+    // escape
+    private final boolean escapes;
+    private final boolean doubledQuotes;
+
+    /** Projected columns in increasing order, or null for all. */
+    private int[] projection = null;
+
+    /** Names of the columns, if the header has been read. */
+    private String[] header = null;
+
+    /** Schema read by {@link #readBatch(ColumnBatch)}, if set. */
+    private Schema schema = null;
+
+    /** Field of each column of the schema in a projected record. */
+    private int[] schemaFields = null;
+
+    /**
+     * Parses the tokens from the given lexer, which must lex according
+     * to the same dialect.
+     */
+    public Parser(Dialect dialect, TokenSource lexer) {
+        this.dialect = dialect;
+        this.lexer = lexer;
+        recordPool = new Pool<Record>(100);
+        escapes = dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.DOUBLED;
+        doubledQuotes = dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.ESCAPED;
+    }
+
+    public Parser(Dialect dialect, Reader reader, int bufferSize, int queueSize) {
+        this(dialect, new Lexer(dialect, reader, bufferSize, queueSize));
+    }
+
+    public Parser(Dialect dialect, Reader reader) {
+        this(dialect, reader, 1000, 100);
+    }
+
+    /**
+     * Sets the number of fields records must have if lengths are fixed,
+     * as when parsing part of some input whose first record was already
+     * parsed.
+     */
+    void setExpectedSize(int size) {
+        expectedSize = size;
+    }
+
+    /**
+     * Parses only the given columns (0-based).  The fields of each
+     * record are then the projected columns it has, in increasing
+     * order of column (see {@link #getProjection()}), so a short record
+     * has fewer fields.  The lexer only scans the fields of other
+     * columns for where they end, without making tokens for them,
+     * which saves most of the work of parsing wide input.  Lines whose
+     * fields all end before the first projected column have nothing to
+     * project and are skipped like blank lines.  If lengths are fixed,
+     * records must have all the projected columns, but other columns
+     * are not counted.  Must be set before parsing.
+     *
+     * @throws UnsupportedOperationException if the token source is not
+     * a {@link Lexer}
+     * @throws IllegalStateException if parsing has started
+     */
+    public void setProjection(int... columns) {
+        boolean[] projected = new boolean[0];
+        int count = 0;
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException(
+                    "Negative column: " + column);
+            }
+            if (column >= projected.length) {
+                projected = Arrays.copyOf(projected, column + 1);
+            }
+            if (!projected[column]) {
+                projected[column] = true;
+                count++;
+            }
+        }
+        projectingLexer().setProjection(projected);
+        projection = new int[count];
+        count = 0;
+        for (int column = 0; column < projected.length; column++) {
+            if (projected[column]) {
+                projection[count++] = column;
+            }
+        }
+        if (!dialect.allowVariableLengthRecords) {
+            expectedSize = projection.length;
+        }
+    }
+
+    /**
+     * Parses only the columns with the given names, which are looked up
+     * in the header (see {@link #getColumn(String)}).
+     *
+     * @throws IllegalArgumentException if a name is not in the header
+     * @see #setProjection(int...)
+     */
+    public void setProjection(String... names) {
+        int[] columns = new int[names.length];
+        for (int index = 0; index < names.length; index++) {
+            columns[index] = getColumn(names[index]);
+        }
+        setProjection(columns);
+    }
+
+    /**
+     * Skips the records whose value in the given column fails the
+     * given predicate, as well as records that do not have the column.
+     * The lexer tests the value as soon as its field ends and then
+     * skips the rest of a failing line without making tokens, so
+     * filtering out most records saves most of the work of parsing.
+     * Filters on different columns (or the same one) must all pass.
+     * The column need not be projected.  Must be set before parsing.
+     *
+     * @throws UnsupportedOperationException if the token source is not
+     * a {@link Lexer}
+     * @throws IllegalStateException if parsing has started
+     */
+    public void addFilter(int column, FieldPredicate predicate) {
+        projectingLexer().addFilter(column, predicate);
+    }
+
+    /**
+     * Adds a filter on the column with the given name, which is looked
+     * up in the header (see {@link #getColumn(String)}).
+     *
+     * @throws IllegalArgumentException if the name is not in the header
+     * @see #addFilter(int, FieldPredicate)
+     */
+    public void addFilter(String name, FieldPredicate predicate) {
+        addFilter(getColumn(name), predicate);
+    }
+
+    /**
+     * Returns the column with the given name in the header, the first
+     * record.  The header is read (and freed) on first use, so parsing
+     * continues with the records after it.  Look up names before
+     * setting projection or filters by column.
+     *
+     * @throws IllegalArgumentException if the name is not in the header
+     * @throws ParseException if there is no header
+     */
+    public int getColumn(String name) {
+        if (header == null) {
+            readHeader();
+        }
+        for (int column = 0; column < header.length; column++) {
+            if (header[column].equals(name)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("No column named: " + name);
+    }
+
+    private void readHeader() {
+        projectingLexer().pauseAfterLine();
+        Record record = readRecord();
+        if (record == null) {
+            throw new ParseException("No header", 1, 1);
+        }
+        header = new String[record.size()];
+        for (int field = 0; field < header.length; field++) {
+            header[field] = record.getString(field);
+        }
+        free(record);
+    }
+
+    /**
+     * Reads the columns of the given schema with {@link
+     * #readBatch(ColumnBatch)}.  The schema's columns are projected (see
+     * {@link #setProjection(int...)}), with names looked up in the
+     * header.  Must be set before parsing.
+     *
+     * @throws IllegalArgumentException if a name is not in the header
+     * @throws UnsupportedOperationException if the token source is not
+     * a {@link Lexer}
+     * @throws IllegalStateException if parsing has started
+     */
+    public void setSchema(Schema schema) {
+        int[] columns = new int[schema.size()];
+        for (int column = 0; column < columns.length; column++) {
+            String name = schema.getName(column);
+            columns[column] = (name != null ? getColumn(name)
+                               : schema.getIndex(column));
+        }
+        setProjection(columns);
+        schemaFields = new int[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            schemaFields[column] =
+                Arrays.binarySearch(projection, columns[column]);
+        }
+        this.schema = schema;
+    }
+
+    /**
+     * Reads records into the given batch until it is full or the input
+     * ends and returns the number of records read, which is zero at
+     * the end of the input.  Each value is decoded directly into its
+     * column's array without making strings or boxed objects, and
+     * each record is freed once it is read.
+     *
+     * @throws IllegalArgumentException if the batch is not of the
+     * schema set with {@link #setSchema(Schema)}
+     * @throws ParseException if a record does not have a column or a
+     * value is not of its column's type
+     */
+    public int readBatch(ColumnBatch batch) {
+        if (schema == null || batch.getSchema() != schema) {
+            throw new IllegalArgumentException(
+                "Batch is not of the parser's schema: " + batch.getSchema());
+        }
+        batch.size = 0;
+        int capacity = batch.capacity();
+        int size = 0;
+        Record record;
+        while (size < capacity && (record = readRecord()) != null) {
+            try {
+                batch.read(size, record, schemaFields);
+            } finally {
+                free(record);
+            }
+            size++;
+            batch.size = size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the projected columns in increasing order, so that field
+     * {@code i} of a record is column {@code getProjection()[i]}, or
+     * null if all columns are parsed.
+     */
+    public int[] getProjection() {
+        return (projection == null ? null : projection.clone());
+    }
+
+    private Lexer projectingLexer() {
+        if (!(lexer instanceof Lexer)) {
+            throw new UnsupportedOperationException(
+                "Projection needs a Lexer");
+        }
+        return (Lexer) lexer;
+    }
+
+    public Iterator<Record> iterator() {
+        return this;
+    }
+
+    /**
+     * @inheritdoc
+     *
+     * Reads ahead one record if necessary.
+     */
+    public boolean hasNext() {
+        if (nextRecord == null) {
+            nextRecord = readRecord();
+        }
+        return nextRecord != null;
+    }
+
+    public Record next() {
+        Record record = readRecord();
+        if (record == null) {
+            throw new NoSuchElementException();
+        }
+        return record;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gives the given record and its tokens back to be reused and frees
+     * the input up to the end of the record.
+     */
+    public void free(Record record) {
+        // Give the record back first so that freeing it twice fails
+        // before its tokens are freed again
+        recordPool.give(record);
+        unfreedRecords--;
+        freeTokens(record);
+        record.clear();
+    }
+
+    private void freeTokens(Record record) {
+        for (int index = 0; index < record.tokenCount; index++) {
+            Pool.checkGeneration(record.tokens[index],
+                                 record.tokenGenerations[index]);
+            lexer.free(record.tokens[index]);
+            record.tokens[index] = null;
+        }
+    }
+
+    /**
+     * Returns the pool of freed records, whose statistics show how well
+     * records are being reused.
+     */
+    public Pool<Record> getRecordPool() {
+        return recordPool;
+    }
+
+    /*
+     * The Parsing Algorithm
+     * ---------------------
+     *
+     * Parsing is a state machine over tokens.  Each record is one line
+     * of input (where lines may continue inside quotes) and each field
+     * is either quoted or unquoted.
+     *
+     * A field starts in FIELD_START.  Leading space is skipped if
+     * trimming space.  A quote starts a quoted field.  Anything else
+     * starts an unquoted field.  An unquoted field extends until a
+     * delimiter, newline, or comment and ends after its last non-space
+     * token if trimming space.  Inside an unquoted field a quote is
+     * just content.  A quoted field extends until its closing quote and
+     * may contain anything, including delimiters and newlines.  Only
+     * space may come between a closing quote and the end of the field.
+     *
+     * Depending on the quote escape style, an escape character makes
+     * the following character literal (in quoted and unquoted fields)
+     * and two quotes in a quoted field stand for one quote.  Fields
+     * with such escape sequences are flagged so that their values are
+     * decoded when requested.
+     *
+     * If comments are allowed, an unquoted comment character ends the
+     * content of the line.  A line that is only a comment or only space
+     * is skipped if allowed.
+     */
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int UNQUOTED_ESCAPE = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTED_ESCAPE = 4;
+    private static final int AFTER_QUOTE = 5;
+    private static final int AFTER_CLOSE = 6;
+    private static final int COMMENT = 7;
+    private static final int COMMENT_LINE = 8;
+
+    // State of the field being parsed.  The field starts (for
+    // provenance) at fieldStart, but its content starts at
+    // fieldPosition, after any opening quote.
+    private long fieldStart;
+    private long fieldPosition;
+    private long fieldEnd;
+    private byte fieldFlags;
+    private long fieldLine;
+    private int fieldColumn;
+
+    /**
+     * Reads and returns the next record or returns null if there are
+     * no more records.
+     *
+     * @throws ParseException if the input is malformed.  The parser
+     * cannot continue after an error.
+     */
+    @SuppressWarnings("fallthrough")
+    public Record readRecord() {
+        if (nextRecord != null) {
+            Record record = nextRecord;
+            nextRecord = null;
+            return record;
+        }
+        if (eof) {
+            return null;
+        }
+
+        Record record = recordPool.take();
+        if (record == null) {
+            record = new Record(lexer, dialect);
+        }
+
+        int state = FIELD_START;
+        // Whether the current line has any tokens and whether it has
+        // any tokens other than leading space (that is, whether it is
+        // blank)
+        boolean lineHasTokens = false;
+        boolean lineHasContent = false;
+        long quotePosition = 0;
+        Token previous = null;
+
+        while (true) {
+            Token token = lexer.readToken();
+            Token.Type type;
+            if (token == null) {
+                type = Token.Type.EOF;
+                eof = true;
+            } else {
+                type = token.type;
+                record.addToken(token);
+                if (type == Token.Type.REJECT) {
+                    // The lexer skipped the rest of a line that failed
+                    // a filter, so drop the record and start over
+                    skipLines(record);
+                    state = FIELD_START;
+                    lineHasTokens = false;
+                    lineHasContent = false;
+                    previous = null;
+                    continue;
+                }
+                if (!lineHasTokens) {
+                    record.position = token.position;
+                    record.line = token.line;
+                    record.column = token.column;
+                    lineHasTokens = true;
+                }
+            }
+
+            switch (state) {
+            case FIELD_START:
+                switch (type) {
+                case SPACE:
+                    if (!dialect.trimSpace) {
+                        startField(token, (byte) 0);
+                        state = UNQUOTED;
+                        lineHasContent = true;
+                    }
+                    break;
+                case QUOTE:
+                    startField(token, Record.QUOTED);
+                    fieldPosition = fieldEnd;
+                    state = QUOTED;
+                    lineHasContent = true;
+                    break;
+                case DELIMITER:
+                    if (projection != null && !lineHasContent) {
+                        // When projecting, a delimiter marks the start
+                        // of the first field of the line
+                        lineHasContent = true;
+                        break;
+                    }
+                    // When projecting, the delimiter after an empty
+                    // field may not be a token, but it comes right
+                    // after the previous token
+                    emptyField((projection == null ? token : null),
+                               previous);
+                    finishField(record);
+                    lineHasContent = true;
+                    break;
+                case NEWLINE:
+                case EOF:
+                    if (lineHasContent) {
+                        // A delimiter ended the line, so there is one
+                        // last empty field
+                        emptyField((projection == null ? token : null),
+                                   previous);
+                        finishField(record);
+                        return endRecord(record);
+                    }
+                    // The line is blank
+                    // (When projecting, a line may only look blank.)
+                    if (lineHasTokens && !dialect.allowBlankLines
+                        && projection == null) {
+                        throw error("Blank line", record.position,
+                                    record.line, record.column);
+                    }
+                    if (type == Token.Type.EOF) {
+                        return endInput(record);
+                    }
+                    skipLines(record);
+                    lineHasTokens = false;
+                    break;
+                case COMMENT:
+                    if (dialect.allowComments) {
+                        if (lineHasContent) {
+                            emptyField(token, previous);
+                            finishField(record);
+                            state = COMMENT;
+                        } else {
+                            state = COMMENT_LINE;
+                        }
+                        break;
+                    }
+                    startField(token, (byte) 0);
+                    state = UNQUOTED;
+                    lineHasContent = true;
+                    break;
+                case ESCAPE:
+                    if (escapes) {
+                        startField(token, Record.ESCAPED);
+                        state = UNQUOTED_ESCAPE;
+                    } else {
+                        startField(token, (byte) 0);
+                        state = UNQUOTED;
+                    }
+                    lineHasContent = true;
+                    break;
+                default:
+                    startField(token, (byte) 0);
+                    state = UNQUOTED;
+                    lineHasContent = true;
+                }
+                break;
+
+            case UNQUOTED:
+                switch (type) {
+                case SPACE:
+                    if (!dialect.trimSpace) {
+                        fieldEnd = token.position + token.length;
+                    }
+                    break;
+                case DELIMITER:
+                    finishField(record);
+                    state = FIELD_START;
+                    break;
+                case NEWLINE:
+                case EOF:
+                    finishField(record);
+                    return endRecord(record);
+                case COMMENT:
+                    if (dialect.allowComments) {
+                        finishField(record);
+                        state = COMMENT;
+                    } else {
+                        fieldEnd = token.position + token.length;
+                    }
+                    break;
+                case ESCAPE:
+                    if (escapes) {
+                        fieldFlags |= Record.ESCAPED;
+                        state = UNQUOTED_ESCAPE;
+                    } else {
+                        fieldEnd = token.position + token.length;
+                    }
+                    break;
+                default:
+                    fieldEnd = token.position + token.length;
+                }
+                break;
+
+            case UNQUOTED_ESCAPE:
+                // Whatever follows an escape is content.  Only the first
+                // character of space is escaped, the rest may be
+                // trimmed.
+                if (type == Token.Type.EOF) {
+                    throw error("Incomplete escape sequence",
+                                fieldStart, fieldLine, fieldColumn);
+                } else if (type == Token.Type.SPACE && dialect.trimSpace) {
+                    fieldEnd = token.position + 1;
+                } else {
+                    fieldEnd = token.position + token.length;
+                }
+                state = UNQUOTED;
+                break;
+
+            case QUOTED:
+                switch (type) {
+                case QUOTE:
+                    quotePosition = token.position;
+                    state = AFTER_QUOTE;
+                    break;
+                case ESCAPE:
+                    if (escapes) {
+                        fieldFlags |= Record.ESCAPED;
+                        state = QUOTED_ESCAPE;
+                    }
+                    break;
+                case EOF:
+                    throw error("Unterminated quoted field",
+                                fieldStart, fieldLine, fieldColumn);
+                default:
+                    // Everything else is content
+                }
+                break;
+
+            case QUOTED_ESCAPE:
+                if (type == Token.Type.EOF) {
+                    throw error("Unterminated quoted field",
+                                fieldStart, fieldLine, fieldColumn);
+                }
+                state = QUOTED;
+                break;
+
+            case AFTER_QUOTE:
+                // The previous quote is either the first of a doubled
+                // quote or the closing quote
+                if (type == Token.Type.QUOTE && doubledQuotes) {
+                    fieldFlags |= Record.ESCAPED;
+                    state = QUOTED;
+                    break;
+                }
+                fieldEnd = quotePosition;
+                state = AFTER_CLOSE;
+                // Fall through to handle this token after the close
+
+            case AFTER_CLOSE:
+                switch (type) {
+                case SPACE:
+                    if (dialect.trimSpace) {
+                        break;
+                    }
+                    throw unexpectedAfterQuote(token);
+                case DELIMITER:
+                    finishField(record);
+                    state = FIELD_START;
+                    break;
+                case NEWLINE:
+                case EOF:
+                    finishField(record);
+                    return endRecord(record);
+                case COMMENT:
+                    if (dialect.allowComments) {
+                        finishField(record);
+                        state = COMMENT;
+                        break;
+                    }
+                    throw unexpectedAfterQuote(token);
+                default:
+                    throw unexpectedAfterQuote(token);
+                }
+                break;
+
+            case COMMENT:
+                if (type == Token.Type.NEWLINE || type == Token.Type.EOF) {
+                    return endRecord(record);
+                }
+                break;
+
+            case COMMENT_LINE:
+                if (type == Token.Type.EOF) {
+                    return endInput(record);
+                } else if (type == Token.Type.NEWLINE) {
+                    // Skip the line and start over
+                    skipLines(record);
+                    lineHasTokens = false;
+                    state = FIELD_START;
+                }
+                break;
+            }
+
+            previous = token;
+        }
+    }
+
+    private void startField(Token token, byte flags) {
+        fieldStart = token.position;
+        fieldPosition = token.position;
+        fieldEnd = token.position + token.length;
+        fieldFlags = flags;
+        fieldLine = token.line;
+        fieldColumn = token.column;
+    }
+
+    /**
+     * Starts an empty field at the given token or, if at EOF, after
+     * the previous token.
+     */
+    private void emptyField(Token token, Token previous) {
+        if (token != null) {
+            startField(token, (byte) 0);
+            fieldEnd = fieldPosition;
+        } else {
+            fieldPosition = previous.position + previous.length;
+            fieldStart = fieldPosition;
+            fieldEnd = fieldPosition;
+            fieldFlags = 0;
+            fieldLine = previous.line;
+            fieldColumn = previous.column + previous.length;
+        }
+    }
+
+    private void finishField(Record record) {
+        record.addField(fieldPosition, (int)(fieldEnd - fieldPosition),
+                        fieldFlags, fieldLine, fieldColumn);
+    }
+
+    private Record endRecord(Record record) {
+        if (!dialect.allowVariableLengthRecords) {
+            if (expectedSize < 0) {
+                expectedSize = record.size;
+            } else if (record.size != expectedSize) {
+                throw error(
+                    String.format("Record has %d fields instead of %d",
+                                  record.size, expectedSize),
+                    record.position, record.line, record.column);
+            }
+        }
+        unfreedRecords++;
+        return record;
+    }
+
+    /**
+     * Gives back the tokens of the skipped lines in the given record,
+     * freeing their input, and clears the record.  Freeing input frees
+     * everything before it, so while earlier records are still in use
+     * the tokens are dropped instead, and their input is freed along
+     * with the next record.
+     */
+    private void skipLines(Record record) {
+        if (unfreedRecords == 0) {
+            freeTokens(record);
+        } else {
+            Arrays.fill(record.tokens, 0, record.tokenCount, null);
+        }
+        record.clear();
+    }
+
+    /** Recycles the unused record and signals the end of input. */
+    private Record endInput(Record record) {
+        skipLines(record);
+        recordPool.give(record);
+        return null;
+    }
+
+    private ParseException unexpectedAfterQuote(Token token) {
+        return error("Unexpected content after closing quote",
+                     token.position, token.line, token.column);
+    }
+
+    /**
+     * Makes an exception for a problem at the given position, which is
+     * at the given line and column unless provenance is lazy, in which
+     * case they are found from the position.
+     */
+    private ParseException error(String message, long position,
+                                 long line, int column) {
+        if (lexer.hasLazyProvenance()) {
+            line = lexer.lineAt(position);
+            column = lexer.columnAt(position);
+        }
+        return new ParseException(message, line, column);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Measures end-to-end parsing on each of the generated corpora (see
+ * {@link Benchmark#corpora(int)}) in characters (or bytes) per second,
+ * and lexing in tokens per second.  Every parser visits the length of
+ * every field.  The baseline reads lines and splits them on commas,
+ * which is the naive approach and wrong for quoted fields, but a useful
+ * upper bound.  See {@link CommonsCsvBenchmark} for a comparison with
+ * Apache Commons CSV.
+ */
+public class ParserBenchmark {
+
+    public static Benchmark lexerTokens(String corpus, final String text) {
+        return new Benchmark(String.format("Lexer tokens (%s)", corpus)) {
+            public long run() throws Exception {
+                Lexer lexer = new Lexer(RFC4180, new StringReader(text));
+                long tokens = 0;
+                Token token;
+                while ((token = lexer.readToken()) != null) {
+                    tokens++;
+                    lexer.free(token);
+                }
+                return tokens;
+            }
+        };
+    }
+
+    public static Benchmark parsing(String corpus, final String text) {
+        return new Benchmark(String.format("jcsv Parser (%s)", corpus)) {
+            public long run() throws Exception {
+                Parser parser = new Parser(RFC4180, new StringReader(text));
+                CharView view = new CharView();
+                long length = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    for (int field = 0; field < record.size(); field++) {
+                        length += record.getView(field, view).length();
+                    }
+                    parser.free(record);
+                }
+                sink = length;
+                return text.length();
+            }
+        };
+    }
+
+    public static Benchmark byteParsing(String corpus, final byte[] bytes) {
+        return byteParsing(corpus, bytes, false);
+    }
+
+    public static Benchmark byteParsing(String corpus, final byte[] bytes,
+                                        final boolean lazy) {
+        return new Benchmark(String.format(
+                "jcsv ByteLexer%s (%s)", lazy ? " lazy" : "",
+                corpus)) {
+            public long run() throws Exception {
+                ByteLexer lexer =
+                    new ByteLexer(RFC4180, ByteBuffer.wrap(bytes));
+                lexer.setLazyProvenance(lazy);
+                Parser parser = new Parser(RFC4180, lexer);
+                long length = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    for (int field = 0; field < record.size(); field++) {
+                        // Bytes, to avoid measuring decoding
+                        length += record.fieldLengths[field];
+                    }
+                    parser.free(record);
+                }
+                sink = length;
+                return bytes.length;
+            }
+        };
+    }
+
+    public static Benchmark splitting(String corpus, final String text) {
+        return new Benchmark(String.format("String.split (%s)", corpus)) {
+            public long run() throws Exception {
+                BufferedReader reader =
+                    new BufferedReader(new StringReader(text));
+                long length = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    for (String field : line.split(",", -1)) {
+                        length += field.length();
+                    }
+                }
+                sink = length;
+                return text.length();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        for (Map.Entry<String, String> corpus :
+                 Benchmark.corpora(4000000).entrySet()) {
+            String name = corpus.getKey();
+            String text = corpus.getValue();
+            lexerTokens(name, text).measure();
+            parsing(name, text).measure();
+            byteParsing(name, text.getBytes(utf8)).measure();
+            byteParsing(name, text.getBytes(utf8), true).measure();
+            splitting(name, text).measure();
+        }
+    }
+}
@@ -0,0 +1,928 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParserTest {
+
+    /** Like LOOSE but nothing is allowed and quotes are doubled. */
+    static final Dialect STRICT =
+        new Dialect(',', '"', '\\', '#',
+                    Dialect.QuoteEscapeStyle.DOUBLED,
+                    false, false, false, false);
+
+    private Parser parser;
+
+    public Parser makeParser(Dialect dialect, String input) {
+        return new Parser(dialect, new StringReader(input));
+    }
+
+    /**
+     * Parses all the records and checks their field values.  Frees
+     * each record after checking it.
+     */
+    public void checkRecords(String[][] records) {
+        int recordIndex = 0;
+        Record record = parser.readRecord();
+        while (record != null && recordIndex < records.length) {
+            String[] fields = records[recordIndex];
+            assertEquals("Size mismatch at record " + (recordIndex + 1),
+                         fields.length, record.size());
+            for (int field = 0; field < fields.length; field++) {
+                assertEquals(String.format("Field mismatch at record %d, field %d",
+                                           recordIndex + 1, field + 1),
+                             fields[field], record.getString(field));
+            }
+            parser.free(record);
+            recordIndex++;
+            record = parser.readRecord();
+        }
+        assertEquals(records.length, recordIndex);
+        assertNull(record);
+    }
+
+    /** Makes a parser whose lexer finds lines and columns on demand. */
+    public Parser makeLazyParser(Dialect dialect, String input) {
+        Lexer lexer = new Lexer(dialect, new StringReader(input));
+        lexer.setLazyProvenance(true);
+        return new Parser(dialect, lexer);
+    }
+
+    public void checkError(Dialect dialect, String input,
+                           long line, int column) {
+        for (boolean lazy : new boolean[] {false, true}) {
+            parser = (lazy ? makeLazyParser(dialect, input)
+                      : makeParser(dialect, input));
+            try {
+                while (parser.readRecord() != null) {
+                }
+                fail("Expected a ParseException");
+            } catch (ParseException e) {
+                assertEquals("Lazy " + lazy, line, e.getLine());
+                assertEquals("Lazy " + lazy, column, e.getColumn());
+            }
+        }
+    }
+
+    // These tests line up with TestText.java.
+
+    @Test public void readRecord_empty() {
+        parser = makeParser(Dialect.LOOSE, TestText.empty);
+        assertNull(parser.readRecord());
+    }
+
+    @Test public void readRecord_delimiters() {
+        String[][] records = {
+            {"", "", "", ""},
+            {"", "", ""},
+            {"", ""},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.delimiters);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_space() {
+        parser = makeParser(Dialect.LOOSE, TestText.space);
+        assertNull(parser.readRecord());
+    }
+
+    @Test public void readRecord_quotesAndEscapes() {
+        String[][] records = {
+            {"'''\\", "'''''", "\"\",\"\""},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.quotesAndEscapes);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_comment() {
+        String[][] records = {
+            {"data"},
+            {"data"},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.comment);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_singleData() {
+        String[][] records = {
+            {"single-data"},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.singleData);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_multilineField() {
+        String[][] records = {
+            {"one 1", "two\n2", "three 3"},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.multilineField);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_magicSquare3x3() {
+        String[][] records = {
+            {"4", "9", "2"},
+            {"3", "5", "7"},
+            {"8", "1", "6"},
+        };
+        parser = makeParser(STRICT, TestText.magicSquare3x3);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_poem128() {
+        String[][] records = {
+            {"one", "two", "space for you", ""},
+            {"three", "four", "who wants more?", "???"},
+            {"five", "six", "call it quits!", "..."},
+            {"seven", "eight", "but wait:"},
+            {"9", "10", "again!"},
+        };
+        parser = makeParser(Dialect.LOOSE, TestText.poem128);
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_poem128NoTrim() {
+        Dialect dialect =
+            new Dialect(',', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        false, true, true, true);
+        String[][] records = {
+            {"one", " two", " space for you  ", ""},
+            {"three", "four", " who wants more?", " ???"},
+            {" five", " six", " call it quits! ", " ..."},
+            {"seven", " eight", "but wait:"},
+            {"9", "10", "again!"},
+        };
+        parser = makeParser(dialect, TestText.poem128);
+        checkRecords(records);
+    }
+
+    ////////////////////////////////////////
+    // Quoting and escaping
+
+    @Test public void readRecord_quoted() {
+        String[][] records = {
+            {"a,b", "", "c\r\nd", "e"},
+            {"say \"hi\"", "x", "", "\""},
+        };
+        parser = makeParser(STRICT,
+                            "\"a,b\",\"\",\"c\r\nd\",e\r\n" +
+                            "\"say \"\"hi\"\"\",x,,\"\"\"\"\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_doubledIgnoresEscapes() {
+        String[][] records = {
+            {"a\\", "\\\""},
+        };
+        parser = makeParser(STRICT, "\"a\\\",\\\"\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_escaped() {
+        Dialect dialect =
+            new Dialect(',', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.ESCAPED,
+                        true, true, true, true);
+        String[][] records = {
+            {"a,b", "\"q\"", "c\nd", "e\\"},
+        };
+        parser = makeParser(dialect, "a\\,b, \"\\\"q\\\"\" ,c\\\nd,\"e\\\\\"\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_trailingEscapedSpace() {
+        String[][] records = {
+            {"a ", "b"},
+        };
+        parser = makeParser(Dialect.LOOSE, "a\\  ,b");
+        checkRecords(records);
+    }
+
+    ////////////////////////////////////////
+    // Dialect options
+
+    @Test public void readRecord_blankLines() {
+        String[][] records = {
+            {"a"},
+            {"b"},
+        };
+        parser = makeParser(Dialect.LOOSE, "\n  \na\n\r\n \t\nb\n\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_skippedLinesFreed() {
+        StringBuilder builder = new StringBuilder();
+        for (int line = 0; line < 1000; line++) {
+            builder.append("# comment\n  \n");
+        }
+        builder.append("a\n# comment\n\n");
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new StringReader(builder.toString()), 16, 4);
+        parser = new Parser(Dialect.LOOSE, lexer);
+        Record record = parser.readRecord();
+        assertEquals("a", record.getString(0));
+        parser.free(record);
+        assertNull(parser.readRecord());
+        // The input of skipped lines is freed as they are skipped
+        assertTrue(lexer.getBufferCapacity() <= 64);
+        Pool<Token> pool = lexer.getTokenPool();
+        assertTrue(pool.misses() <= 16);
+    }
+
+    @Test public void readRecord_skippedLinesWhileHeld() {
+        Lexer lexer = new Lexer(Dialect.LOOSE, new StringReader(
+            "a,b\n# comment\n\nc,d\n# comment\n"), 16, 4);
+        parser = new Parser(Dialect.LOOSE, lexer);
+        Record first = parser.readRecord();
+        Record second = parser.readRecord();
+        assertNull(parser.readRecord());
+        // Skipping lines does not free the input of unfreed records
+        assertEquals("a", first.getString(0));
+        assertEquals("d", second.getString(1));
+    }
+
+    @Test public void readRecord_commentsNotAllowed() {
+        String[][] records = {
+            {"#a", "b#c"},
+        };
+        parser = makeParser(STRICT, "#a,b#c\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_trailingComment() {
+        String[][] records = {
+            {"a", ""},
+            {"b"},
+        };
+        parser = makeParser(Dialect.LOOSE, "a,# comment, \"\n\"b\" # c\n");
+        checkRecords(records);
+    }
+
+    @Test public void readRecord_noTrailingNewline() {
+        String[][] records = {
+            {"a", "b"},
+            {"c", ""},
+        };
+        parser = makeParser(Dialect.LOOSE, "a,b\nc,");
+        checkRecords(records);
+    }
+
+    ////////////////////////////////////////
+    // Provenance
+
+    @Test public void readRecord_provenance() {
+        parser = makeParser(Dialect.LOOSE,
+                            "# c\n\n  a, \"b\n\",c\nd\n");
+        checkProvenance();
+    }
+
+    @Test public void readRecord_lazyProvenance() {
+        parser = makeLazyParser(Dialect.LOOSE,
+                                "# c\n\n  a, \"b\n\",c\nd\n");
+        checkProvenance();
+    }
+
+    public void checkProvenance() {
+        Record record = parser.readRecord();
+        assertEquals(5, record.position());
+        assertEquals(3, record.line());
+        assertEquals(1, record.column());
+        assertEquals(3, record.getLine(0));
+        assertEquals(3, record.getColumn(0));
+        assertEquals(3, record.getLine(1));
+        assertEquals(6, record.getColumn(1));
+        assertTrue(record.isQuoted(1));
+        assertEquals(4, record.getLine(2));
+        assertEquals(3, record.getColumn(2));
+        parser.free(record);
+        record = parser.readRecord();
+        assertEquals(5, record.line());
+        assertEquals("d", record.getString(0));
+        parser.free(record);
+        assertNull(parser.readRecord());
+    }
+
+    @Test public void getView() {
+        parser = makeParser(Dialect.LOOSE,
+                            "plain, \"quoted\", \"\"\"doubled\"\"\",es\\,caped\n");
+        Record record = parser.readRecord();
+        CharView view = new CharView();
+        String[] values = {"plain", "quoted", "\"doubled\"", "es,caped"};
+        for (int field = 0; field < values.length; field++) {
+            assertSame(view, record.getView(field, view));
+            assertTrue(values[field], view.contentEquals(values[field]));
+            assertEquals(values[field], view.toString());
+            assertEquals(values[field].substring(1, 4),
+                         view.subSequence(1, 4).toString());
+        }
+    }
+
+    @Test public void getNumbers() {
+        parser = makeParser(Dialect.LOOSE,
+                            "1, \"-2\", 3.5e1 ,\\4\n5,x,\n");
+        Record record = parser.readRecord();
+        assertEquals(1, record.getInt(0));
+        assertEquals(-2L, record.getLong(1));
+        assertEquals(35.0, record.getDouble(2), 0.0);
+        assertEquals(4, record.getInt(3));
+        parser.free(record);
+        record = parser.readRecord();
+        assertEquals(5.0, record.getDouble(0), 0.0);
+        try {
+            record.getLong(1);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(3, e.getColumn());
+        }
+        try {
+            record.getDouble(2);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(5, e.getColumn());
+        }
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void getString_noSuchField() {
+        parser = makeParser(Dialect.LOOSE, TestText.magicSquare3x3);
+        parser.readRecord().getString(3);
+    }
+
+    ////////////////////////////////////////
+    // Errors
+
+    @Test public void error_unterminatedQuote() {
+        checkError(Dialect.LOOSE, "a,b\nc,\"d\n", 2, 3);
+    }
+
+    @Test public void error_contentAfterQuote() {
+        checkError(Dialect.LOOSE, "\"a\" b,c\n", 1, 5);
+        checkError(STRICT, "\"a\" ,c\n", 1, 4);
+    }
+
+    @Test public void error_blankLine() {
+        checkError(STRICT, "a\n\nb\n", 2, 1);
+    }
+
+    @Test public void error_variableLength() {
+        checkError(STRICT, "a,b\nc,d\ne\n", 3, 1);
+    }
+
+    @Test public void error_incompleteEscape() {
+        checkError(Dialect.LOOSE, "a,b\\", 1, 3);
+    }
+
+    ////////////////////////////////////////
+    // Iteration and reuse
+
+    @Test public void iterator_magicSquare3x3() {
+        parser = makeParser(Dialect.LOOSE, TestText.magicSquare3x3);
+        int records = 0;
+        int sum = 0;
+        for (Record record : parser) {
+            for (int field = 0; field < record.size(); field++) {
+                sum += Integer.parseInt(record.getString(field));
+            }
+            parser.free(record);
+            records++;
+        }
+        assertEquals(3, records);
+        assertEquals(45, sum);
+    }
+
+    @Test public void free_reusesRecords() {
+        parser = makeParser(Dialect.LOOSE, TestText.poem128);
+        Record first = parser.readRecord();
+        parser.free(first);
+        Record second = parser.readRecord();
+        assertSame(first, second);
+        assertEquals("three", second.getString(0));
+    }
+
+    ////////////////////////////////////////
+    // Projection
+
+    /** Input with every kind of field, including multiline ones. */
+    static final String projectable =
+        "# comment, with, delimiters\n"
+        + "a, \"b,\nb\" ,c,d\\,d,e\n"
+        + "\n"
+        + ",,\r\n"
+        + "f\r"
+        + "  g  ,\"h\"\"\r\nh\",i # trailing, comment\n"
+        + "\\\r\nj,k,\"l\\\"\",m,n,o\n"
+        + "w,\\\r\n\nx,y\r\n\nz\n"
+        + "p,q,r,s,t,u,v";
+
+    /**
+     * Checks that parsing the given columns gets the same fields (and
+     * provenance) as parsing everything and picking those columns.
+     * Uses a small queue and block to exercise resuming lexing.
+     */
+    public void checkProjection(Dialect dialect, String input,
+                                boolean lazy, int... columns) {
+        Lexer full = new Lexer(dialect, new StringReader(input));
+        Lexer projected = new Lexer(dialect, new StringReader(input),
+                                    16, 4, 8);
+        full.setLazyProvenance(lazy);
+        projected.setLazyProvenance(lazy);
+        Parser expected = new Parser(dialect, full);
+        parser = new Parser(dialect, projected);
+        parser.setProjection(columns);
+        int[] projection = parser.getProjection();
+        String message = Arrays.toString(columns) + " lazy " + lazy;
+        for (Record record : expected) {
+            if (record.size() <= projection[0]) {
+                // Nothing to project
+                expected.free(record);
+                continue;
+            }
+            Record actual = parser.readRecord();
+            assertNotNull(message, actual);
+            int field = 0;
+            while (field < projection.length
+                   && projection[field] < record.size()) {
+                int column = projection[field];
+                assertEquals(message, record.getString(column),
+                             actual.getString(field));
+                assertEquals(message, record.getLine(column),
+                             actual.getLine(field));
+                assertEquals(message, record.getColumn(column),
+                             actual.getColumn(field));
+                field++;
+            }
+            assertEquals(message, field, actual.size());
+            parser.free(actual);
+            expected.free(record);
+        }
+        assertNull(message, parser.readRecord());
+    }
+
+    @Test public void setProjection_matchesFullParse() {
+        int[][] projections = {
+            {0}, {1}, {2}, {3}, {4}, {5}, {6}, {7},
+            {0, 1}, {0, 2}, {1, 3}, {2, 0}, {1, 2, 3}, {0, 3, 6},
+            {2, 4, 5}, {0, 1, 2, 3, 4, 5, 6},
+        };
+        for (boolean lazy : new boolean[] {false, true}) {
+            for (int[] columns : projections) {
+                checkProjection(Dialect.LOOSE, projectable, lazy, columns);
+            }
+        }
+    }
+
+    @Test public void setProjection_returnThenNewlines() {
+        // "\r\n\n" is two newlines, whether projecting or not, even
+        // when the first is escaped
+        Dialect dialect =
+            new Dialect(';', '"', '\\', '#',
+                        Dialect.QuoteEscapeStyle.EITHER,
+                        false, true, false, true);
+        String input = "a;\\\r\n\nb;c\n";
+        parser = makeParser(dialect, input);
+        String[][] records = {
+            {"a", "\r\n"},
+            {"b", "c"},
+        };
+        checkRecords(records);
+        for (int[] columns : new int[][] {{0}, {1}, {0, 1}}) {
+            checkProjection(dialect, input, false, columns);
+            checkProjection(dialect, input, true, columns);
+        }
+    }
+
+    /** Describes the records of the given parser, freeing them. */
+    static String describeAll(Parser parser) {
+        StringBuilder builder = new StringBuilder();
+        Record record;
+        while ((record = parser.readRecord()) != null) {
+            for (int field = 0; field < record.size(); field++) {
+                builder.append(record.getString(field)).append('|');
+            }
+            builder.append('\n');
+            parser.free(record);
+        }
+        return builder.toString();
+    }
+
+    @Test public void setProjection_tinyQueue() {
+        // A queue too small for the tokens of one character is grown
+        // rather than stopping lexing
+        String expected = null;
+        for (int queueSize : new int[] {100, 0, 1, 2}) {
+            for (boolean filter : new boolean[] {false, true}) {
+                parser = new Parser(Dialect.LOOSE, new Lexer(
+                    Dialect.LOOSE, new StringReader(projectable),
+                    16, queueSize, 8));
+                parser.setProjection(1, 2);
+                if (filter) {
+                    parser.addFilter(0, FieldPredicate.startsWith(""));
+                }
+                String actual = describeAll(parser);
+                if (expected == null) {
+                    expected = actual;
+                    assertFalse(expected.isEmpty());
+                }
+                assertEquals("Queue size " + queueSize, expected, actual);
+            }
+        }
+        parser = new Parser(Dialect.LOOSE, new Lexer(
+            Dialect.LOOSE, new StringReader("a,b\nc,d\n"), 16, 1, 8));
+        parser.addFilter(1, FieldPredicate.equalTo("d"));
+        assertEquals("c|d|\n", describeAll(parser));
+    }
+
+    @Test public void setProjection_wide() {
+        StringBuilder input = new StringBuilder();
+        for (int line = 0; line < 50; line++) {
+            for (int column = 0; column < 40; column++) {
+                if (column > 0) {
+                    input.append(',');
+                }
+                if (column % 7 == 3) {
+                    input.append("\"q,").append(line).append("\"");
+                } else {
+                    input.append(line * column);
+                }
+            }
+            input.append('\n');
+        }
+        checkProjection(STRICT, input.toString(), false, 3, 17, 39);
+        checkProjection(STRICT, input.toString(), true, 0, 10, 24);
+    }
+
+    @Test public void setProjection_names() {
+        parser = makeParser(STRICT, "id,name,age,city\n"
+                            + "1,Ann,31,Oslo\n2,\"Bo, Jr\",5,Rome\n");
+        parser.setProjection("city", "id");
+        assertArrayEquals(new int[] {0, 3}, parser.getProjection());
+        String[][] records = {
+            {"1", "Oslo"},
+            {"2", "Rome"},
+        };
+        checkRecords(records);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setProjection_noSuchName() {
+        parser = makeParser(STRICT, "id,name\n1,Ann\n");
+        parser.setProjection("age");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setProjection_afterParsing() {
+        parser = makeParser(STRICT, "id,name\n1,Ann\n");
+        parser.hasNext();
+        parser.setProjection(1);
+    }
+
+    @Test public void setProjection_fixedLength() {
+        // Only the projected columns are counted
+        parser = makeParser(STRICT, "a,b,c\nd,e,f,g\n");
+        parser.setProjection(0, 2);
+        String[][] records = {
+            {"a", "c"},
+            {"d", "f"},
+        };
+        checkRecords(records);
+        parser = makeParser(STRICT, "a,b,c\nd,e\n");
+        parser.setProjection(0, 2);
+        parser.free(parser.readRecord());
+        try {
+            parser.readRecord();
+            fail("Expected a ParseException");
+        } catch (ParseException e) {
+            assertEquals(2, e.getLine());
+            assertEquals(1, e.getColumn());
+        }
+    }
+
+    ////////////////////////////////////////
+    // Filtering
+
+    /**
+     * Checks that filtering (and projecting the given columns, unless
+     * null) gets the same records as parsing everything and then
+     * filtering and picking columns.
+     */
+    public void checkFilter(Dialect dialect, String input, int column,
+                            FieldPredicate predicate, int[] columns) {
+        Parser expected = makeParser(dialect, input);
+        parser = new Parser(dialect, new Lexer(dialect,
+                                               new StringReader(input),
+                                               16, 4, 8));
+        parser.addFilter(column, predicate);
+        if (columns != null) {
+            parser.setProjection(columns);
+        }
+        int[] projection = parser.getProjection();
+        String message = String.format("column %d %s projection %s",
+                                       column, predicate,
+                                       Arrays.toString(columns));
+        for (Record record : expected) {
+            if (record.size() <= column
+                || !predicate.test(record.getString(column))
+                || (projection != null && record.size() <= projection[0])) {
+                expected.free(record);
+                continue;
+            }
+            Record actual = parser.readRecord();
+            assertNotNull(message, actual);
+            int size = 0;
+            for (int field = 0; field < record.size(); field++) {
+                int index = field;
+                if (projection != null) {
+                    index = Arrays.binarySearch(projection, field);
+                    if (index < 0) {
+                        continue;
+                    }
+                }
+                assertEquals(message, record.getString(field),
+                             actual.getString(index));
+                assertEquals(message, record.getLine(field),
+                             actual.getLine(index));
+                size++;
+            }
+            assertEquals(message, size, actual.size());
+            parser.free(actual);
+            expected.free(record);
+        }
+        assertNull(message, parser.readRecord());
+    }
+
+    @Test public void addFilter_matchesFullParse() {
+        FieldPredicate[] predicates = {
+            FieldPredicate.equalTo(""),
+            FieldPredicate.equalTo("a"),
+            FieldPredicate.equalTo("d,d"),
+            FieldPredicate.equalTo("h\"\r\nh"),
+            FieldPredicate.equalTo("l\""),
+            FieldPredicate.startsWith("b"),
+            FieldPredicate.startsWith("\r\n"),
+            FieldPredicate.startsWith(""),
+        };
+        int[][] projections = {null, {0}, {1}, {0, 2}, {1, 3}, {4, 5}};
+        for (int column = 0; column < 7; column++) {
+            for (FieldPredicate predicate : predicates) {
+                for (int[] columns : projections) {
+                    checkFilter(Dialect.LOOSE, projectable, column,
+                                predicate, columns);
+                }
+            }
+        }
+    }
+
+    @Test public void addFilter_numeric() {
+        StringBuilder input = new StringBuilder();
+        for (int line = 0; line < 100; line++) {
+            input.append(line).append(",\"x").append(line % 7)
+                .append("\",").append(line * 0.5).append(",y\n");
+        }
+        String text = input.toString();
+        FieldPredicate range = FieldPredicate.between(10, 20.5);
+        checkFilter(STRICT, text, 2, range, null);
+        checkFilter(STRICT, text, 2, range, new int[] {1});
+        checkFilter(STRICT, text, 1, FieldPredicate.equalTo("x3"),
+                    new int[] {0, 3});
+        checkFilter(STRICT, text, 0, FieldPredicate.startsWith("4"),
+                    new int[] {2});
+    }
+
+    @Test public void addFilter_names() {
+        parser = makeParser(STRICT, "id,name,age\n"
+                            + "1,Ann,31\n2,Bo,5\n3,Cy,47\n");
+        parser.addFilter("age", FieldPredicate.between(18, 120));
+        parser.addFilter("name", FieldPredicate.startsWith("C"));
+        parser.setProjection("id");
+        String[][] records = {
+            {"3"},
+        };
+        checkRecords(records);
+    }
+
+    @Test public void addFilter_lastLine() {
+        // Without a final newline, the last line is checked at EOF
+        parser = makeParser(Dialect.LOOSE, "a,1\nb,2\nc,3");
+        parser.addFilter(1, FieldPredicate.equalTo("2"));
+        String[][] records = {
+            {"b", "2"},
+        };
+        checkRecords(records);
+        parser = makeParser(Dialect.LOOSE, "a,1\nb,2\nc,3");
+        parser.addFilter(1, FieldPredicate.equalTo("3"));
+        String[][] lastRecords = {
+            {"c", "3"},
+        };
+        checkRecords(lastRecords);
+    }
+
+    @Test public void addFilter_blankLinesNotAllowed() {
+        // Rejected lines do not look blank
+        parser = makeParser(STRICT, "a,1\r\nb,2\r\nc,3\r\n");
+        parser.addFilter(1, FieldPredicate.equalTo("3"));
+        String[][] records = {
+            {"c", "3"},
+        };
+        checkRecords(records);
+    }
+
+    static final String typed =
+        "id,name,price,ok,date,count\n"
+        + "1,apple,0.5,true,1970-01-02,7\n"
+        + "2,\"big, \"\"red\"\" plum\",12.25,FALSE,2000-02-29,-3\n"
+        + "3,,1e3,True,1969-12-31,2147483647\n"
+        + "9223372036854775807,cherry,-0.0,false,2015-10-17,0\n";
+
+    static Schema typedSchema() {
+        // Not in the order of the input
+        return new Schema()
+            .add("date", Schema.Type.DATE)
+            .add("id", Schema.Type.LONG)
+            .add("name", Schema.Type.STRING)
+            .add("price", Schema.Type.DOUBLE)
+            .add("ok", Schema.Type.BOOLEAN)
+            .add(5, Schema.Type.INT);
+    }
+
+    @Test public void readBatch() {
+        parser = makeParser(STRICT, typed);
+        Schema schema = typedSchema();
+        parser.setSchema(schema);
+        ColumnBatch batch = new ColumnBatch(schema, 10);
+        assertEquals(4, parser.readBatch(batch));
+        assertEquals(4, batch.size());
+        int[] dates = batch.getInts(0);
+        long[] ids = batch.getLongs(1);
+        double[] prices = batch.getDoubles(3);
+        boolean[] oks = batch.getBooleans(4);
+        int[] counts = batch.getInts(5);
+        assertArrayEquals(new int[] {1, 11016, -1, 16725},
+                          Arrays.copyOf(dates, 4));
+        assertArrayEquals(new long[] {1, 2, 3, Long.MAX_VALUE},
+                          Arrays.copyOf(ids, 4));
+        assertArrayEquals(new double[] {0.5, 12.25, 1000.0, -0.0},
+                          Arrays.copyOf(prices, 4), 0.0);
+        assertTrue(oks[0]);
+        assertFalse(oks[1]);
+        assertTrue(oks[2]);
+        assertFalse(oks[3]);
+        assertArrayEquals(new int[] {7, -3, Integer.MAX_VALUE, 0},
+                          Arrays.copyOf(counts, 4));
+        assertEquals("apple", batch.getString(2, 0));
+        assertEquals("big, \"red\" plum", batch.getString(2, 1));
+        assertEquals("", batch.getString(2, 2));
+        assertEquals("cherry", batch.getString(2, 3));
+        assertEquals("applebig, \"red\" plumcherry",
+                     new String(batch.getStringChars(2), 0,
+                                batch.getStringEnds(2)[3]));
+        assertEquals(0, parser.readBatch(batch));
+        assertEquals(0, batch.size());
+    }
+
+    @Test public void readBatch_partialBatches() {
+        // Batches are refilled and the last one is partial
+        parser = makeParser(STRICT, typed);
+        Schema schema = typedSchema();
+        parser.setSchema(schema);
+        ColumnBatch batch = new ColumnBatch(schema, 3);
+        long[] ids = new long[5];
+        batch.setLongs(1, ids);
+        assertEquals(3, parser.readBatch(batch));
+        assertArrayEquals(new long[] {1, 2, 3, 0, 0}, ids);
+        assertEquals("big, \"red\" plum", batch.getString(2, 1));
+        assertEquals(1, parser.readBatch(batch));
+        assertEquals(Long.MAX_VALUE, ids[0]);
+        assertEquals("cherry", batch.getString(2, 0));
+        assertEquals(0, parser.readBatch(batch));
+    }
+
+    @Test public void readBatch_stringsGrow() {
+        StringBuilder input = new StringBuilder("a\n");
+        StringBuilder expected = new StringBuilder();
+        for (int row = 0; row < 50; row++) {
+            String value = String.format("value %d of many", row);
+            input.append(value).append('\n');
+            expected.append(value);
+        }
+        parser = makeParser(STRICT, input.toString());
+        Schema schema = new Schema().add("a", Schema.Type.STRING);
+        parser.setSchema(schema);
+        ColumnBatch batch = new ColumnBatch(schema, 50);
+        assertEquals(50, parser.readBatch(batch));
+        int[] ends = batch.getStringEnds(0);
+        assertEquals(expected.toString(),
+                     new String(batch.getStringChars(0), 0, ends[49]));
+        assertEquals("value 17 of many", batch.getString(0, 17));
+    }
+
+    @Test public void readBatch_notOfType() {
+        parser = makeParser(STRICT, "a,b\n1,2\nx,3\n");
+        Schema schema = new Schema()
+            .add("b", Schema.Type.INT).add("a", Schema.Type.INT);
+        parser.setSchema(schema);
+        ColumnBatch batch = new ColumnBatch(schema, 10);
+        try {
+            parser.readBatch(batch);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(3, e.getLine());
+            assertEquals(1, e.getColumn());
+        }
+    }
+
+    @Test public void readBatch_missingColumn() {
+        parser = makeParser(Dialect.LOOSE, "a,b\n1,2\n3\n");
+        Schema schema = new Schema()
+            .add("a", Schema.Type.INT).add("b", Schema.Type.INT);
+        parser.setSchema(schema);
+        ColumnBatch batch = new ColumnBatch(schema, 10);
+        try {
+            parser.readBatch(batch);
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(3, e.getLine());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readBatch_otherSchema() {
+        parser = makeParser(STRICT, typed);
+        parser.setSchema(typedSchema());
+        parser.readBatch(new ColumnBatch(typedSchema(), 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void columnBatch_wrongType() {
+        new ColumnBatch(typedSchema(), 10).getDoubles(1);
+    }
+
+    /** Reads the given text and then fails instead of ending. */
+    static class FailingReader extends Reader {
+        private final Reader reader;
+
+        FailingReader(String text) {
+            reader = new StringReader(text);
+        }
+
+        public int read(char[] buffer, int offset, int length)
+            throws IOException {
+            int count = reader.read(buffer, offset, length);
+            if (count < 0) {
+                throw new IOException("Failed");
+            }
+            return count;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * Checks that the given parser, whose reader fails after
+     * "a,b\nc,d\ne", parses the records before the failure and then
+     * reports it every time rather than ending.
+     */
+    static void checkReadFailure(Parser parser) {
+        Record record = parser.readRecord();
+        assertEquals("a", record.getString(0));
+        assertEquals("b", record.getString(1));
+        parser.free(record);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                while ((record = parser.readRecord()) != null) {
+                    parser.free(record);
+                }
+                fail("Expected ParseException");
+            } catch (ParseException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    @Test public void readRecord_readFailure() {
+        // Small blocks and queue so that records come before the failure
+        checkReadFailure(new Parser(Dialect.LOOSE, new Lexer(
+            Dialect.LOOSE, new FailingReader("a,b\nc,d\ne"), 16, 4, 4)));
+        parser = new Parser(Dialect.LOOSE,
+                            new FailingReader("a,b\nc,d\ne"));
+        try {
+            parser.readRecord();
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A bounded stack of free objects for reuse.  Taking from an empty pool
+ * returns null (a miss) and the caller makes a new object.  Giving to a
+ * full pool drops the object for the garbage collector, so a burst of
+ * allocation does not pin memory forever.
+ *
+ * <p>Setting the system property {@code jcsv.checkPools} to true turns
+ * on lifecycle checks: each object's generation is stamped when it is
+ * freed and taken, and freeing an object twice or using a freed object
+ * throws {@link IllegalStateException}.  The property is read once into
+ * a constant, so the checks compile away when it is off.</p>
+ */
+public class Pool<E extends Pooled> {
+
+    /** Whether to check the lifecycles of pooled objects. */
+    static final boolean CHECKED = Boolean.getBoolean("jcsv.checkPools");
+
+    private final Object[] elements;
+    private int size = 0;
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long drops = 0;
+
+    public Pool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(
+                "Negative capacity: " + capacity);
+        }
+        elements = new Object[capacity];
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /** Returns the number of free objects in this pool. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of takes that reused an object. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Returns the number of takes that found this pool empty. */
+    public long misses() {
+        return misses;
+    }
+
+    /** Returns the number of gives that found this pool full. */
+    public long drops() {
+        return drops;
+    }
+
+    /**
+     * Returns a free object for reuse or null if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    public E take() {
+        if (size == 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        E element = (E) elements[--size];
+        elements[size] = null;
+        if (CHECKED) {
+            element.generation++;
+        }
+        return element;
+    }
+
+    /**
+     * Gives the given object back for reuse.  The caller must not use
+     * it again.
+     *
+     * @throws IllegalStateException if the pools are checked and the
+     * object is already free
+     */
+    public void give(E element) {
+        if (CHECKED) {
+            if (element.isFree()) {
+                throw new IllegalStateException(
+                    "Double free of " + describe(element));
+            }
+            element.generation++;
+        }
+        if (size < elements.length) {
+            elements[size++] = element;
+        } else {
+            drops++;
+        }
+    }
+
+    /**
+     * Checks that the given object has not been freed.
+     *
+     * @throws IllegalStateException if the pools are checked and the
+     * object is free
+     */
+    static void checkInUse(Pooled element) {
+        if (CHECKED && element.isFree()) {
+            throw new IllegalStateException(
+                "Use after free of " + describe(element));
+        }
+    }
+
+    /**
+     * Checks that the given object is still the generation it was when
+     * it was handed out, that is, it has not been freed and reused by
+     * someone else since.
+     *
+     * @throws IllegalStateException if the pools are checked and the
+     * object has been freed
+     */
+    static void checkGeneration(Pooled element, int generation) {
+        if (CHECKED && element.generation != generation) {
+            throw new IllegalStateException(
+                String.format("Stale reference to %s (generation %d)",
+                              describe(element), generation));
+        }
+    }
+
+    private static String describe(Pooled element) {
+        return String.format("%s@%x (generation %d)",
+                             element.getClass().getSimpleName(),
+                             System.identityHashCode(element),
+                             element.generation);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+public class PoolTest {
+
+    static class Thing extends Pooled {
+    }
+
+    @Test public void takeAndGive() {
+        Pool<Thing> pool = new Pool<Thing>(2);
+        assertNull(pool.take());
+        Thing thing1 = new Thing();
+        Thing thing2 = new Thing();
+        pool.give(thing1);
+        pool.give(thing2);
+        assertEquals(2, pool.size());
+        // Last in, first out
+        assertSame(thing2, pool.take());
+        assertSame(thing1, pool.take());
+        assertNull(pool.take());
+        assertEquals(2, pool.hits());
+        assertEquals(2, pool.misses());
+        assertEquals(0, pool.drops());
+    }
+
+    @Test public void bounded() {
+        Pool<Thing> pool = new Pool<Thing>(2);
+        for (int count = 0; count < 5; count++) {
+            pool.give(new Thing());
+        }
+        assertEquals(2, pool.size());
+        assertEquals(3, pool.drops());
+    }
+
+    @Test public void lexerReusesTokens() {
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new StringReader(TestText.poem128), 100, 7);
+        Token token;
+        int count = 0;
+        while ((token = lexer.readToken()) != null) {
+            lexer.free(token);
+            count++;
+        }
+        Pool<Token> pool = lexer.getTokenPool();
+        // Only the tokens queued at once are made
+        assertTrue(pool.misses() <= 7);
+        assertEquals(count, pool.hits() + pool.misses());
+    }
+
+    @Test public void parserReusesRecords() {
+        Parser parser = new Parser(Dialect.LOOSE,
+                                   new StringReader(TestText.poem128));
+        for (Record record : parser) {
+            parser.free(record);
+        }
+        Pool<Record> pool = parser.getRecordPool();
+        assertEquals(1, pool.misses());
+        assertTrue(pool.hits() >= 5);
+    }
+
+    @Test public void doubleFree() {
+        assumeTrue(Pool.CHECKED);
+        Pool<Thing> pool = new Pool<Thing>(2);
+        Thing thing = new Thing();
+        pool.give(thing);
+        try {
+            pool.give(thing);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Double free"));
+        }
+        // The pool is unchanged
+        assertEquals(1, pool.size());
+    }
+
+    @Test public void doubleFree_token() {
+        assumeTrue(Pool.CHECKED);
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new StringReader(TestText.singleData), 10, 10);
+        Token token = lexer.readToken();
+        lexer.free(token);
+        try {
+            lexer.free(token);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Double free"));
+        }
+    }
+
+    @Test public void doubleFree_record() {
+        assumeTrue(Pool.CHECKED);
+        Parser parser = new Parser(Dialect.LOOSE,
+                                   new StringReader(TestText.poem128));
+        Record record = parser.next();
+        parser.free(record);
+        try {
+            parser.free(record);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Double free"));
+        }
+    }
+
+    @Test public void useAfterFree_token() {
+        assumeTrue(Pool.CHECKED);
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new StringReader(TestText.singleData), 10, 10);
+        Token token = lexer.readToken();
+        lexer.free(token);
+        try {
+            lexer.getString(token);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Use after free"));
+        }
+    }
+
+    @Test public void useAfterFree_record() {
+        assumeTrue(Pool.CHECKED);
+        Parser parser = new Parser(Dialect.LOOSE,
+                                   new StringReader(TestText.poem128));
+        Record record = parser.next();
+        parser.free(record);
+        try {
+            record.getString(0);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Use after free"));
+        }
+    }
+
+    @Test public void staleToken() {
+        assumeTrue(Pool.CHECKED);
+        Lexer lexer = new Lexer(Dialect.LOOSE,
+                                new StringReader(TestText.poem128), 100, 10);
+        Parser parser = new Parser(Dialect.LOOSE, lexer);
+        Record record = parser.next();
+        // Free one of the record's tokens behind its back and let the
+        // lexer reuse it
+        lexer.free(record.tokens[0]);
+        Record next = parser.next();
+        try {
+            parser.free(record);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Stale reference"));
+        }
+    }
+}
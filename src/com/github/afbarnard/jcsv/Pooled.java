@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * An object that is reused through a {@link Pool}.  When the pools are
+ * checked, the generation counts how many times the object has been
+ * freed and taken again: it is even while the object is in use and odd
+ * while it is free.
+ */
+public abstract class Pooled {
+
+    int generation = 0;
+
+    /** Whether this object is free (only tracked if pools are checked). */
+    boolean isFree() {
+        return (generation & 1) != 0;
+    }
+}
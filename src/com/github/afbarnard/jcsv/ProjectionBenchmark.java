@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.StringReader;
+
+/**
+ * Measures parsing a few columns of wide input (see {@link
+ * Benchmark#manyColumnsCorpus(int, int)}) in characters per second,
+ * parsing every column and visiting the wanted ones versus projecting
+ * only the wanted ones with {@link Parser#setProjection(String...)}.
+ * Also measures keeping only about 1% of the records, checking every
+ * record after parsing versus filtering while lexing with {@link
+ * Parser#addFilter(String, FieldPredicate)}.
+ */
+public class ProjectionBenchmark {
+
+    /** Names of the columns to read out of every so many. */
+    public static String[] wanted(int columns) {
+        return new String[] {
+            "c1", "c" + (columns / 2 + 4), "c" + (columns - 3),
+        };
+    }
+
+    public static Benchmark parsing(final String text, final int columns,
+                                    final boolean project) {
+        return new Benchmark(String.format(
+                "%s 3 of %d columns", project ? "Projecting" : "Parsing",
+                columns)) {
+            public long run() throws Exception {
+                Parser parser = new Parser(RFC4180, new StringReader(text));
+                int[] fields;
+                if (project) {
+                    parser.setProjection(wanted(columns));
+                    fields = new int[] {0, 1, 2};
+                } else {
+                    Record header = parser.readRecord();
+                    parser.free(header);
+                    fields = new int[] {
+                        1, columns / 2 + 4, columns - 3,
+                    };
+                }
+                CharView view = new CharView();
+                long length = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    for (int field : fields) {
+                        length += record.getView(field, view).length();
+                    }
+                    parser.free(record);
+                }
+                sink = length;
+                return text.length();
+            }
+        };
+    }
+
+    public static Benchmark filtering(final String text, final int columns,
+                                      final boolean filter) {
+        // Column 6 has integers in [0,1000000), so this keeps about 1%
+        final double minimum = 0.0;
+        final double maximum = 9999.0;
+        return new Benchmark(String.format(
+                "%s 1%% of %d-column records",
+                filter ? "Filtering" : "Checking", columns)) {
+            public long run() throws Exception {
+                Parser parser = new Parser(RFC4180, new StringReader(text));
+                int[] fields;
+                int checked = 6;
+                if (filter) {
+                    parser.addFilter("c6",
+                                     FieldPredicate.between(minimum, maximum));
+                    parser.setProjection(wanted(columns));
+                    fields = new int[] {0, 1, 2};
+                } else {
+                    Record header = parser.readRecord();
+                    parser.free(header);
+                    fields = new int[] {
+                        1, columns / 2 + 4, columns - 3,
+                    };
+                }
+                CharView view = new CharView();
+                long length = 0;
+                Record record;
+                while ((record = parser.readRecord()) != null) {
+                    if (!filter) {
+                        double value = record.getDouble(checked);
+                        if (value < minimum || value > maximum) {
+                            parser.free(record);
+                            continue;
+                        }
+                    }
+                    for (int field : fields) {
+                        length += record.getView(field, view).length();
+                    }
+                    parser.free(record);
+                }
+                sink = length;
+                return text.length();
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int columns : new int[] {20, 200}) {
+            String text = Benchmark.manyColumnsCorpus(8000000, columns);
+            parsing(text, columns, false).measure();
+            parsing(text, columns, true).measure();
+            filtering(text, columns, false).measure();
+            filtering(text, columns, true).measure();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Measures handing elements from one thread to another in elements per
+ * second, through a {@link SpscArrayQueue} and through an {@link
+ * ArrayBlockingQueue}.  The same elements are handed off every run so
+ * that allocation is not measured.
+ */
+public class QueueBenchmark {
+
+    static final int COUNT = 4000000;
+
+    /** Elements to hand off. */
+    static final Integer[] elements = new Integer[1024];
+    static {
+        for (int index = 0; index < elements.length; index++) {
+            elements[index] = index;
+        }
+    }
+
+    public static Benchmark spsc(final int capacity) {
+        return new Benchmark(String.format("SpscArrayQueue (capacity %d)",
+                                           capacity)) {
+            public long run() throws Exception {
+                final SpscArrayQueue<Integer> queue =
+                    new SpscArrayQueue<Integer>(capacity);
+                Thread producer = new Thread(new Runnable() {
+                        public void run() {
+                            for (int count = 0; count < COUNT; count++) {
+                                Integer element =
+                                    elements[count & (elements.length - 1)];
+                                while (!queue.offer(element)) {
+                                    Thread.yield();
+                                }
+                            }
+                        }
+                    });
+                producer.start();
+                long sum = 0;
+                for (int count = 0; count < COUNT; count++) {
+                    Integer element;
+                    while ((element = queue.poll()) == null) {
+                        Thread.yield();
+                    }
+                    sum += element;
+                }
+                producer.join();
+                sink = sum;
+                return COUNT;
+            }
+        };
+    }
+
+    public static Benchmark blocking(final int capacity) {
+        return new Benchmark(String.format("ArrayBlockingQueue (capacity %d)",
+                                           capacity)) {
+            public long run() throws Exception {
+                final ArrayBlockingQueue<Integer> queue =
+                    new ArrayBlockingQueue<Integer>(capacity);
+                Thread producer = new Thread(new Runnable() {
+                        public void run() {
+                            try {
+                                for (int count = 0; count < COUNT; count++) {
+                                    queue.put(elements[
+                                        count & (elements.length - 1)]);
+                                }
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+                producer.start();
+                long sum = 0;
+                for (int count = 0; count < COUNT; count++) {
+                    sum += queue.take();
+                }
+                producer.join();
+                sink = sum;
+                return COUNT;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int capacity : new int[] {100, 1024}) {
+            spsc(capacity).measure();
+            blocking(capacity).measure();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reader that reads ahead of its consumer in a background thread so
+ * that waiting for input (say, from a network file system) overlaps
+ * with lexing.  The background thread fills a ring of blocks from the
+ * given reader and the consumer reads the blocks that are already
+ * full.  Neither side takes a lock: blocks go back and forth through a
+ * pair of {@link SpscArrayQueue}s.
+ *
+ * <p>Use as the reader of a {@link Lexer} (which reads in blocks, so
+ * most reads copy a whole block) and close it when done, which stops
+ * the background thread and closes the given reader.  Not for use by
+ * more than one consumer thread.</p>
+ */
+public class ReadAheadReader extends Reader {
+
+    private final Reader reader;
+
+    /** A block of characters and how many there are (-1: EOF). */
+    private static class Block {
+        final char[] characters;
+        int length = 0;
+
+        Block(int size) {
+            characters = new char[size];
+        }
+    }
+
+    /** Blocks for the producer to fill and for the consumer to read. */
+    private final SpscArrayQueue<Block> emptyBlocks;
+    private final SpscArrayQueue<Block> fullBlocks;
+
+    /** Error reading ahead, reported in place of EOF. */
+    private volatile IOException error = null;
+
+    private volatile boolean closed = false;
+
+    // Threads parked waiting for a block, for the other side to wake
+    // when it hands one over
+    private final AtomicReference<Thread> waitingProducer =
+        new AtomicReference<Thread>();
+    private final AtomicReference<Thread> waitingConsumer =
+        new AtomicReference<Thread>();
+
+    // Parks start short and double up to the longest
+    private static final long SHORTEST_PARK_NANOS = 50000L;
+    private static final long LONGEST_PARK_NANOS = 1000000L;
+
+    private final Thread producer;
+
+    // Consumer state: the block being read and how far
+    private Block block = null;
+    private int blockIndex = 0;
+    private int blockLength = 0;
+    private boolean eof = false;
+
+    /**
+     * Reads ahead from the given reader in a ring of the given number
+     * of blocks of the given size.
+     */
+    public ReadAheadReader(Reader reader, int blockSize, int blockCount) {
+        if (blockSize <= 0 || blockCount <= 0) {
+            throw new IllegalArgumentException(String.format(
+                "Non-positive block size or count: %d, %d",
+                blockSize, blockCount));
+        }
+        this.reader = reader;
+        emptyBlocks = new SpscArrayQueue<Block>(blockCount);
+        fullBlocks = new SpscArrayQueue<Block>(blockCount);
+        for (int count = 0; count < blockCount; count++) {
+            emptyBlocks.put(new Block(blockSize));
+        }
+        producer = new Thread(new Runnable() {
+                public void run() {
+                    readAhead();
+                }
+            }, "jcsv-read-ahead");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    public ReadAheadReader(Reader reader) {
+        this(reader, 65536, 4);
+    }
+
+    /** Fills blocks until EOF, an error, or closing. */
+    private void readAhead() {
+        while (!closed) {
+            // Wait for an empty block
+            Block block = take(emptyBlocks, waitingProducer);
+            if (block == null) {
+                return;
+            }
+            int length;
+            try {
+                // A reader only returns zero characters if asked for
+                // zero, but be defensive
+                do {
+                    length = reader.read(block.characters);
+                } while (length == 0);
+            } catch (IOException e) {
+                error = e;
+                length = -1;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+                length = -1;
+            }
+            block.length = length;
+            // Hand the block (and any error) to the consumer
+            handOver(fullBlocks, block, waitingConsumer);
+            if (length < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes a block from the given queue, waiting if necessary:
+     * spinning at first, then yielding, then parking until the other
+     * side hands over a block (see {@link #handOver}).  Before parking,
+     * the thread announces itself in the given reference and polls
+     * again, so a block handed over in between is not missed.  Parks
+     * back off only up to {@link #LONGEST_PARK_NANOS} so that a stalled
+     * input costs little CPU but a block is never waited on for long.
+     * Returns null if the reader is closed while waiting.
+     */
+    private Block take(SpscArrayQueue<Block> queue,
+                       AtomicReference<Thread> waiting) {
+        Block block;
+        int spins = 0;
+        while ((block = queue.poll()) == null) {
+            if (closed) {
+                return null;
+            }
+            if (spins < 100) {
+                // Spin
+            } else if (spins < 200) {
+                Thread.yield();
+            } else {
+                // Announce with a read-modify-write so that either the
+                // other side sees this thread or this poll sees its
+                // block
+                waiting.getAndSet(Thread.currentThread());
+                block = queue.poll();
+                if (block != null) {
+                    break;
+                }
+                long nanos = Math.min(
+                    SHORTEST_PARK_NANOS << Math.min(spins - 200, 5),
+                    LONGEST_PARK_NANOS);
+                LockSupport.parkNanos(this, nanos);
+            }
+            spins++;
+        }
+        if (spins >= 200) {
+            waiting.set(null);
+        }
+        return block;
+    }
+
+    /**
+     * Puts the given block in the given queue and wakes the thread
+     * waiting for it, if any.
+     */
+    private static void handOver(SpscArrayQueue<Block> queue, Block block,
+                                 AtomicReference<Thread> waiting) {
+        queue.put(block);
+        Thread thread = waiting.getAndSet(null);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Gives back the current block and takes the next one, waiting for
+     * it if necessary.  Returns false at EOF.
+     */
+    private boolean nextBlock() throws IOException {
+        if (eof) {
+            return false;
+        }
+        // The current block (if any) has been read
+        if (block != null) {
+            handOver(emptyBlocks, block, waitingProducer);
+        }
+        block = take(fullBlocks, waitingConsumer);
+        if (block == null) {
+            throw new IOException("Reader closed");
+        }
+        blockIndex = 0;
+        blockLength = block.length;
+        if (blockLength < 0) {
+            eof = true;
+            blockLength = 0;
+            if (error != null) {
+                throw error;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length)
+        throws IOException {
+        if (closed) {
+            throw new IOException("Reader closed");
+        }
+        if (offset < 0 || length < 0 || length > buffer.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) {
+            return 0;
+        }
+        if (blockIndex >= blockLength && !nextBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, blockLength - blockIndex);
+        System.arraycopy(block.characters, blockIndex, buffer, offset, count);
+        blockIndex += count;
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed) {
+            throw new IOException("Reader closed");
+        }
+        if (blockIndex >= blockLength && !nextBlock()) {
+            return -1;
+        }
+        return block.characters[blockIndex++];
+    }
+
+    /**
+     * Stops reading ahead and closes the underlying reader.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        reader.close();
+    }
+}
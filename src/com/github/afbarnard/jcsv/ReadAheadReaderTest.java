@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ReadAheadReaderTest {
+
+    /** A reader that returns a few characters at a time, slowly. */
+    static class SlowReader extends Reader {
+        private final Reader reader;
+        private final int limit;
+        private int count = 0;
+
+        SlowReader(String text, int limit) {
+            reader = new StringReader(text);
+            this.limit = limit;
+        }
+
+        public int read(char[] buffer, int offset, int length)
+            throws IOException {
+            if (++count % 16 == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return reader.read(buffer, offset, Math.min(length, limit));
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /** A reader that fails after the given number of characters. */
+    static class FailingReader extends Reader {
+        private int remaining;
+
+        FailingReader(int remaining) {
+            this.remaining = remaining;
+        }
+
+        public int read(char[] buffer, int offset, int length)
+            throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Failed");
+            }
+            int count = Math.min(length, remaining);
+            for (int index = 0; index < count; index++) {
+                buffer[offset + index] = 'x';
+            }
+            remaining -= count;
+            return count;
+        }
+
+        public void close() {
+        }
+    }
+
+    static String readAll(Reader reader, int chunkSize) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] chunk = new char[chunkSize];
+        int count;
+        while ((count = reader.read(chunk, 0, chunkSize)) >= 0) {
+            builder.append(chunk, 0, count);
+        }
+        return builder.toString();
+    }
+
+    @Test public void read_sameAsReader() throws IOException {
+        String text = TestText.poem128 + TestText.multilineField
+            + TestText.magicSquare3x3;
+        for (int blockSize = 1; blockSize <= 7; blockSize += 3) {
+            for (int blockCount = 1; blockCount <= 3; blockCount++) {
+                for (int chunkSize = 1; chunkSize <= 10; chunkSize += 4) {
+                    Reader reader = new ReadAheadReader(
+                        new SlowReader(text, 5), blockSize, blockCount);
+                    assertEquals(text, readAll(reader, chunkSize));
+                    // Still at EOF
+                    assertEquals(-1, reader.read());
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    @Test public void read_empty() throws IOException {
+        Reader reader = new ReadAheadReader(new StringReader(""));
+        assertEquals(-1, reader.read());
+        assertEquals(-1, reader.read(new char[3], 0, 3));
+        reader.close();
+    }
+
+    @Test public void read_characters() throws IOException {
+        Reader reader = new ReadAheadReader(
+            new StringReader(TestText.poem128), 3, 2);
+        StringBuilder builder = new StringBuilder();
+        int character;
+        while ((character = reader.read()) >= 0) {
+            builder.append((char) character);
+        }
+        assertEquals(TestText.poem128, builder.toString());
+        reader.close();
+    }
+
+    @Test public void read_error() throws IOException {
+        Reader reader = new ReadAheadReader(new FailingReader(10), 4, 2);
+        char[] chunk = new char[4];
+        int total = 0;
+        try {
+            int count;
+            while ((count = reader.read(chunk, 0, 4)) >= 0) {
+                total += count;
+            }
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+        // Everything before the error is read
+        assertEquals(10, total);
+        reader.close();
+    }
+
+    @Test(expected=IOException.class)
+    public void read_afterClose() throws IOException {
+        Reader reader = new ReadAheadReader(
+            new SlowReader(TestText.poem128, 1), 1, 1);
+        reader.read();
+        reader.close();
+        reader.read();
+    }
+
+    @Test public void lexer() {
+        Lexer reference = new Lexer(Dialect.LOOSE,
+                                    new StringReader(TestText.poem128));
+        Lexer lexer = new Lexer(Dialect.LOOSE, new ReadAheadReader(
+            new SlowReader(TestText.poem128, 7), 8, 2));
+        Token expected;
+        while ((expected = reference.readToken()) != null) {
+            Token token = lexer.readToken();
+            assertEquals(expected.type, token.type);
+            assertEquals(reference.getString(expected),
+                         lexer.getString(token));
+            reference.free(expected);
+            lexer.free(token);
+        }
+        assertNull(lexer.readToken());
+    }
+
+    @Test public void parser_error() throws IOException {
+        // An error reading ahead is an error from the parser, not EOF
+        ReadAheadReader reader = new ReadAheadReader(
+            new ParserTest.FailingReader("a,b\nc,d\ne"), 2, 2);
+        ParserTest.checkReadFailure(new Parser(
+            Dialect.LOOSE, new Lexer(Dialect.LOOSE, reader, 16, 4, 4)));
+        reader.close();
+    }
+}
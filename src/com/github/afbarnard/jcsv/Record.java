@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A record (row) of fields as produced by a {@link Parser}.  A record
+ * does not copy its content.  Rather, it refers to the input held by
+ * the lexer and decodes field values on request.  Accordingly, a record
+ * is only valid until it is freed with {@link Parser#free(Record)},
+ * after which the record object is reused.
+ */
+public class Record extends Pooled {
+
+    /*
+     * Field flags.  A quoted field's position and length describe the
+     * content between the quotes.  An escaped field contains escape
+     * sequences or doubled quotes and must be decoded.
+     */
+    static final byte QUOTED = 1;
+    static final byte ESCAPED = 2;
+
+    private final TokenSource lexer;
+    private final Dialect dialect;
+
+    /** View for decoding numbers. */
+    private final CharView numberView = new CharView();
+
+    /** View of the raw input of a field that needs decoding. */
+    private final CharView rawView = new CharView();
+
+    // Provenance of the start of the record.  Lines and columns (here
+    // and of fields) are not set if the lexer's provenance is lazy.
+    long position;
+    long line;
+    int column;
+
+    /** Number of fields. */
+    int size = 0;
+
+    // Fields as parallel arrays so they can be reused without
+    // allocation
+    long[] fieldPositions;
+    int[] fieldLengths;
+    byte[] fieldFlags;
+    long[] fieldLines;
+    int[] fieldColumns;
+
+    /**
+     * The tokens that make up this record.  They are given back to the
+     * lexer when the record is freed.  (The tokens of skipped lines are
+     * given back as each line is skipped.)
+     */
+    Token[] tokens;
+    int tokenCount = 0;
+
+    /**
+     * The generations of the tokens when they were added, for checking
+     * that they are still this record's when it is freed.  Only filled
+     * in if pools are checked.
+     */
+    int[] tokenGenerations;
+
+    Record(TokenSource lexer, Dialect dialect) {
+        this.lexer = lexer;
+        this.dialect = dialect;
+        fieldPositions = new long[10];
+        fieldLengths = new int[10];
+        fieldFlags = new byte[10];
+        fieldLines = new long[10];
+        fieldColumns = new int[10];
+        tokens = new Token[50];
+        tokenGenerations = new int[50];
+    }
+
+    /** Returns the number of fields in this record. */
+    public int size() {
+        Pool.checkInUse(this);
+        return size;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long line() {
+        if (lexer.hasLazyProvenance()) {
+            return lexer.lineAt(position);
+        }
+        return line;
+    }
+
+    public int column() {
+        if (lexer.hasLazyProvenance()) {
+            return lexer.columnAt(position);
+        }
+        return column;
+    }
+
+    public long getLine(int field) {
+        checkField(field);
+        if (lexer.hasLazyProvenance()) {
+            return lexer.lineAt(fieldStart(field));
+        }
+        return fieldLines[field];
+    }
+
+    public int getColumn(int field) {
+        checkField(field);
+        if (lexer.hasLazyProvenance()) {
+            return lexer.columnAt(fieldStart(field));
+        }
+        return fieldColumns[field];
+    }
+
+    /**
+     * Returns the position where the given field starts, which is
+     * before the opening quote if it is quoted.
+     */
+    private long fieldStart(int field) {
+        if ((fieldFlags[field] & QUOTED) != 0) {
+            return fieldPositions[field] - 1;
+        }
+        return fieldPositions[field];
+    }
+
+    public boolean isQuoted(int field) {
+        checkField(field);
+        return (fieldFlags[field] & QUOTED) != 0;
+    }
+
+    /**
+     * Returns the value of the given field with any quotes and escapes
+     * removed.
+     */
+    public String getString(int field) {
+        checkField(field);
+        if ((fieldFlags[field] & ESCAPED) == 0) {
+            return lexer.getString(fieldPositions[field],
+                                   fieldLengths[field]);
+        }
+        char[] characters = new char[fieldLengths[field]];
+        int length = decode(field, characters);
+        return new String(characters, 0, length);
+    }
+
+    /**
+     * Sets the given view to the value of the given field and returns
+     * the view.  The view refers directly to the input unless the field
+     * needs decoding.  It is valid until this record is freed.
+     */
+    public CharView getView(int field, CharView view) {
+        checkField(field);
+        if ((fieldFlags[field] & ESCAPED) == 0) {
+            return lexer.getView(fieldPositions[field],
+                                 fieldLengths[field], view);
+        }
+        int length = decode(field, view.reserve(fieldLengths[field]));
+        view.setDecoded(length);
+        return view;
+    }
+
+    /**
+     * Parses the value of the given field as an integer without making
+     * a string.
+     *
+     * @throws ParseException if the value is not an integer
+     */
+    public int getInt(int field) {
+        try {
+            return Numbers.parseInt(getView(field, numberView));
+        } catch (NumberFormatException e) {
+            throw notA("an int", field, e);
+        }
+    }
+
+    /**
+     * Parses the value of the given field as a long without making a
+     * string.
+     *
+     * @throws ParseException if the value is not a long
+     */
+    public long getLong(int field) {
+        try {
+            return Numbers.parseLong(getView(field, numberView));
+        } catch (NumberFormatException e) {
+            throw notA("a long", field, e);
+        }
+    }
+
+    /**
+     * Parses the value of the given field as a double.  Most decimal
+     * numbers are parsed without making a string.
+     *
+     * @throws ParseException if the value is not a double
+     */
+    public double getDouble(int field) {
+        try {
+            return Numbers.parseDouble(getView(field, numberView));
+        } catch (NumberFormatException e) {
+            throw notA("a double", field, e);
+        }
+    }
+
+    /**
+     * Parses the value of the given field as a boolean ("true" or
+     * "false", ignoring case).
+     *
+     * @throws ParseException if the value is not a boolean
+     */
+    public boolean getBoolean(int field) {
+        try {
+            return Numbers.parseBoolean(getView(field, numberView));
+        } catch (NumberFormatException e) {
+            throw notA("a boolean", field, e);
+        }
+    }
+
+    /**
+     * Parses the value of the given field as an ISO 8601 date
+     * ("yyyy-mm-dd") and returns the number of days since 1970-01-01.
+     *
+     * @throws ParseException if the value is not a date
+     */
+    public int getEpochDay(int field) {
+        try {
+            return Numbers.parseEpochDay(getView(field, numberView));
+        } catch (NumberFormatException e) {
+            throw notA("a date", field, e);
+        }
+    }
+
+    private ParseException notA(String what, int field,
+                                NumberFormatException cause) {
+        return new ParseException(
+            String.format("Not %s: '%s'", what, numberView),
+            getLine(field), getColumn(field), cause);
+    }
+
+    /**
+     * Decodes the escape sequences in the given field into the given
+     * array and returns the number of characters.  The parser has
+     * already checked that the escape sequences are well formed.
+     */
+    private int decode(int field, char[] characters) {
+        CharView raw = lexer.getView(fieldPositions[field],
+                                     fieldLengths[field], rawView);
+        int length = raw.length();
+        boolean quoted = (fieldFlags[field] & QUOTED) != 0;
+        boolean doubled = quoted
+            && dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.ESCAPED;
+        boolean escaped =
+            dialect.quoteEscapeStyle != Dialect.QuoteEscapeStyle.DOUBLED;
+        int count = 0;
+        for (int offset = 0; offset < length; offset++) {
+            char character = raw.charAt(offset);
+            if ((doubled && character == dialect.quote)
+                || (escaped && character == dialect.escape)) {
+                // Take the following character literally
+                offset++;
+                character = raw.charAt(offset);
+            }
+            characters[count++] = character;
+        }
+        return count;
+    }
+
+    ////////////////////////////////////////
+    // Building, for use by the parser
+
+    void clear() {
+        size = 0;
+        tokenCount = 0;
+    }
+
+    void addToken(Token token) {
+        if (tokenCount >= tokens.length) {
+            Token[] newTokens = new Token[tokens.length * 2];
+            int[] newGenerations = new int[tokens.length * 2];
+            System.arraycopy(tokens, 0, newTokens, 0, tokenCount);
+            System.arraycopy(tokenGenerations, 0, newGenerations, 0,
+                             tokenCount);
+            tokens = newTokens;
+            tokenGenerations = newGenerations;
+        }
+        if (Pool.CHECKED) {
+            tokenGenerations[tokenCount] = token.generation;
+        }
+        tokens[tokenCount++] = token;
+    }
+
+    void addField(long position, int length, byte flags,
+                  long line, int column) {
+        if (size >= fieldPositions.length) {
+            growFields(fieldPositions.length * 2);
+        }
+        fieldPositions[size] = position;
+        fieldLengths[size] = length;
+        fieldFlags[size] = flags;
+        fieldLines[size] = line;
+        fieldColumns[size] = column;
+        size++;
+    }
+
+    private void growFields(int capacity) {
+        long[] newPositions = new long[capacity];
+        int[] newLengths = new int[capacity];
+        byte[] newFlags = new byte[capacity];
+        long[] newLines = new long[capacity];
+        int[] newColumns = new int[capacity];
+        System.arraycopy(fieldPositions, 0, newPositions, 0, size);
+        System.arraycopy(fieldLengths, 0, newLengths, 0, size);
+        System.arraycopy(fieldFlags, 0, newFlags, 0, size);
+        System.arraycopy(fieldLines, 0, newLines, 0, size);
+        System.arraycopy(fieldColumns, 0, newColumns, 0, size);
+        fieldPositions = newPositions;
+        fieldLengths = newLengths;
+        fieldFlags = newFlags;
+        fieldLines = newLines;
+        fieldColumns = newColumns;
+    }
+
+    private void checkField(int field) {
+        Pool.checkInUse(this);
+        if (field < 0 || field >= size) {
+            throw new IndexOutOfBoundsException(
+                String.format("Field %d is not in [0,%d)", field, size));
+        }
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * Receives records from a {@link ParallelParser}.
+ */
+public interface RecordHandler {
+
+    /**
+     * Handles the given record.  The record is only valid during this
+     * call.  It is freed and reused afterwards.
+     */
+    void handle(Record record);
+}
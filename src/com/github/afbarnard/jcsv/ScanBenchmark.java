@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Measures finding the structural bytes (delimiters, quotes, newlines,
+ * etc.) of input in bytes per second, classifying one byte at a time as
+ * the lexers used to versus scanning 8 bytes at a time with {@link
+ * Swar}.  Both count the structural bytes so they do the same work.
+ * Lexing with {@link ByteLexer}, which uses the SWAR scan, is measured
+ * for comparison.
+ */
+public class ScanBenchmark {
+
+    /** Makes a corpus of wide text fields with long runs of content. */
+    public static String makeWideCorpus(int size) {
+        StringBuilder builder = new StringBuilder(size + 200);
+        while (builder.length() < size) {
+            builder.append(TestText.longToken00100);
+            builder.append(',');
+            builder.append("\"quoted ").append(TestText.longToken00010);
+            builder.append("\",");
+            builder.append(TestText.longToken01000);
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static Benchmark perByte(final byte[] bytes) {
+        return new Benchmark("Per-byte classifier") {
+            public long run() {
+                byte delimiter = (byte) Dialect.LOOSE.delimiter;
+                byte quote = (byte) Dialect.LOOSE.quote;
+                byte escape = (byte) Dialect.LOOSE.escape;
+                byte comment = (byte) Dialect.LOOSE.comment;
+                long structural = 0;
+                for (byte value : bytes) {
+                    Token.Type type;
+                    switch (value) {
+                    case ' ':
+                    case '\t':
+                    case 0x0b:
+                    case '\f':
+                        type = Token.Type.SPACE;
+                        break;
+                    case '\n':
+                    case '\r':
+                        type = Token.Type.NEWLINE;
+                        break;
+                    default:
+                        if (value == delimiter)
+                            type = Token.Type.DELIMITER;
+                        else if (value == quote)
+                            type = Token.Type.QUOTE;
+                        else if (value == escape)
+                            type = Token.Type.ESCAPE;
+                        else if (value == comment)
+                            type = Token.Type.COMMENT;
+                        else
+                            type = Token.Type.CONTENT;
+                    }
+                    if (type != Token.Type.CONTENT) {
+                        structural++;
+                    }
+                }
+                sink = structural;
+                return bytes.length;
+            }
+        };
+    }
+
+    public static Benchmark swar(final byte[] bytes) {
+        return new Benchmark("SWAR scan (8 bytes per step)") {
+            public long run() {
+                ByteBuffer words =
+                    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                long space = Swar.broadcast(' ');
+                long delimiter = Swar.broadcast(Dialect.LOOSE.delimiter);
+                long quote = Swar.broadcast(Dialect.LOOSE.quote);
+                long escape = Swar.broadcast(Dialect.LOOSE.escape);
+                long comment = Swar.broadcast(Dialect.LOOSE.comment);
+                long structural = 0;
+                int index = 0;
+                while (index + 8 <= bytes.length) {
+                    long word = words.getLong(index);
+                    long found = Swar.lessBytes(word, '\r' + 1)
+                        | Swar.equalBytes(word, space)
+                        | Swar.equalBytes(word, delimiter)
+                        | Swar.equalBytes(word, quote)
+                        | Swar.equalBytes(word, escape)
+                        | Swar.equalBytes(word, comment);
+                    if (found == 0) {
+                        index += 8;
+                    } else {
+                        // Continue after the structural byte
+                        structural++;
+                        index += Swar.firstByte(found) + 1;
+                    }
+                }
+                sink = structural;
+                return bytes.length;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] narrow = LexerBenchmark.makeCorpus(4000000).getBytes(utf8);
+        byte[] wide = makeWideCorpus(4000000).getBytes(utf8);
+        System.out.println("Narrow fields:");
+        perByte(narrow).measure();
+        swar(narrow).measure();
+        LexerBenchmark.byteLexing(narrow, false).measure();
+        System.out.println("Wide fields:");
+        perByte(wide).measure();
+        swar(wide).measure();
+        LexerBenchmark.byteLexing(wide, false).measure();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The columns to read into a {@link ColumnBatch} and their types.
+ * Columns are given by name (looked up in the header) or by index, in
+ * the order their values are wanted, which need not be the order they
+ * appear in the input.  For example:
+ *
+ * <pre>
+ * Schema schema = new Schema()
+ *     .add("id", Schema.Type.LONG)
+ *     .add("price", Schema.Type.DOUBLE)
+ *     .add("date", Schema.Type.DATE);
+ * </pre>
+ */
+public class Schema {
+
+    /** Types of column and the arrays their values are stored in. */
+    public static enum Type {
+        /** Stored in an {@code int[]} (see {@link Record#getInt(int)}). */
+        INT,
+        /** Stored in a {@code long[]} (see {@link Record#getLong(int)}). */
+        LONG,
+        /** Stored in a {@code double[]} (see {@link Record#getDouble(int)}). */
+        DOUBLE,
+        /** Stored in a {@code boolean[]} (see {@link Record#getBoolean(int)}). */
+        BOOLEAN,
+        /**
+         * Stored in an {@code int[]} as days since 1970-01-01 (see
+         * {@link Record#getEpochDay(int)}).
+         */
+        DATE,
+        /**
+         * Stored as characters in a {@code char[]} with the end of each
+         * value in an {@code int[]}.
+         */
+        STRING,
+    }
+
+    // Columns as parallel lists.  A column has either a name or an
+    // index (and -1).
+    private final List<String> names = new ArrayList<String>();
+    private final List<Integer> indices = new ArrayList<Integer>();
+    private final List<Type> types = new ArrayList<Type>();
+
+    public Schema() {
+    }
+
+    /** Adds the column with the given name and returns this schema. */
+    public Schema add(String name, Type type) {
+        if (name == null || type == null) {
+            throw new NullPointerException();
+        }
+        names.add(name);
+        indices.add(-1);
+        types.add(type);
+        return this;
+    }
+
+    /**
+     * Adds the column with the given index (0-based) and returns this
+     * schema.
+     */
+    public Schema add(int column, Type type) {
+        if (column < 0) {
+            throw new IllegalArgumentException("Negative column: " + column);
+        }
+        if (type == null) {
+            throw new NullPointerException();
+        }
+        names.add(null);
+        indices.add(column);
+        types.add(type);
+        return this;
+    }
+
+    /** Returns the number of columns. */
+    public int size() {
+        return types.size();
+    }
+
+    /** Returns the name of the given column, or null if it has an index. */
+    public String getName(int column) {
+        return names.get(column);
+    }
+
+    /** Returns the index of the given column, or -1 if it has a name. */
+    public int getIndex(int column) {
+        return indices.get(column);
+    }
+
+    public Type getType(int column) {
+        return types.get(column);
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Schema(");
+        for (int column = 0; column < size(); column++) {
+            if (column > 0) {
+                builder.append(", ");
+            }
+            if (names.get(column) != null) {
+                builder.append(names.get(column));
+            } else {
+                builder.append(indices.get(column));
+            }
+            builder.append(": ").append(types.get(column));
+        }
+        return builder.append(')').toString();
+    }
+}
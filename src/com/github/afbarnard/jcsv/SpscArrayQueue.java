@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/*
+ * The head and tail counters are each written by one thread and read by
+ * the other.  To keep one thread's writes from invalidating the cache
+ * line the other thread is reading, each counter (with the cached copy
+ * of the other counter that its writer keeps) is separated from
+ * everything else by at least 64 bytes of padding.  The JVM does not
+ * reorder fields across classes in a hierarchy, so the padding goes in
+ * superclasses.
+ */
+
+abstract class SpscArrayQueuePad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+/** Consumer's fields. */
+abstract class SpscArrayQueueHead extends SpscArrayQueuePad0 {
+    volatile long head = 0;
+    long tailCache = 0;
+}
+
+abstract class SpscArrayQueuePad1 extends SpscArrayQueueHead {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+/** Producer's fields. */
+abstract class SpscArrayQueueTail extends SpscArrayQueuePad1 {
+    volatile long tail = 0;
+    long headCache = 0;
+}
+
+abstract class SpscArrayQueuePad2 extends SpscArrayQueueTail {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/**
+ * A fixed-capacity queue for handing elements from one thread (the
+ * producer) to another (the consumer) without locks.  It has the same
+ * API as {@link ArrayQueue} plus {@link #offer} and {@link #poll},
+ * which do not throw, for use when the other thread may not have caught
+ * up.  Only one thread may put and only one thread may get.  Elements
+ * may not be null.
+ *
+ * <p>Elements are published with ordered (lazy) writes of the tail
+ * counter, which are cheaper than volatile writes but still make the
+ * element visible before the new tail.  Storage is a power of two so
+ * that counters map to slots with a mask.</p>
+ */
+public class SpscArrayQueue<E> extends SpscArrayQueuePad2 {
+
+    private static final AtomicLongFieldUpdater<SpscArrayQueueHead> HEAD =
+        AtomicLongFieldUpdater.newUpdater(SpscArrayQueueHead.class, "head");
+    private static final AtomicLongFieldUpdater<SpscArrayQueueTail> TAIL =
+        AtomicLongFieldUpdater.newUpdater(SpscArrayQueueTail.class, "tail");
+
+    private final Object[] queue;
+    private final int mask;
+    private final int capacity;
+
+    public SpscArrayQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(
+                "Capacity not in [1,2^30]: " + capacity);
+        }
+        this.capacity = capacity;
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity) {
+            length <<= 1;
+        }
+        queue = new Object[length];
+        mask = length - 1;
+    }
+
+    public SpscArrayQueue() {
+        this(100);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of elements.  This is exact for the producer
+     * and consumer except that the other thread may change it at any
+     * time.
+     */
+    public int size() {
+        // Read head first so the size is never negative
+        long head = this.head;
+        return (int)(tail - head);
+    }
+
+    public int freeSize() {
+        return capacity - size();
+    }
+
+    /**
+     * Adds the given element if there is space and returns whether it
+     * did.  For the producer only.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long tail = this.tail;
+        if (tail - headCache >= capacity) {
+            // Look again at how far the consumer has gotten
+            headCache = head;
+            if (tail - headCache >= capacity) {
+                return false;
+            }
+        }
+        queue[(int) tail & mask] = element;
+        TAIL.lazySet(this, tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes and returns the head element or returns null if there is
+     * none.  For the consumer only.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = this.head;
+        if (head >= tailCache) {
+            // Look again at how far the producer has gotten
+            tailCache = tail;
+            if (head >= tailCache) {
+                return null;
+            }
+        }
+        int index = (int) head & mask;
+        E element = (E) queue[index];
+        queue[index] = null;
+        HEAD.lazySet(this, head + 1);
+        return element;
+    }
+
+    /**
+     * Adds the given element.  For the producer only.
+     *
+     * @throws IllegalStateException if there is no space
+     */
+    public void put(E element) {
+        if (!offer(element))
+            throw new IllegalStateException("No free space.");
+    }
+
+    /**
+     * Removes and returns the head element.  For the consumer only.
+     *
+     * @throws NoSuchElementException if there are no elements
+     */
+    public E get() {
+        E element = poll();
+        if (element == null)
+            throw new NoSuchElementException();
+        return element;
+    }
+}
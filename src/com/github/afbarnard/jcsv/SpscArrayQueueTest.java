@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpscArrayQueueTest {
+
+    static final int QUEUE_SIZE = 10;
+
+    SpscArrayQueue<Integer> queue;
+
+    private void checkSizes(int size, int free) {
+        assertEquals(size, queue.size());
+        assertEquals(free, queue.freeSize());
+    }
+
+    @Before public void setUp() {
+        queue = new SpscArrayQueue<Integer>(QUEUE_SIZE);
+    }
+
+    @Test public void newSizes() {
+        checkSizes(0, QUEUE_SIZE);
+        assertEquals(QUEUE_SIZE, queue.capacity());
+    }
+
+    @Test public void putGetWrapAround() {
+        // Storage is 16, so wrap around it and the capacity many times
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int count = 0; count < 7; count++) {
+                queue.put(next++);
+            }
+            checkSizes(7, QUEUE_SIZE - 7);
+            for (int count = 0; count < 7; count++) {
+                assertEquals(expected++, queue.get().intValue());
+            }
+            checkSizes(0, QUEUE_SIZE);
+        }
+    }
+
+    @Test public void offerFull() {
+        for (int count = 0; count < QUEUE_SIZE; count++) {
+            assertTrue(queue.offer(count));
+        }
+        checkSizes(QUEUE_SIZE, 0);
+        assertFalse(queue.offer(QUEUE_SIZE));
+        try {
+            queue.put(QUEUE_SIZE);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        assertEquals(0, queue.get().intValue());
+        assertTrue(queue.offer(QUEUE_SIZE));
+    }
+
+    @Test public void pollEmpty() {
+        assertNull(queue.poll());
+        queue.put(1);
+        assertEquals(1, queue.poll().intValue());
+        assertNull(queue.poll());
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getEmpty() {
+        queue.get();
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void putNull() {
+        queue.put(null);
+    }
+
+    @Test public void handOff() throws InterruptedException {
+        final int count = 1000000;
+        final SpscArrayQueue<Integer> queue = new SpscArrayQueue<Integer>(7);
+        Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for (int value = 0; value < count; value++) {
+                        while (!queue.offer(value)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+        producer.start();
+        // Every element arrives once and in order
+        for (int expected = 0; expected < count; expected++) {
+            Integer value;
+            while ((value = queue.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(expected, value.intValue());
+        }
+        producer.join();
+        assertNull(queue.poll());
+    }
+}
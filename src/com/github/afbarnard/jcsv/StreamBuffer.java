@@ -13,6 +13,20 @@ import java.util.NoSuchElementException;
  * contents implemented as a dynamic circular buffer.  In other words, a
  * dynamic queue that indexes its elements and provides random access to
  * its contents.
+ *
+ * <p>When the capacity is a power of two, buffer indices wrap with a
+ * mask rather than a division.  The buffer grows by doubling, so a
+ * buffer that starts with a power of two capacity keeps one.</p>
+ *
+ * <p>Ranges of elements can be put and copied in bulk.  Because the
+ * contents wrap around at most once, each bulk operation is at most two
+ * array copies.</p>
+ *
+ * <p>By default the buffer only grows.  A buffer that holds a stream
+ * for a long time can be given a shrink policy so that a transient
+ * spike in its contents (such as a huge field) does not keep its peak
+ * capacity forever, and a maximum capacity so that runaway contents
+ * fail fast rather than exhausting memory.</p>
  */
 public class StreamBuffer<E> {
 
@@ -38,6 +52,30 @@ public class StreamBuffer<E> {
      */
     private long upper = 0;
 
+    /**
+     * Mask for wrapping buffer indices if the capacity is a power of
+     * two, otherwise -1.
+     */
+    private int mask;
+
+    /** Limit on the capacity. */
+    private int maximumCapacity = Integer.MAX_VALUE;
+
+    /** Capacity to shrink back toward, or 0 to not shrink. */
+    private int targetCapacity = 0;
+
+    /**
+     * Shrink when the capacity is at least this many times the size.
+     */
+    private int shrinkFactor = 0;
+
+    /**
+     * Size at or below which to shrink, -1 if not shrinking at the
+     * current capacity.  Derived from the policy and the capacity so
+     * that freeing checks one number.
+     */
+    private int shrinkSize = -1;
+
     public boolean debug = false;
 
     public StreamBuffer() {
@@ -45,7 +83,19 @@ public class StreamBuffer<E> {
     }
 
     public StreamBuffer(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    /**
+     * Makes a buffer with the given initial capacity, rounded up to a
+     * power of two if requested.
+     */
+    public StreamBuffer(int initialCapacity, boolean powerOfTwo) {
+        if (powerOfTwo && Integer.bitCount(initialCapacity) != 1) {
+            initialCapacity = Integer.highestOneBit(initialCapacity) << 1;
+        }
         buffer = new Object[initialCapacity];
+        setMask();
         // All the numbers start at zero
     }
 
@@ -57,6 +107,50 @@ public class StreamBuffer<E> {
         return (int)(upper - lower);
     }
 
+    public int maximumCapacity() {
+        return maximumCapacity;
+    }
+
+    /**
+     * Limits the capacity to the given maximum.  Putting more elements
+     * than fit in the maximum capacity throws {@link
+     * IllegalStateException}.
+     *
+     * @throws IllegalArgumentException if the buffer already exceeds
+     * the given capacity
+     */
+    public void setMaximumCapacity(int maximumCapacity) {
+        if (maximumCapacity < buffer.length) {
+            throw new IllegalArgumentException(String.format(
+                "Maximum capacity %d is less than the capacity %d",
+                maximumCapacity, buffer.length));
+        }
+        this.maximumCapacity = maximumCapacity;
+    }
+
+    /**
+     * Shrinks the buffer back toward the given target capacity after it
+     * has grown beyond it and then been freed until the capacity is at
+     * least the given factor times the size.  The shrunk capacity is
+     * the target capacity times the smallest power of two that leaves
+     * room for the contents to double, so a shrunk buffer has to grow
+     * by the factor before it shrinks again.  A target capacity of 0
+     * turns shrinking off.
+     *
+     * @throws IllegalArgumentException if the target capacity is
+     * negative or the factor is less than 2
+     */
+    public void setShrinkPolicy(int targetCapacity, int shrinkFactor) {
+        if (targetCapacity < 0 || shrinkFactor < 2) {
+            throw new IllegalArgumentException(String.format(
+                "Bad target capacity or shrink factor: %d, %d",
+                targetCapacity, shrinkFactor));
+        }
+        this.targetCapacity = targetCapacity;
+        this.shrinkFactor = shrinkFactor;
+        setShrinkSize();
+    }
+
     public long lower() {
         return lower;
     }
@@ -77,6 +171,29 @@ public class StreamBuffer<E> {
         upper++;
     }
 
+    /**
+     * Puts the given range of the given array, in order.
+     */
+    public void put(E[] elements, int offset, int length) {
+        debug("put(range)", upper);
+        checkArrayRange(elements.length, offset, length);
+        // Make sure there is room
+        int size = (int)(upper - lower);
+        if (length > buffer.length - size) {
+            growBuffer(size + length);
+        }
+
+        // Add the elements in at most two chunks
+        int index = bufferIndex(upper);
+        int chunkSize = Math.min(length, buffer.length - index);
+        System.arraycopy(elements, offset, buffer, index, chunkSize);
+        if (chunkSize < length) {
+            System.arraycopy(elements, offset + chunkSize, buffer, 0,
+                             length - chunkSize);
+        }
+        upper += length;
+    }
+
     /**
      * Gets the element with the lowest sequence index and removes it
      * from the buffer (frees its location).  Equivalent to
@@ -98,6 +215,46 @@ public class StreamBuffer<E> {
         return buffer(bufferIndex(position));
     }
 
+    /**
+     * Copies the given number of elements starting at the given
+     * sequence index into the given array starting at the given offset.
+     */
+    public void copyTo(long position, E[] elements, int offset,
+                       int length) {
+        debug("copyTo()", position);
+        checkRange(position, length);
+        checkArrayRange(elements.length, offset, length);
+        // Copy in at most two chunks
+        int index = bufferIndex(position);
+        int chunkSize = Math.min(length, buffer.length - index);
+        System.arraycopy(buffer, index, elements, offset, chunkSize);
+        if (chunkSize < length) {
+            System.arraycopy(buffer, 0, elements, offset + chunkSize,
+                             length - chunkSize);
+        }
+    }
+
+    /**
+     * Returns the array that stores the contents of the buffer.  Use
+     * with {@link #arrayIndex(long, int)} to access a range without
+     * copying.  The array is only valid until the next put or free,
+     * which may replace it.
+     */
+    public Object[] array() {
+        return buffer;
+    }
+
+    /**
+     * Returns the index in {@link #array()} of the given sequence index
+     * if the range of the given length starting there does not wrap
+     * around the end of the array, otherwise -1.
+     */
+    public int arrayIndex(long position, int length) {
+        checkRange(position, length);
+        int index = bufferIndex(position);
+        return (index + length <= buffer.length ? index : -1);
+    }
+
     public void free(long position) {
         debug("free()", position);
         // Only free valid positions, ignore any previously freed
@@ -120,8 +277,48 @@ public class StreamBuffer<E> {
         }
     }
 
+    private void checkRange(long position, int length) {
+        if (length < 0 || position < lower || position + length > upper) {
+            throw new NoSuchElementException(
+                String.format("Range [%d,%d) is not in [%d,%d)",
+                              position, position + length, lower, upper)
+            );
+        }
+    }
+
+    private static void checkArrayRange(int arrayLength, int offset,
+                                        int length) {
+        if (offset < 0 || length < 0 || length > arrayLength - offset) {
+            throw new IndexOutOfBoundsException(
+                String.format("Range [%d,%d) is not in [0,%d)",
+                              offset, offset + length, arrayLength)
+            );
+        }
+    }
+
     private int bufferIndex(long position) {
-        return (lowerIndex + (int)(position - lower)) % buffer.length;
+        return wrap(lowerIndex + (int)(position - lower));
+    }
+
+    /** Wraps the given index (which may exceed the capacity). */
+    private int wrap(int index) {
+        if (mask >= 0) {
+            return index & mask;
+        }
+        return index % buffer.length;
+    }
+
+    private void setMask() {
+        int length = buffer.length;
+        mask = (Integer.bitCount(length) == 1 ? length - 1 : -1);
+    }
+
+    private void setShrinkSize() {
+        if (targetCapacity > 0 && buffer.length > targetCapacity) {
+            shrinkSize = buffer.length / shrinkFactor;
+        } else {
+            shrinkSize = -1;
+        }
     }
 
     // Do type<E> access to the array the same way as in ArrayList
@@ -134,15 +331,50 @@ public class StreamBuffer<E> {
         // How much to free? (includes 'position')
         int amount = (int)(position - lower) + 1;
         // Move up lower buffer index limit (with wrap-around)
-        lowerIndex = (lowerIndex + amount) % buffer.length;
+        lowerIndex = wrap(lowerIndex + amount);
         // Move up lower sequence index limit
         lower = position + 1;
+        // Shrink after a spike according to the policy (if any)
+        if ((int)(upper - lower) <= shrinkSize) {
+            shrinkBuffer();
+        }
     }
 
     private void growBuffer(int minimumCapacity) {
-        // Grow the buffer by at least a power of two
-        int capacity = Math.max(buffer.length * 2, minimumCapacity);
+        // Fail fast rather than run out of memory
+        if (minimumCapacity < 0 || minimumCapacity > maximumCapacity) {
+            throw new IllegalStateException(String.format(
+                "Buffer needs capacity %d but the maximum is %d",
+                (minimumCapacity < 0
+                 ? (long) Integer.MAX_VALUE + 1 : minimumCapacity),
+                maximumCapacity));
+        }
+
+        // Grow the buffer by a power of two (which keeps a power of two
+        // capacity a power of two), but not beyond the maximum
+        long capacity = Math.max(buffer.length, 1) * 2L;
+        while (capacity < minimumCapacity) {
+            capacity *= 2;
+        }
+        resizeBuffer((int) Math.min(capacity, maximumCapacity));
+    }
+
+    private void shrinkBuffer() {
+        // Leave room for the contents to double
+        long capacity = targetCapacity;
+        int size = (int)(upper - lower);
+        while (capacity < 2L * size) {
+            capacity *= 2;
+        }
+        if (capacity < buffer.length) {
+            resizeBuffer((int) capacity);
+        } else {
+            // Nothing to gain at this capacity
+            shrinkSize = -1;
+        }
+    }
 
+    private void resizeBuffer(int capacity) {
         // Allocate a new buffer
         Object[] newBuffer = new Object[capacity];
 
@@ -173,6 +405,8 @@ public class StreamBuffer<E> {
 
         // Use the new buffer
         buffer = newBuffer;
+        setMask();
+        setShrinkSize();
 
         // Reset the buffer offset of 'lower'
         lowerIndex = 0;
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamBufferCharTest {
+
+    static final int BUFFER_SIZE = 10;
+
+    /** Contents, including characters beyond Latin-1. */
+    static final char[] sequence =
+        (TestText.poem128 + "\u00e9\u4e2d\uffff\u0000" + TestText.poem128)
+        .toCharArray();
+
+    StreamBufferChar buffer;
+
+    private void checkSizeCapacity(int size, int capacity) {
+        assertEquals(size, buffer.size());
+        assertEquals(capacity, buffer.capacity());
+    }
+
+    private void checkContents() {
+        for (long position = buffer.lower(); position < buffer.upper();
+             position++) {
+            assertEquals(sequence[(int) position], buffer.getAt(position));
+        }
+    }
+
+    @Before public void setUp() {
+        buffer = new StreamBufferChar(BUFFER_SIZE);
+    }
+
+    @Test public void newSizeCapacity() {
+        checkSizeCapacity(0, BUFFER_SIZE);
+        assertEquals(0, buffer.lower());
+        assertEquals(0, buffer.upper());
+    }
+
+    @Test public void putGet() {
+        for (int index = 0; index < 5; index++) {
+            buffer.put(sequence[index]);
+        }
+        for (int index = 0; index < 5; index++) {
+            assertEquals(sequence[index], buffer.get());
+        }
+        checkSizeCapacity(0, BUFFER_SIZE);
+        assertEquals(5, buffer.lower());
+    }
+
+    @Test public void putFreeGrow() {
+        // Keep a few elements while putting many so the contents wrap
+        // and then grow while wrapped
+        for (int index = 0; index < sequence.length; index++) {
+            buffer.put(sequence[index]);
+            if (index % 3 == 2) {
+                buffer.free(index - 1 - index / 4);
+            }
+            assertEquals(sequence[index], buffer.getAt(index));
+        }
+        checkContents();
+        assertEquals(sequence.length, buffer.upper());
+    }
+
+    @Test public void putCopyTo_range() {
+        buffer = new StreamBufferChar(8, true);
+        int position = 0;
+        int[] chunks = {3, 2, 4, 1, 4, 3, 4, 2, 4, 4, 60};
+        for (int chunk : chunks) {
+            buffer.put(sequence, position, chunk);
+            position += chunk;
+            if (position > 4) {
+                buffer.free(position - 5);
+            }
+            char[] copy = new char[buffer.size()];
+            buffer.copyTo(buffer.lower(), copy, 0, copy.length);
+            assertEquals(new String(sequence, (int) buffer.lower(),
+                                    copy.length),
+                         new String(copy));
+        }
+        assertEquals(64, buffer.capacity());
+        checkContents();
+    }
+
+    @Test public void arrayIndex() {
+        buffer = new StreamBufferChar(8);
+        buffer.put(sequence, 0, 6);
+        buffer.free(4);
+        buffer.put(sequence, 6, 4);
+        assertEquals(5, buffer.arrayIndex(5, 3));
+        assertEquals(-1, buffer.arrayIndex(5, 4));
+        assertEquals(0, buffer.arrayIndex(8, 2));
+        assertEquals(sequence[8], buffer.array()[0]);
+    }
+
+    @Test public void powerOfTwo() {
+        buffer = new StreamBufferChar(BUFFER_SIZE, true);
+        checkSizeCapacity(0, 16);
+        buffer.put(sequence, 0, 100);
+        checkSizeCapacity(100, 128);
+        checkContents();
+    }
+
+    @Test public void shrinkPolicy() {
+        buffer = new StreamBufferChar(8, true);
+        buffer.setShrinkPolicy(8, 4);
+        buffer.put(sequence, 0, 70);
+        assertEquals(128, buffer.capacity());
+        buffer.free(37);
+        checkSizeCapacity(32, 64);
+        checkContents();
+        buffer.free(69);
+        checkSizeCapacity(0, 8);
+    }
+
+    @Test public void maximumCapacity() {
+        buffer.setMaximumCapacity(30);
+        buffer.put(sequence, 0, 30);
+        try {
+            buffer.put('x');
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        checkSizeCapacity(30, 30);
+        checkContents();
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getEmpty() {
+        buffer.get();
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void getAt_freed() {
+        buffer.put(sequence, 0, 5);
+        buffer.free(2);
+        buffer.getAt(2);
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void copyTo_beyondUpper() {
+        buffer.put(sequence, 0, 5);
+        buffer.copyTo(2, new char[4], 0, 4);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void put_badRange() {
+        buffer.put(sequence, sequence.length - 2, 3);
+    }
+}
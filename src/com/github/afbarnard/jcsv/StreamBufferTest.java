@@ -271,6 +271,143 @@ public class StreamBufferTest {
         assertEquals(11, buffer.size());
     }
 
+    @Test public void powerOfTwo() {
+        buffer = new StreamBuffer<Integer>(BUFFER_SIZE, true);
+        assertEquals(16, buffer.capacity());
+        buffer = new StreamBuffer<Integer>(16, true);
+        assertEquals(16, buffer.capacity());
+    }
+
+    @Test public void checkAccess_powerOfTwo() {
+        // Same as pattern 2 but wrapping with a mask
+        buffer = new StreamBuffer<Integer>(8, true);
+        Object[][] pattern =
+            {{'w', 17}, {'r',  6}, {'w', 10}, {'w', 18}, // 45, 39
+             {'w', 13}, {'w', 14}, {'w',  6}, {'f',  3}, // 78, 69
+             {'w', 14}, {'w',  5}, {'f', 17}, {'w',  3}, // 100, 74
+             {'f',  6}, {'r',  7}, {'f',  6}, {'r', 20}, // 100, 35
+             {'r',  9}, {'r', 17}};                      // 100, 9
+        checkAccess(sequence, pattern, 8);
+        assertEquals(9, buffer.size());
+        assertEquals(128, buffer.capacity());
+    }
+
+    @Test public void putCopyTo_range() {
+        // Put in chunks that wrap around and grow the buffer
+        buffer = new StreamBuffer<Integer>(8, true);
+        int[] chunks = {3, 2, 4, 1, 4, 3, 4, 2, 4, 4};
+        long position = 0;
+        int freed = 0;
+        for (int chunk : chunks) {
+            buffer.put(sequence, (int) position, chunk);
+            position += chunk;
+            // Free all but the last few so the contents wrap
+            if (position - freed > 4) {
+                buffer.free(position - 5);
+                freed = (int) position - 4;
+            }
+            Integer[] copy = new Integer[(int)(position - freed) + 2];
+            buffer.copyTo(freed, copy, 1, copy.length - 2);
+            for (int index = 0; index < copy.length - 2; index++) {
+                assertEquals(sequence[freed + index], copy[index + 1]);
+            }
+            assertNull(copy[0]);
+            assertNull(copy[copy.length - 1]);
+        }
+        checkLowerUpper(freed, position);
+        assertEquals(8, buffer.capacity());
+        // A big put grows by a power of two
+        buffer.put(sequence, 50, 40);
+        assertEquals(64, buffer.capacity());
+        for (int index = 0; index < 40; index++) {
+            assertEquals(sequence[50 + index], buffer.getAt(position + index));
+        }
+    }
+
+    @Test public void arrayIndex() {
+        buffer = new StreamBuffer<Integer>(8);
+        putIntoBuffer(6);
+        buffer.free(4);
+        buffer.put(sequence, 6, 4);
+        // Contents occupy [5,8) and [0,2) of the array
+        assertEquals(5, buffer.arrayIndex(5, 3));
+        assertEquals(-1, buffer.arrayIndex(5, 4));
+        assertEquals(0, buffer.arrayIndex(8, 2));
+        assertEquals(sequence[8], buffer.array()[0]);
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void copyTo_freed() {
+        putIntoBuffer(5);
+        buffer.free(1);
+        buffer.copyTo(1, new Integer[4], 0, 4);
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void copyTo_beyondUpper() {
+        putIntoBuffer(5);
+        buffer.copyTo(2, new Integer[4], 0, 4);
+    }
+
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void put_badRange() {
+        buffer.put(sequence, 98, 3);
+    }
+
+    @Test public void shrinkPolicy() {
+        buffer = new StreamBuffer<Integer>(8, true);
+        buffer.setShrinkPolicy(8, 4);
+        // A spike grows the buffer
+        buffer.put(sequence, 0, 70);
+        assertEquals(128, buffer.capacity());
+        // Not shrunk until the contents are a quarter of the capacity
+        buffer.free(36);
+        checkSizeCapacity(33, 128);
+        buffer.free(37);
+        // Shrunk to leave room for the contents to double
+        checkSizeCapacity(32, 64);
+        for (long position = 38; position < 70; position++) {
+            assertEquals(sequence[(int) position], buffer.getAt(position));
+        }
+        // Shrinks back to the target but no further
+        buffer.free(68);
+        checkSizeCapacity(1, 8);
+        buffer.free(69);
+        checkSizeCapacity(0, 8);
+        // Still works after shrinking
+        buffer.put(sequence, 70, 20);
+        assertEquals(32, buffer.capacity());
+        assertEquals(sequence[89], buffer.getAt(89));
+    }
+
+    @Test public void shrinkPolicy_off() {
+        buffer.put(sequence, 0, 70);
+        buffer.free(69);
+        checkSizeCapacity(0, 80);
+    }
+
+    @Test public void maximumCapacity() {
+        buffer.setMaximumCapacity(30);
+        // Grows up to but not beyond the maximum
+        putIntoBuffer(25);
+        assertEquals(30, buffer.capacity());
+        putIntoBuffer(5);
+        try {
+            buffer.put(sequence[0]);
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("maximum is 30"));
+        }
+        // Contents are intact
+        checkSizeCapacity(30, 30);
+        assertEquals(sequence[4], buffer.getAt(29));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void maximumCapacity_lessThanCapacity() {
+        buffer.setMaximumCapacity(BUFFER_SIZE - 1);
+    }
+
     /**
      * Simulates and checks various access patterns according to the
      * given schedule.
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * SIMD within a register: operations on the 8 bytes of a long at once.
+ * Words are little endian, so byte 0 of a word is its least
+ * significant byte.
+ *
+ * <p>The byte tests return a mask with the high bit set in each byte
+ * that passes.  A byte above one that passes may also be marked
+ * (because of borrows) but the lowest marked byte is always correct,
+ * which is all that {@link #firstByte(long)} needs.</p>
+ */
+final class Swar {
+
+    private Swar() {
+    }
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /** Returns a word with every byte set to the given byte. */
+    static long broadcast(int value) {
+        return (value & 0xffL) * ONES;
+    }
+
+    /** Marks the bytes of the given word that are zero. */
+    static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    /**
+     * Marks the bytes of the given word that equal the byte in the
+     * given broadcast word.
+     */
+    static long equalBytes(long word, long broadcast) {
+        return zeroBytes(word ^ broadcast);
+    }
+
+    /**
+     * Marks the bytes of the given word that are less than the given
+     * value, which must be at most 128.
+     */
+    static long lessBytes(long word, int value) {
+        return (word - value * ONES) & ~word & HIGHS;
+    }
+
+    /** Returns the index of the lowest byte marked in the given mask. */
+    static int firstByte(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SwarTest {
+
+    /** Makes a little-endian word from the given bytes. */
+    static long word(int... bytes) {
+        long word = 0;
+        for (int index = bytes.length - 1; index >= 0; index--) {
+            word = (word << 8) | (bytes[index] & 0xff);
+        }
+        return word;
+    }
+
+    @Test public void broadcast() {
+        assertEquals(0x2c2c2c2c2c2c2c2cL, Swar.broadcast(','));
+        assertEquals(-1L, Swar.broadcast(0xff));
+    }
+
+    @Test public void equalBytes() {
+        long comma = Swar.broadcast(',');
+        assertEquals(0, Swar.equalBytes(
+            word('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'), comma));
+        for (int index = 0; index < 8; index++) {
+            int[] bytes = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
+            bytes[index] = ',';
+            assertEquals(index, Swar.firstByte(
+                Swar.equalBytes(word(bytes), comma)));
+        }
+        // The lowest match is found despite borrows and high bytes
+        assertEquals(2, Swar.firstByte(Swar.equalBytes(
+            word(0xff, 0x80, ',', '-', ',', 0, 1, 0xff), comma)));
+    }
+
+    @Test public void lessBytes() {
+        int limit = '\r' + 1;
+        assertEquals(0, Swar.lessBytes(
+            word(' ', 'a', 0x80, 0xff, 0x0e, '~', '"', ','), limit));
+        assertEquals(3, Swar.firstByte(Swar.lessBytes(
+            word(' ', 'a', 0x80, '\n', 0x0e, 0, '"', '\r'), limit)));
+        assertEquals(0, Swar.firstByte(Swar.lessBytes(
+            word(0, 1, 2, 3, 4, 5, 6, 7), limit)));
+    }
+
+    @Test public void firstByte_none() {
+        assertEquals(8, Swar.firstByte(0));
+    }
+}
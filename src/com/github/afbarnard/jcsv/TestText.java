@@ -49,6 +49,13 @@ public class TestText {
      */
     public static final String newlines = "\n\r\r\n";
 
+    /**
+     * Returns followed by more than one line feed, both plain and
+     * escaped.  Only CR+LF is one newline, so "\r\n\n" is two.
+     */
+    public static final String returnsAndFeeds =
+        "a,\\\r\n\nb\r\n\n\r\r\n\nc,\"d\r\n\n\"\ne\\\r\r\n";
+
     /**
      * <p>All the various types of whitespace that match the regular
      * expression '\s'.  This includes VT and FF since they are not
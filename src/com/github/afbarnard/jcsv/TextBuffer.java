@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A sliding window of a stream of characters with random access by
+ * position: the buffer of input that a {@link Lexer} holds until it is
+ * freed.  {@link StreamBufferChar} keeps the characters in an array on
+ * the heap and {@link DirectTextBuffer} keeps them off the heap.
+ *
+ * <p>Positions are sequence indices in the stream.  The buffer holds
+ * the positions in [{@link #lower()},{@link #upper()}) and accessing
+ * other positions throws {@link java.util.NoSuchElementException}.</p>
+ */
+public interface TextBuffer {
+
+    int capacity();
+
+    int size();
+
+    long lower();
+
+    long upper();
+
+    /** Appends the given character. */
+    void put(char character);
+
+    /** Appends the given range of the given array. */
+    void put(char[] characters, int offset, int length);
+
+    char getAt(long position);
+
+    /**
+     * Copies the given number of characters starting at the given
+     * position into the given array starting at the given offset.
+     */
+    void copyTo(long position, char[] characters, int offset, int length);
+
+    /** Frees the characters up to and including the given position. */
+    void free(long position);
+
+    /**
+     * Returns the array that stores the characters, or null if they are
+     * not stored in an array.  See {@link StreamBuffer#array()}.
+     */
+    char[] array();
+
+    /**
+     * Returns the index in {@link #array()} of the given range if the
+     * range is stored there in one piece, otherwise -1.
+     */
+    int arrayIndex(long position, int length);
+
+    int maximumCapacity();
+
+    /** See {@link StreamBuffer#setMaximumCapacity(int)}. */
+    void setMaximumCapacity(int maximumCapacity);
+
+    /** See {@link StreamBuffer#setShrinkPolicy(int, int)}. */
+    void setShrinkPolicy(int targetCapacity, int shrinkFactor);
+}
@@ -5,7 +5,7 @@
 
 package com.github.afbarnard.jcsv;
 
-public class Token {
+public class Token extends Pooled {
 
     public static enum Type {
         NONE,
@@ -16,6 +16,7 @@ public class Token {
         QUOTE,
         ESCAPE,
         COMMENT,
+        REJECT,  // The rest of the line failed a filter and is skipped
         EOF  // Treat EOF as a token
     }
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A batch of tokens stored as parallel arrays of primitives rather than
+ * as {@link Token} objects, as filled by {@link Lexer#readBatch} and
+ * {@link ByteLexer#readBatch}.  Token {@code i} of the batch is
+ * described by element {@code i} of each array, for {@code i} in
+ * {@code [0,size())}.  Types are stored as the ordinals of {@link
+ * Token.Type}.
+ *
+ * <p>A batch holds no references to input, so it can be refilled as
+ * soon as its tokens have been processed.  The input its tokens refer
+ * to stays in the lexer until freed with the lexer's {@code
+ * free(long)}, for example with {@link #lastPosition()}.</p>
+ */
+public class TokenBatch {
+
+    public final byte[] types;
+    public final long[] positions;
+    public final int[] lengths;
+    public final long[] lines;
+    public final int[] columns;
+
+    int size = 0;
+
+    public TokenBatch(int capacity) {
+        types = new byte[capacity];
+        positions = new long[capacity];
+        lengths = new int[capacity];
+        lines = new long[capacity];
+        columns = new int[capacity];
+    }
+
+    public TokenBatch() {
+        this(1024);
+    }
+
+    public int capacity() {
+        return types.length;
+    }
+
+    /** Returns the number of tokens in this batch. */
+    public int size() {
+        return size;
+    }
+
+    public Token.Type type(int index) {
+        checkIndex(index);
+        return Dialect.TYPES[types[index]];
+    }
+
+    /**
+     * Returns the position of the last unit of input (character or
+     * byte) covered by this batch, or -1 if the batch is empty.
+     */
+    public long lastPosition() {
+        if (size == 0) {
+            return -1;
+        }
+        return positions[size - 1] + lengths[size - 1] - 1;
+    }
+
+    ////////////////////////////////////////
+    // Filling, for use by the lexers
+
+    void clear() {
+        size = 0;
+    }
+
+    int freeSize() {
+        return types.length - size;
+    }
+
+    void add(Token.Type type, long position, int length,
+             long line, int column) {
+        types[size] = (byte) type.ordinal();
+        positions[size] = position;
+        lengths[size] = length;
+        lines[size] = line;
+        columns[size] = column;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                String.format("Token %d is not in [0,%d)", index, size));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+package com.github.afbarnard.jcsv;
+
+/**
+ * A source of tokens and of the input they refer to, that is, a lexer.
+ * Positions and lengths are in the units of the input (characters or
+ * bytes) but text is always returned as characters.
+ */
+public interface TokenSource {
+
+    /** Returns the next token or null if there are no more tokens. */
+    Token readToken();
+
+    /**
+     * Gives back the given token for reuse and frees the input up to
+     * and including the end of the token.
+     */
+    void free(Token token);
+
+    /** Frees the input up to and including the given position. */
+    void free(long position);
+
+    String getString(long position, int length);
+
+    /**
+     * Sets the given view to the text of the given range of input and
+     * returns the view.  The view is valid until the range is freed.
+     */
+    CharView getView(long position, int length, CharView view);
+
+    /**
+     * Whether lines and columns are found on demand with {@link
+     * #lineAt(long)} and {@link #columnAt(long)} rather than set in
+     * every token.
+     */
+    boolean hasLazyProvenance();
+
+    /** Returns the line of the given position (if provenance is lazy). */
+    long lineAt(long position);
+
+    /** Returns the column of the given position (if provenance is lazy). */
+    int columnAt(long position);
+}
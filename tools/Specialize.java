@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 Aubrey Barnard.  This is free software.  See
+ * LICENSE for details.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Generates a primitive version of a generic class from its source,
+ * which serves as the template.  For example, generates
+ * <code>StreamBufferChar</code> (a buffer of <code>char</code>) from
+ * <code>StreamBuffer&lt;E&gt;</code>.
+ *
+ * <p>Usage: <code>java Specialize &lt;template&gt; &lt;output&gt;
+ * &lt;suffix&gt; &lt;primitive&gt; [&lt;interface&gt;]</code></p>
+ *
+ * <p>The template must have a single type parameter named
+ * <code>E</code> and store its elements in an <code>Object[]</code>.
+ * Only code is changed, never comments or literals:</p>
+ * <ul>
+ * <li>the class name becomes the class name plus the suffix and loses
+ * its type parameter, and the class implements the given interface
+ * (if any), which lets a specialization implement an interface that
+ * only makes sense for its primitive</li>
+ * <li><code>E</code> becomes the primitive</li>
+ * <li><code>Object[</code> becomes the primitive array</li>
+ * <li>casts to <code>E</code> are removed, as are lines with only
+ * <code>@SuppressWarnings("unchecked")</code></li>
+ * </ul>
+ *
+ * <p>Templates are plain Java that compiles (and is tested) on its
+ * own, so specializing is a matter of these substitutions.</p>
+ */
+public class Specialize {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String text;
+    private final String className;
+    private final String newClassName;
+    private final String primitive;
+    private final String implemented;
+    private final StringBuilder output = new StringBuilder();
+    private int index = 0;
+
+    Specialize(String text, String className, String suffix,
+               String primitive, String implemented) {
+        this.text = text;
+        this.className = className;
+        this.newClassName = className + suffix;
+        this.primitive = primitive;
+        this.implemented = implemented;
+    }
+
+    /** Returns the specialized version of the template. */
+    String specialize(String templateName) {
+        while (index < text.length()) {
+            char character = text.charAt(index);
+            if (text.startsWith("//", index)) {
+                copyThrough("\n");
+            } else if (text.startsWith("/*", index)) {
+                copyThrough("*/");
+            } else if (character == '"' || character == '\'') {
+                copyLiteral(character);
+            } else if (character == '@'
+                       && text.startsWith("@SuppressWarnings(\"unchecked\")",
+                                          index)
+                       && isAloneOnLine("@SuppressWarnings(\"unchecked\")")) {
+                dropLine();
+            } else if (character == '(' && isCastToE()) {
+                // Drop the cast and the space after it
+                index = skipSpace(text.indexOf(')', index) + 1);
+            } else if (Character.isJavaIdentifierStart(character)) {
+                if (text.startsWith("package ", index)) {
+                    output.append(String.format(
+                        "// Generated from %s by tools/Specialize.java."
+                        + "  Do not edit.%n%n", templateName));
+                }
+                identifier();
+            } else {
+                output.append(character);
+                index++;
+            }
+        }
+        return output.toString();
+    }
+
+    private void identifier() {
+        int end = index + 1;
+        while (end < text.length()
+               && Character.isJavaIdentifierPart(text.charAt(end))) {
+            end++;
+        }
+        String name = text.substring(index, end);
+        index = end;
+        if (name.equals(className)) {
+            boolean declaration = output.toString().endsWith("class ");
+            output.append(newClassName);
+            // Drop the type parameter
+            if (text.startsWith("<E>", index)) {
+                index += 3;
+            }
+            if (declaration && implemented != null) {
+                output.append(" implements ").append(implemented);
+            }
+        } else if (name.equals("E")) {
+            output.append(primitive);
+        } else if (name.equals("Object") && text.startsWith("[", index)) {
+            output.append(primitive);
+        } else {
+            output.append(name);
+        }
+    }
+
+    /** Returns whether "(E)" followed by an operand starts here. */
+    private boolean isCastToE() {
+        int start = skipSpace(index + 1);
+        if (!text.startsWith("E", start)) {
+            return false;
+        }
+        int end = skipSpace(start + 1);
+        if (!text.startsWith(")", end)) {
+            return false;
+        }
+        int operand = skipSpace(end + 1);
+        return (operand < text.length()
+                && (Character.isJavaIdentifierStart(text.charAt(operand))
+                    || text.charAt(operand) == '('));
+    }
+
+    private boolean isAloneOnLine(String code) {
+        int lineStart = text.lastIndexOf('\n', index - 1) + 1;
+        int lineEnd = text.indexOf('\n', index);
+        if (lineEnd < 0) {
+            lineEnd = text.length();
+        }
+        return text.substring(lineStart, lineEnd).trim().equals(code);
+    }
+
+    /** Drops the current line, including its indentation. */
+    private void dropLine() {
+        int lineStart = output.lastIndexOf("\n") + 1;
+        output.setLength(lineStart);
+        int lineEnd = text.indexOf('\n', index);
+        index = (lineEnd < 0 ? text.length() : lineEnd + 1);
+    }
+
+    private int skipSpace(int position) {
+        while (position < text.length()
+               && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /** Copies up to and including the given terminator. */
+    private void copyThrough(String terminator) {
+        int end = text.indexOf(terminator, index + 2);
+        end = (end < 0 ? text.length() : end + terminator.length());
+        output.append(text, index, end);
+        index = end;
+    }
+
+    /** Copies a string or character literal. */
+    private void copyLiteral(char quote) {
+        int end = index + 1;
+        while (end < text.length() && text.charAt(end) != quote) {
+            if (text.charAt(end) == '\\') {
+                end++;
+            }
+            end++;
+        }
+        end = Math.min(end + 1, text.length());
+        output.append(text, index, end);
+        index = end;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 && args.length != 5) {
+            System.err.println("Usage: java Specialize <template> <output>"
+                               + " <suffix> <primitive> [<interface>]");
+            System.exit(2);
+        }
+        Path template = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        String templateName = template.getFileName().toString();
+        String className =
+            templateName.substring(0, templateName.length() - ".java".length());
+        String text = new String(Files.readAllBytes(template), UTF8);
+        String specialized = new Specialize(
+            text, className, args[2], args[3],
+            (args.length > 4 ? args[4] : null)).specialize(templateName);
+        try (Writer writer = Files.newBufferedWriter(output, UTF8)) {
+            writer.write(specialized);
+        }
+    }
+}